@@ -0,0 +1,178 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Vincent Zhang
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package co.phoenixlab.phoenixpac;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The order in which assets were first read, for laying out a PAC file so that loading reads it front to back. Only
+ * the first access to each asset counts. Assets are recorded by {@link TracingPacFile} or by calling
+ * {@link #record(TypePurposeUniqueId)} directly, and the trace is handed to
+ * {@link PacFileWriter#setAccessTrace(AccessTrace)}.
+ * <p>
+ * Traces are saved as text, one TPUID per line in the {@code 0xTTTT,0xPPPP,0xUUUUUUUU} form of {@link TPU#valueOf}.
+ * Blank lines and lines starting with {@code #} are ignored when loading. Recording is thread safe.
+ */
+public final class AccessTrace {
+
+    private final ConcurrentHashMap<TypePurposeUniqueId, Integer> ranks = new ConcurrentHashMap<>();
+    private final AtomicInteger next = new AtomicInteger();
+
+    /**
+     * Records an access to the given asset.
+     *
+     * @return True if this is the first access to it
+     */
+    public boolean record(TypePurposeUniqueId tpuid) {
+        if (ranks.containsKey(tpuid)) {
+            return false;
+        }
+        int[] rank = {-1};
+        ranks.computeIfAbsent(tpuid, k -> rank[0] = next.getAndIncrement());
+        return rank[0] != -1;
+    }
+
+    public boolean contains(TypePurposeUniqueId tpuid) {
+        return ranks.containsKey(tpuid);
+    }
+
+    /**
+     * @return How many assets were accessed before the given one first was, or -1 if it was never accessed
+     */
+    public int getRank(TypePurposeUniqueId tpuid) {
+        Integer rank = ranks.get(tpuid);
+        return rank == null ? -1 : rank;
+    }
+
+    public int size() {
+        return ranks.size();
+    }
+
+    /**
+     * @return The assets recorded so far, in the order they were first accessed
+     */
+    public List<TypePurposeUniqueId> getOrder() {
+        List<Map.Entry<TypePurposeUniqueId, Integer>> entries = new ArrayList<>(ranks.entrySet());
+        entries.sort(Map.Entry.comparingByValue());
+        List<TypePurposeUniqueId> ret = new ArrayList<>(entries.size());
+        for (Map.Entry<TypePurposeUniqueId, Integer> entry : entries) {
+            ret.add(entry.getKey());
+        }
+        return Collections.unmodifiableList(ret);
+    }
+
+    /**
+     * Orders assets by their first access. Assets that were never accessed compare equal to each other and after all
+     * that were, so a stable sort keeps them in their original order.
+     */
+    public Comparator<TypePurposeUniqueId> layoutOrder() {
+        return Comparator.comparingInt(tpuid -> {
+            int rank = getRank(tpuid);
+            return rank == -1 ? Integer.MAX_VALUE : rank;
+        });
+    }
+
+    public void write(Writer writer) throws IOException {
+        for (TypePurposeUniqueId tpuid : getOrder()) {
+            writer.write(String.format("0x%04X,0x%04X,0x%08X%n",
+                    tpuid.getTypeId(), tpuid.getPurposeId(), tpuid.getUniqueId()));
+        }
+        writer.flush();
+    }
+
+    public void save(Path path) throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+            write(writer);
+        }
+    }
+
+    /**
+     * Reads a trace saved by {@link #write(Writer)}. Repeated TPUIDs keep their first position.
+     */
+    public static AccessTrace read(Reader reader) throws IOException {
+        AccessTrace trace = new AccessTrace();
+        BufferedReader lines = reader instanceof BufferedReader ? (BufferedReader) reader : new BufferedReader(reader);
+        String line;
+        int lineNumber = 0;
+        while ((line = lines.readLine()) != null) {
+            ++lineNumber;
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            try {
+                trace.record(parse(line));
+            } catch (NumberFormatException e) {
+                throw new IOException(String.format("Invalid TPUID \"%s\" on line %d", line, lineNumber), e);
+            }
+        }
+        return trace;
+    }
+
+    public static AccessTrace load(Path path) throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            return read(reader);
+        }
+    }
+
+    /**
+     * Parses a TPUID the way {@link TPU#valueOf(String)} does, but without overflowing on unique IDs from
+     * {@code 0x80000000}.
+     */
+    private static TypePurposeUniqueId parse(String s) {
+        String[] split = s.split(",");
+        if (split.length != 3) {
+            throw new NumberFormatException(s);
+        }
+        return new TypePurposeUniqueId((int) parseHex(split[0], 0xFFFF), (int) parseHex(split[1], 0xFFFF),
+                (int) parseHex(split[2], 0xFFFFFFFFL));
+    }
+
+    private static long parseHex(String s, long max) {
+        s = s.trim();
+        if (s.toLowerCase().startsWith("0x")) {
+            s = s.substring(2);
+        }
+        long value = Long.parseLong(s, 16);
+        if (value < 0 || value > max) {
+            throw new NumberFormatException(s);
+        }
+        return value;
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Vincent Zhang
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package co.phoenixlab.phoenixpac;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.Deflater;
+
+/**
+ * Compresses assets unless they look incompressible. In order, an asset is stored raw if its type is listed as
+ * stored, if it is smaller than the minimum size, or if a fast trial compression of its first bytes doesn't reach the
+ * maximum ratio. Otherwise it is compressed with its type's codec and level, and still stored raw if the end result
+ * misses the ratio.
+ */
+public class AdaptiveCompressionPolicy implements CompressionPolicy {
+
+    public static final double DEFAULT_MAX_RATIO = 0.9;
+    public static final int DEFAULT_MIN_SIZE = 64;
+    public static final int DEFAULT_SAMPLE_SIZE = 64 * 1024;
+
+    private final int compressionId;
+    private final int level;
+    private final Set<Integer> storedTypes;
+    /**
+     * Codec and level per type, as {compressionId, level}
+     */
+    private final Map<Integer, int[]> typeCodecs;
+    private double maxRatio;
+    private int minSize;
+    private int sampleSize;
+
+    /**
+     * Deflates assets at the given level by default.
+     */
+    public AdaptiveCompressionPolicy(int level) {
+        this(PacFile.COMPRESSION_DEFLATE, level);
+    }
+
+    public AdaptiveCompressionPolicy(int compressionId, int level) {
+        //  Fail now rather than on the first asset
+        CompressionDecision.of(compressionId, level);
+        this.compressionId = compressionId;
+        this.level = level;
+        this.storedTypes = new HashSet<>();
+        this.typeCodecs = new HashMap<>();
+        this.maxRatio = DEFAULT_MAX_RATIO;
+        this.minSize = DEFAULT_MIN_SIZE;
+        this.sampleSize = DEFAULT_SAMPLE_SIZE;
+    }
+
+    /**
+     * Always stores assets of the given type raw, such as types that hold images or audio that are compressed already.
+     */
+    public AdaptiveCompressionPolicy withStoredType(int typeId) {
+        storedTypes.add(typeId);
+        return this;
+    }
+
+    public AdaptiveCompressionPolicy withTypeLevel(int typeId, int level) {
+        return withTypeCodec(typeId, compressionId, level);
+    }
+
+    /**
+     * Compresses assets of the given type with another codec, such as a faster one for assets that are read often.
+     */
+    public AdaptiveCompressionPolicy withTypeCodec(int typeId, int compressionId, int level) {
+        CompressionDecision.of(compressionId, level);
+        typeCodecs.put(typeId, new int[] {compressionId, level});
+        return this;
+    }
+
+    /**
+     * @param maxRatio Largest compressed to uncompressed size ratio for which an asset is kept compressed
+     */
+    public AdaptiveCompressionPolicy withMaxRatio(double maxRatio) {
+        if (!(maxRatio > 0)) {
+            throw new IllegalArgumentException("Ratio must be positive");
+        }
+        this.maxRatio = maxRatio;
+        return this;
+    }
+
+    /**
+     * @param minSize Assets known to be smaller than this are stored raw
+     */
+    public AdaptiveCompressionPolicy withMinSize(int minSize) {
+        this.minSize = minSize;
+        return this;
+    }
+
+    /**
+     * @param sampleSize How many leading bytes of an asset to trial compress, or 0 to not sample
+     */
+    public AdaptiveCompressionPolicy withSampleSize(int sampleSize) {
+        if (sampleSize < 0) {
+            throw new IllegalArgumentException("Sample size cannot be negative");
+        }
+        this.sampleSize = sampleSize;
+        return this;
+    }
+
+    @Override
+    public CompressionDecision decide(TypePurposeUniqueId tpuid, AssetHandle source) throws IOException {
+        int typeId = tpuid.getTypeId();
+        if (storedTypes.contains(typeId)) {
+            return CompressionDecision.STORE;
+        }
+        long size = source.getMemorySize();
+        if (size < 0 && source.getCompressionId() == 0) {
+            //  Uncompressed, so its stored size is its size
+            size = source.getRawSize();
+        }
+        if (size >= 0 && size < minSize) {
+            return CompressionDecision.STORE;
+        }
+        //  Small enough that the real compression costs about as much as sampling, which it checks anyway
+        if (sampleSize > 0 && (size < 0 || size > sampleSize) && !sampleCompresses(source)) {
+            return CompressionDecision.STORE;
+        }
+        int[] typeCodec = typeCodecs.get(typeId);
+        if (typeCodec == null) {
+            return CompressionDecision.of(compressionId, level, maxRatio);
+        }
+        return CompressionDecision.of(typeCodec[0], typeCodec[1], maxRatio);
+    }
+
+    private boolean sampleCompresses(AssetHandle source) throws IOException {
+        byte[] sample = new byte[sampleSize];
+        int length = 0;
+        try (InputStream in = source.getRawStream()) {
+            int read;
+            while (length < sample.length && (read = in.read(sample, length, sample.length - length)) != -1) {
+                length += read;
+            }
+        }
+        if (length == 0) {
+            return false;
+        }
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(sample, 0, length);
+            deflater.finish();
+            byte[] out = new byte[8192];
+            long compressed = 0;
+            while (!deflater.finished()) {
+                compressed += deflater.deflate(out);
+            }
+            return compressed <= length * maxRatio;
+        } finally {
+            deflater.end();
+        }
+    }
+}
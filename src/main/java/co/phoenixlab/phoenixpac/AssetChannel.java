@@ -0,0 +1,168 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Vincent Zhang
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package co.phoenixlab.phoenixpac;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+
+/**
+ * Read-only channel over one asset. Stored assets are read with positional reads on the archive, so seeking is free.
+ * Compressed assets are decompressed on the fly; seeking forward skips ahead in the decompressed stream, and seeking
+ * backward restarts it. Codecs that can do better provide their own channel, see {@link Decompression#newChannel}.
+ */
+class AssetChannel implements SeekableByteChannel {
+
+    private static final int TRANSFER_SIZE = 8192;
+
+    private final AssetHandle handle;
+    private final boolean compressed;
+    private final long size;
+    private long position;
+    private boolean open;
+    /**
+     * Decompressed stream and how far into the asset it is, for compressed assets
+     */
+    private InputStream stream;
+    private long streamPosition;
+    private byte[] transfer;
+
+    AssetChannel(AssetHandle handle, long size) {
+        this.handle = handle;
+        this.compressed = handle.getCompressionId() != 0;
+        this.size = size;
+        this.open = true;
+    }
+
+    @Override
+    public synchronized int read(ByteBuffer dst) throws IOException {
+        ensureOpen();
+        if (position >= size) {
+            return -1;
+        }
+        int read = compressed ? readDecompressed(dst) : handle.readRaw(dst, position);
+        if (read > 0) {
+            position += read;
+        }
+        return read;
+    }
+
+    private int readDecompressed(ByteBuffer dst) throws IOException {
+        if (!dst.hasRemaining()) {
+            return 0;
+        }
+        if (stream == null || streamPosition > position) {
+            closeStream();
+            stream = handle.getDecompressedStream();
+            streamPosition = 0;
+        }
+        if (transfer == null) {
+            transfer = new byte[TRANSFER_SIZE];
+        }
+        while (streamPosition < position) {
+            int skipped = stream.read(transfer, 0, (int) Math.min(transfer.length, position - streamPosition));
+            if (skipped < 0) {
+                return -1;
+            }
+            streamPosition += skipped;
+        }
+        int read;
+        if (dst.hasArray()) {
+            read = stream.read(dst.array(), dst.arrayOffset() + dst.position(), dst.remaining());
+            if (read > 0) {
+                dst.position(dst.position() + read);
+            }
+        } else {
+            read = stream.read(transfer, 0, Math.min(transfer.length, dst.remaining()));
+            if (read > 0) {
+                dst.put(transfer, 0, read);
+            }
+        }
+        if (read > 0) {
+            streamPosition += read;
+        }
+        return read;
+    }
+
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public synchronized long position() throws IOException {
+        ensureOpen();
+        return position;
+    }
+
+    @Override
+    public synchronized SeekableByteChannel position(long newPosition) throws IOException {
+        ensureOpen();
+        if (newPosition < 0) {
+            throw new IllegalArgumentException("Negative position");
+        }
+        position = newPosition;
+        return this;
+    }
+
+    @Override
+    public synchronized long size() throws IOException {
+        ensureOpen();
+        return size;
+    }
+
+    @Override
+    public SeekableByteChannel truncate(long size) throws IOException {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public synchronized boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        open = false;
+        closeStream();
+    }
+
+    private void closeStream() throws IOException {
+        if (stream != null) {
+            InputStream old = stream;
+            stream = null;
+            old.close();
+        }
+    }
+
+    private void ensureOpen() throws ClosedChannelException {
+        if (!open) {
+            throw new ClosedChannelException();
+        }
+    }
+}
@@ -27,6 +27,10 @@ package co.phoenixlab.phoenixpac;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
 
 public interface AssetHandle {
 
@@ -38,6 +42,97 @@ public interface AssetHandle {
 
     int getCompressionId();
 
+    /**
+     * @return The size of the asset once decompressed, or -1 if not known up front
+     */
+    default int getMemorySize() {
+        return -1;
+    }
+
+    /**
+     * @return The size of the asset as stored, that is of {@link #getRawBytes()}, or -1 if not known up front
+     */
+    default long getRawSize() {
+        return -1;
+    }
+
+    /**
+     * Reads raw bytes of the asset into {@code dst}, starting {@code position} bytes into the asset, like a positional
+     * {@link java.nio.channels.FileChannel} read. By default the whole asset is read and the requested part copied.
+     *
+     * @return The number of bytes read, or -1 if {@code position} is at or past the end of the asset
+     */
+    default int readRaw(ByteBuffer dst, long position) throws IOException {
+        return MappedAssetHandle.read(getRawByteBuffer(), dst, position);
+    }
+
+    /**
+     * Returns the asset's contents, decompressed according to {@link #getCompressionId()}. Uncompressed assets are
+     * returned as is.
+     */
+    default byte[] getDecompressedBytes() throws IOException {
+        return Decompression.decompressToBytes(this);
+    }
+
+    default ByteBuffer getDecompressedByteBuffer() throws IOException {
+        return ByteBuffer.wrap(getDecompressedBytes());
+    }
+
+    /**
+     * Decompresses the asset straight into {@code dst}, starting at its position. The position is advanced past the
+     * decompressed data.
+     *
+     * @return {@code dst}
+     * @throws java.nio.BufferOverflowException If the asset does not fit in the remaining space
+     */
+    default ByteBuffer getDecompressedByteBuffer(ByteBuffer dst) throws IOException {
+        return Decompression.decompressInto(this, dst);
+    }
+
+    /**
+     * Returns a stream of the decompressed asset. Closing it returns any decompressor it used to the shared
+     * {@link InflaterPool}.
+     */
+    default InputStream getDecompressedStream() throws IOException {
+        return Decompression.decompressToStream(this);
+    }
+
+    /**
+     * Opens a read-only channel over the decompressed asset. Uncompressed assets, and assets compressed with a
+     * {@link co.phoenixlab.phoenixpac.codec.SeekablePacCodec}, are read only as far as each read needs. Other assets
+     * are decompressed as a stream, which starts over whenever the channel seeks backwards.
+     */
+    default SeekableByteChannel newDecompressedChannel() throws IOException {
+        return Decompression.newChannel(this);
+    }
+
+    /**
+     * Reads the asset's raw contents without blocking the calling thread, where the handle supports it. By default the
+     * read happens synchronously and an already completed future is returned.
+     */
+    default CompletableFuture<ByteBuffer> getRawByteBufferAsync() {
+        CompletableFuture<ByteBuffer> future = new CompletableFuture<>();
+        try {
+            future.complete(getRawByteBuffer());
+        } catch (IOException | RuntimeException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    /**
+     * Reads the asset without blocking the calling thread, then decompresses it on the given executor.
+     */
+    default CompletableFuture<ByteBuffer> getDecompressedByteBufferAsync(Executor executor) {
+        return getRawByteBufferAsync().thenApplyAsync(raw -> {
+            try {
+                return Decompression.decompress(raw, getCompressionId(), getMemorySize());
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        }, executor);
+    }
+
     default AssetHandle copy() {
         throw new UnsupportedOperationException("Copy not supported on " + getClass().toString());
     }
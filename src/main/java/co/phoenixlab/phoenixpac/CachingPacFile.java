@@ -0,0 +1,378 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Vincent Zhang
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package co.phoenixlab.phoenixpac;
+
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Wraps another PacFile and keeps the decompressed contents of recently used assets in memory, up to a byte budget.
+ * The least recently used assets are evicted first.
+ * <p>
+ * The cache is split into segments with a lock each, so that readers of different assets rarely wait on each other.
+ * Eviction picks the least recently used asset across segments, which is exact unless other threads are using the
+ * cache at the same time.
+ * <p>
+ * Handles returned by this class are always uncompressed and share the cached payload, which is read only. Concurrent
+ * misses on the same asset are folded into a single load.
+ */
+public class CachingPacFile extends PacFile {
+
+    /**
+     * Number of segments, a power of two
+     */
+    private static final int SEGMENTS = 16;
+
+    private final long maxBytes;
+    private final boolean offHeap;
+    private final Segment[] segments;
+    /**
+     * Ticks on every use of a cached asset, to compare recency across segments
+     */
+    private final AtomicLong clock = new AtomicLong();
+    private final AtomicLong cachedBytes = new AtomicLong();
+    private final Object swapLock = new Object();
+    private volatile Generation current;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public CachingPacFile(PacFile pacFile, long maxBytes) {
+        this(pacFile, maxBytes, false);
+    }
+
+    /**
+     * @param pacFile  The PacFile to cache assets from
+     * @param maxBytes The most decompressed bytes to keep cached at once
+     * @param offHeap  Whether to keep cached payloads in direct buffers instead of on the heap
+     */
+    public CachingPacFile(PacFile pacFile, long maxBytes, boolean offHeap) {
+        if (maxBytes < 0) {
+            throw new IllegalArgumentException("Cache size cannot be negative");
+        }
+        this.maxBytes = maxBytes;
+        this.offHeap = offHeap;
+        this.segments = new Segment[SEGMENTS];
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment();
+        }
+        this.current = new Generation(pacFile);
+    }
+
+    public PacFile getDelegate() {
+        return current.pacFile;
+    }
+
+    @Override
+    public PacHeader getHeader() {
+        return current.pacFile.getHeader();
+    }
+
+    @Override
+    public Index getIndex() {
+        return current.pacFile.getIndex();
+    }
+
+    @Override
+    public PacMetadata getMetadata() {
+        return current.pacFile.getMetadata();
+    }
+
+    @Override
+    public TrashIndex getTrashIndex() {
+        return current.pacFile.getTrashIndex();
+    }
+
+    @Override
+    public AssetHandle getHandle(TypePurposeUniqueId tpuid) throws IOException {
+        ByteBuffer payload = null;
+        Segment segment = segmentFor(tpuid);
+        synchronized (segment) {
+            CachedAsset cached = segment.assets.get(tpuid);
+            if (cached != null) {
+                cached.lastUsed = clock.incrementAndGet();
+                payload = cached.payload;
+            }
+        }
+        if (payload != null) {
+            hits.increment();
+            return new MappedAssetHandle(payload, 0);
+        }
+        misses.increment();
+        return new MappedAssetHandle(load(current, tpuid), 0);
+    }
+
+    private ByteBuffer load(Generation generation, TypePurposeUniqueId tpuid) throws IOException {
+        CompletableFuture<ByteBuffer> future = new CompletableFuture<>();
+        CompletableFuture<ByteBuffer> existing = generation.loading.putIfAbsent(tpuid, future);
+        if (existing != null) {
+            return await(existing);
+        }
+        try {
+            ByteBuffer payload = decompress(generation.pacFile.getHandle(tpuid));
+            insert(generation, tpuid, payload, future);
+            future.complete(payload);
+            return payload;
+        } catch (IOException | RuntimeException e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            generation.loading.remove(tpuid, future);
+        }
+    }
+
+    private ByteBuffer decompress(AssetHandle handle) throws IOException {
+        ByteBuffer payload = null;
+        if (offHeap) {
+            int memorySize = handle.getMemorySize();
+            if (memorySize >= 0) {
+                try {
+                    payload = handle.getDecompressedByteBuffer(ByteBuffer.allocateDirect(memorySize));
+                    payload.flip();
+                } catch (BufferOverflowException e) {
+                    //  Memory size was wrong, fall back to finding out the hard way
+                    payload = null;
+                }
+            }
+            if (payload == null) {
+                byte[] bytes = handle.getDecompressedBytes();
+                payload = ByteBuffer.allocateDirect(bytes.length);
+                payload.put(bytes);
+                payload.flip();
+            }
+        } else {
+            payload = ByteBuffer.wrap(handle.getDecompressedBytes());
+        }
+        return payload.asReadOnlyBuffer();
+    }
+
+    private Segment segmentFor(TypePurposeUniqueId tpuid) {
+        int hash = tpuid.hashCode();
+        return segments[(hash ^ (hash >>> 16)) & (SEGMENTS - 1)];
+    }
+
+    /**
+     * Caches a loaded asset, unless the archive was swapped or the asset invalidated since the load started, which
+     * shows in its load no longer being registered.
+     */
+    private void insert(Generation generation, TypePurposeUniqueId tpuid, ByteBuffer payload,
+                        CompletableFuture<ByteBuffer> load) {
+        int size = payload.remaining();
+        if (size > maxBytes) {
+            return;
+        }
+        Segment segment = segmentFor(tpuid);
+        synchronized (segment) {
+            if (generation != current || generation.loading.get(tpuid) != load) {
+                return;
+            }
+            CachedAsset previous = segment.assets.put(tpuid, new CachedAsset(payload, clock.incrementAndGet()));
+            if (previous != null) {
+                cachedBytes.addAndGet(-previous.payload.remaining());
+            }
+            cachedBytes.addAndGet(size);
+        }
+        evict();
+    }
+
+    /**
+     * Evicts the least recently used assets until the cache fits its budget again.
+     */
+    private void evict() {
+        while (cachedBytes.get() > maxBytes) {
+            //  Each segment's eldest asset is its least recently used one, so the oldest of those goes
+            Segment oldest = null;
+            long oldestUse = Long.MAX_VALUE;
+            for (Segment segment : segments) {
+                synchronized (segment) {
+                    Iterator<CachedAsset> iterator = segment.assets.values().iterator();
+                    if (iterator.hasNext()) {
+                        long lastUsed = iterator.next().lastUsed;
+                        if (lastUsed < oldestUse) {
+                            oldestUse = lastUsed;
+                            oldest = segment;
+                        }
+                    }
+                }
+            }
+            if (oldest == null) {
+                return;
+            }
+            synchronized (oldest) {
+                Iterator<CachedAsset> iterator = oldest.assets.values().iterator();
+                if (iterator.hasNext()) {
+                    cachedBytes.addAndGet(-iterator.next().payload.remaining());
+                    iterator.remove();
+                    evictions.increment();
+                }
+            }
+        }
+    }
+
+    private static ByteBuffer await(CompletableFuture<ByteBuffer> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for asset to load", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * Replaces the underlying PacFile and drops everything cached from the old one. Loads still in progress against
+     * the old PacFile complete for their callers but are not cached.
+     *
+     * @return The previous PacFile, which the caller is responsible for closing
+     */
+    public PacFile swap(PacFile pacFile) {
+        synchronized (swapLock) {
+            PacFile old = current.pacFile;
+            //  Loads that check the generation before this see it changed, and what they cached before is cleared
+            current = new Generation(pacFile);
+            clear();
+            return old;
+        }
+    }
+
+    /**
+     * Drops the cached asset. A load of it that is in progress still completes for its callers but is not cached.
+     */
+    public void invalidate(TypePurposeUniqueId tpuid) {
+        Segment segment = segmentFor(tpuid);
+        synchronized (segment) {
+            current.loading.remove(tpuid);
+            CachedAsset removed = segment.assets.remove(tpuid);
+            if (removed != null) {
+                cachedBytes.addAndGet(-removed.payload.remaining());
+            }
+        }
+    }
+
+    public void invalidateAll() {
+        current.loading.clear();
+        clear();
+    }
+
+    private void clear() {
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                for (CachedAsset cached : segment.assets.values()) {
+                    cachedBytes.addAndGet(-cached.payload.remaining());
+                }
+                segment.assets.clear();
+            }
+        }
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    public long getCachedBytes() {
+        return cachedBytes.get();
+    }
+
+    public int getCachedCount() {
+        int count = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                count += segment.assets.size();
+            }
+        }
+        return count;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * Drops the cache and closes the underlying PacFile.
+     */
+    @Override
+    public void close() throws IOException {
+        invalidateAll();
+        current.pacFile.close();
+    }
+
+    private static class Generation {
+
+        final PacFile pacFile;
+        final ConcurrentHashMap<TypePurposeUniqueId, CompletableFuture<ByteBuffer>> loading;
+
+        Generation(PacFile pacFile) {
+            this.pacFile = pacFile;
+            this.loading = new ConcurrentHashMap<>();
+        }
+    }
+
+    private static class Segment {
+
+        /**
+         * Access ordered, so that iteration starts at the least recently used asset. Guarded by the segment.
+         */
+        final LinkedHashMap<TypePurposeUniqueId, CachedAsset> assets = new LinkedHashMap<>(16, 0.75F, true);
+    }
+
+    private static class CachedAsset {
+
+        final ByteBuffer payload;
+        /**
+         * Clock reading at the last use. Guarded by the segment.
+         */
+        long lastUsed;
+
+        CachedAsset(ByteBuffer payload, long lastUsed) {
+            this.payload = payload;
+            this.lastUsed = lastUsed;
+        }
+    }
+}
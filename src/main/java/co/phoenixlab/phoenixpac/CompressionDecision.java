@@ -0,0 +1,119 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Vincent Zhang
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package co.phoenixlab.phoenixpac;
+
+/**
+ * How a {@link CompressionPolicy} wants an asset to be stored. If the asset ends up compressing to more than
+ * {@link #getMaxRatio()} times its size, the compressed data is discarded and the asset is stored raw instead.
+ */
+public final class CompressionDecision {
+
+    public static final CompressionDecision STORE = new CompressionDecision(0, 0, Double.POSITIVE_INFINITY);
+
+    private final int compressionId;
+    private final int level;
+    private final double maxRatio;
+
+    private CompressionDecision(int compressionId, int level, double maxRatio) {
+        this.compressionId = compressionId;
+        this.level = level;
+        this.maxRatio = maxRatio;
+    }
+
+    /**
+     * Deflates the asset and keeps the result whatever its size.
+     */
+    public static CompressionDecision deflate(int level) {
+        return deflate(level, Double.POSITIVE_INFINITY);
+    }
+
+    /**
+     * Deflates the asset, falling back to storing it raw if the compressed size exceeds {@code maxRatio} times the
+     * uncompressed size.
+     */
+    public static CompressionDecision deflate(int level, double maxRatio) {
+        if (level < -1 || level > 9) {
+            throw new IllegalArgumentException("Invalid deflate level " + level);
+        }
+        if (!(maxRatio > 0)) {
+            throw new IllegalArgumentException("Ratio must be positive");
+        }
+        return new CompressionDecision(PacFile.COMPRESSION_DEFLATE, level, maxRatio);
+    }
+
+    /**
+     * Compresses the asset with the codec registered for the given ID, keeping the result whatever its size.
+     *
+     * @see co.phoenixlab.phoenixpac.codec.PacCodecs
+     */
+    public static CompressionDecision of(int compressionId, int level) {
+        return of(compressionId, level, Double.POSITIVE_INFINITY);
+    }
+
+    /**
+     * Compresses the asset with the codec registered for the given ID, falling back to storing it raw if the
+     * compressed size exceeds {@code maxRatio} times the uncompressed size.
+     */
+    public static CompressionDecision of(int compressionId, int level, double maxRatio) {
+        if (compressionId <= 0 || compressionId > 255) {
+            throw new IllegalArgumentException("Invalid compression ID " + compressionId);
+        }
+        if (compressionId == PacFile.COMPRESSION_DEFLATE) {
+            return deflate(level, maxRatio);
+        }
+        if (!(maxRatio > 0)) {
+            throw new IllegalArgumentException("Ratio must be positive");
+        }
+        return new CompressionDecision(compressionId, level, maxRatio);
+    }
+
+    public int getCompressionId() {
+        return compressionId;
+    }
+
+    public int getLevel() {
+        return level;
+    }
+
+    public double getMaxRatio() {
+        return maxRatio;
+    }
+
+    public boolean isStored() {
+        return compressionId == 0;
+    }
+
+    /**
+     * @return Whether the compressed data is worth keeping over the raw data
+     */
+    public boolean accepts(long rawSize, long compressedSize) {
+        return Double.isInfinite(maxRatio) || compressedSize <= rawSize * maxRatio;
+    }
+
+    @Override
+    public String toString() {
+        return isStored() ? "STORE" : String.format("%d@%d (max ratio %.2f)", compressionId, level, maxRatio);
+    }
+}
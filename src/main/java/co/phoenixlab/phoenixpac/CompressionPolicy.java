@@ -0,0 +1,72 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Vincent Zhang
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package co.phoenixlab.phoenixpac;
+
+import java.io.IOException;
+import java.util.zip.Deflater;
+
+/**
+ * Decides how each uncompressed asset is stored when it is written. Assets whose handles are already compressed are
+ * carried over as they are and never reach the policy.
+ */
+@FunctionalInterface
+public interface CompressionPolicy {
+
+    /**
+     * @param tpuid The asset's TPUID
+     * @param source The uncompressed asset. The policy may read from it, since a fresh stream is opened for writing.
+     */
+    CompressionDecision decide(TypePurposeUniqueId tpuid, AssetHandle source) throws IOException;
+
+    /**
+     * Stores every asset uncompressed.
+     */
+    static CompressionPolicy never() {
+        return (tpuid, source) -> CompressionDecision.STORE;
+    }
+
+    /**
+     * Deflates every asset at the given level, keeping the result even if it is larger than the original.
+     */
+    static CompressionPolicy always(int level) {
+        CompressionDecision decision = CompressionDecision.deflate(level);
+        return (tpuid, source) -> decision;
+    }
+
+    /**
+     * Compresses every asset with the codec registered for the given ID.
+     */
+    static CompressionPolicy always(int compressionId, int level) {
+        CompressionDecision decision = CompressionDecision.of(compressionId, level);
+        return (tpuid, source) -> decision;
+    }
+
+    /**
+     * @return A policy that skips assets which don't compress well, to be configured further
+     */
+    static AdaptiveCompressionPolicy adaptive() {
+        return new AdaptiveCompressionPolicy(Deflater.BEST_COMPRESSION);
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Vincent Zhang
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package co.phoenixlab.phoenixpac;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Counts the bytes read through it, so that the uncompressed size of a stream being compressed is known. Can also keep
+ * a copy of what was read, so that a stream whose compressed form turns out not to be worth it needn't be read again.
+ */
+class CountingInputStream extends FilterInputStream {
+
+    private long count;
+    private final int retainLimit;
+    /**
+     * Copy of everything read so far, or null if not retaining or past the limit
+     */
+    private byte[] retained;
+
+    CountingInputStream(InputStream in) {
+        this(in, 0, 0);
+    }
+
+    /**
+     * @param retainLimit Most bytes to keep a copy of
+     * @param sizeHint    Expected length of the stream, or -1 if not known
+     */
+    CountingInputStream(InputStream in, int retainLimit, long sizeHint) {
+        super(in);
+        this.retainLimit = retainLimit;
+        if (retainLimit > 0) {
+            retained = new byte[(int) Math.min(Math.max(sizeHint, 8192), retainLimit)];
+        }
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b = super.read();
+        if (b != -1) {
+            if (reserve(1)) {
+                retained[(int) count] = (byte) b;
+            }
+            count++;
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        int read = super.read(b, off, len);
+        if (read > 0) {
+            if (reserve(read)) {
+                System.arraycopy(b, off, retained, (int) count, read);
+            }
+            count += read;
+        }
+        return read;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = super.skip(n);
+        count += skipped;
+        //  The copy would have a gap
+        retained = null;
+        return skipped;
+    }
+
+    private boolean reserve(int bytes) {
+        if (retained == null) {
+            return false;
+        }
+        long needed = count + bytes;
+        if (needed > retainLimit) {
+            retained = null;
+            return false;
+        }
+        if (needed > retained.length) {
+            retained = Arrays.copyOf(retained, (int) Math.min(Math.max(needed, retained.length * 2L), retainLimit));
+        }
+        return true;
+    }
+
+    /**
+     * @return A copy of the first {@link #getCount()} bytes read, or null if not all of them were kept
+     */
+    byte[] getRetained() {
+        return retained;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    long getCount() {
+        return count;
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Vincent Zhang
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package co.phoenixlab.phoenixpac;
+
+import co.phoenixlab.phoenixpac.codec.PacCodec;
+import co.phoenixlab.phoenixpac.codec.PacCodecs;
+import co.phoenixlab.phoenixpac.codec.SeekablePacCodec;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+
+/**
+ * Backs the decompressing read methods on {@link AssetHandle}, looking up the codec for each asset's compression ID.
+ */
+final class Decompression {
+
+    private Decompression() {
+    }
+
+    static byte[] decompressToBytes(AssetHandle handle) throws IOException {
+        int compressionId = handle.getCompressionId();
+        if (compressionId == 0) {
+            return handle.getRawBytes();
+        }
+        return PacCodecs.get(compressionId).decompress(handle.getRawByteBuffer(), handle.getMemorySize());
+    }
+
+    /**
+     * Decompresses an asset's raw contents that have already been read. Uncompressed contents are returned as is.
+     */
+    static ByteBuffer decompress(ByteBuffer raw, int compressionId, int memorySize) throws IOException {
+        if (compressionId == 0) {
+            return raw;
+        }
+        return ByteBuffer.wrap(PacCodecs.get(compressionId).decompress(raw, memorySize));
+    }
+
+    static ByteBuffer decompressInto(AssetHandle handle, ByteBuffer dst) throws IOException {
+        int compressionId = handle.getCompressionId();
+        if (compressionId == 0) {
+            return dst.put(handle.getRawByteBuffer());
+        }
+        return PacCodecs.get(compressionId).decompress(handle.getRawByteBuffer(), dst);
+    }
+
+    static InputStream decompressToStream(AssetHandle handle) throws IOException {
+        int compressionId = handle.getCompressionId();
+        if (compressionId == 0) {
+            return handle.getRawStream();
+        }
+        return PacCodecs.get(compressionId).newDecompressingStream(handle.getRawStream());
+    }
+
+    static SeekableByteChannel newChannel(AssetHandle handle) throws IOException {
+        int compressionId = handle.getCompressionId();
+        if (compressionId == 0) {
+            long size = handle.getRawSize();
+            if (size < 0) {
+                byte[] data = handle.getRawBytes();
+                return new AssetChannel(new MemoryAssetHandle(data), data.length);
+            }
+            return new AssetChannel(handle, size);
+        }
+        PacCodec codec = PacCodecs.get(compressionId);
+        if (codec instanceof SeekablePacCodec) {
+            return ((SeekablePacCodec) codec).newDecompressingChannel(handle);
+        }
+        if (handle.getMemorySize() < 0) {
+            //  The channel's size has to be known up front, so decompress the whole asset once
+            byte[] data = codec.decompress(handle.getRawByteBuffer(), -1);
+            return new AssetChannel(new MemoryAssetHandle(data), data.length);
+        }
+        return new AssetChannel(handle, handle.getMemorySize());
+    }
+}
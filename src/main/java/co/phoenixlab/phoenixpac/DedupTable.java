@@ -0,0 +1,136 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Vincent Zhang
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package co.phoenixlab.phoenixpac;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Extents already written, keyed by the content they hold, so that identical assets can share one copy. Content is
+ * identified by its hash and size, together with the compression of the source the hash was taken from, since a hash
+ * of compressed bytes says nothing about the decompressed ones.
+ */
+class DedupTable {
+
+    private final Map<Key, IndexEntry> extents;
+    private long bytesSaved;
+    private int entriesShared;
+
+    DedupTable() {
+        extents = new HashMap<>();
+    }
+
+    /**
+     * Points the entry at an extent with the same content, if one was written already.
+     *
+     * @return Whether the entry now shares an extent
+     */
+    boolean share(IndexEntry entry, int sourceCompressionId) {
+        if (!isHashed(entry.sha256Hash) || entry.memorySize < 0) {
+            return false;
+        }
+        IndexEntry existing = extents.get(new Key(entry.sha256Hash, entry.memorySize, sourceCompressionId));
+        if (existing == null) {
+            return false;
+        }
+        entry.offset = existing.offset;
+        entry.diskSize = existing.diskSize;
+        entry.compressionId = existing.compressionId;
+        bytesSaved += existing.diskSize;
+        ++entriesShared;
+        return true;
+    }
+
+    /**
+     * Records the extent a newly written entry occupies.
+     */
+    void add(IndexEntry entry, int sourceCompressionId) {
+        if (!isHashed(entry.sha256Hash) || entry.memorySize < 0) {
+            return;
+        }
+        IndexEntry extent = new IndexEntry();
+        extent.offset = entry.offset;
+        extent.diskSize = entry.diskSize;
+        extent.compressionId = entry.compressionId;
+        extents.putIfAbsent(new Key(entry.sha256Hash, entry.memorySize, sourceCompressionId), extent);
+    }
+
+    long getBytesSaved() {
+        return bytesSaved;
+    }
+
+    int getEntriesShared() {
+        return entriesShared;
+    }
+
+    /**
+     * An all zero hash is what entries that ignore their hash carry
+     */
+    private static boolean isHashed(byte[] hash) {
+        if (hash == null) {
+            return false;
+        }
+        for (byte b : hash) {
+            if (b != 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static class Key {
+
+        private final byte[] hash;
+        private final int memorySize;
+        private final int sourceCompressionId;
+
+        Key(byte[] hash, int memorySize, int sourceCompressionId) {
+            this.hash = hash;
+            this.memorySize = memorySize;
+            this.sourceCompressionId = sourceCompressionId;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            Key that = (Key) o;
+            return memorySize == that.memorySize && sourceCompressionId == that.sourceCompressionId &&
+                    Arrays.equals(hash, that.hash);
+        }
+
+        @Override
+        public int hashCode() {
+            //  The hash is already uniformly distributed
+            return ((hash[0] & 0xFF) << 24 | (hash[1] & 0xFF) << 16 | (hash[2] & 0xFF) << 8 | (hash[3] & 0xFF)) ^
+                    memorySize;
+        }
+    }
+}
@@ -24,92 +24,209 @@
 
 package co.phoenixlab.phoenixpac;
 
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
-import java.nio.channels.Channels;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
 import java.nio.channels.FileChannel;
-import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
 
 public class FileSystemAssetHandle implements AssetHandle {
 
     private final IndexEntry indexEntry;
-    private final Path file;
+    private final FilesystemPacFile pacFile;
     private final int compressionId;
 
-    public FileSystemAssetHandle(IndexEntry indexEntry, Path file, int compressionId) {
+    public FileSystemAssetHandle(IndexEntry indexEntry, FilesystemPacFile pacFile, int compressionId) {
         this.indexEntry = indexEntry;
-        this.file = file;
+        this.pacFile = pacFile;
         this.compressionId = compressionId;
     }
 
     public FileSystemAssetHandle(FileSystemAssetHandle other) {
         this.indexEntry = new IndexEntry(other.indexEntry);
-        this.file = other.file;
+        this.pacFile = other.pacFile;
         this.compressionId = other.compressionId;
     }
 
+    @Override
+    public AssetHandle copy() {
+        return new FileSystemAssetHandle(this);
+    }
+
     @Override
     public byte[] getRawBytes() throws IOException {
-        try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "r")) {
-            byte[] ret = new byte[indexEntry.diskSize];
-            raf.seek(indexEntry.offset);
-            raf.readFully(ret);
-            return ret;
-        }
+        byte[] ret = new byte[indexEntry.diskSize];
+        readFully(pacFile.channel(), ByteBuffer.wrap(ret), indexEntry.offset);
+        return ret;
     }
 
     @Override
     public ByteBuffer getRawByteBuffer() throws IOException {
-        try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "r")) {
+        ByteBuffer ret = ByteBuffer.allocateDirect(indexEntry.diskSize);
+        readFully(pacFile.channel(), ret, indexEntry.offset);
+        ret.flip();
+        return ret;
+    }
+
+    /**
+     * Reads the asset through the archive's shared AsynchronousFileChannel. The returned future completes on one of
+     * the channel's threads once the whole asset has been read.
+     */
+    @Override
+    public CompletableFuture<ByteBuffer> getRawByteBufferAsync() {
+        CompletableFuture<ByteBuffer> future = new CompletableFuture<>();
+        try {
             ByteBuffer ret = ByteBuffer.allocateDirect(indexEntry.diskSize);
-            FileChannel channel = raf.getChannel().position(indexEntry.offset);
-            int bytesRead = 0;
-            while (bytesRead < indexEntry.diskSize) {
-                bytesRead += channel.read(ret);
-            }
-            ret.flip();
-            return ret;
+            new AsyncRead(pacFile.asyncChannel(), ret, indexEntry.offset, future).next();
+        } catch (IOException | RuntimeException e) {
+            future.completeExceptionally(e);
         }
+        return future;
     }
 
     @Override
     public InputStream getRawStream() throws IOException {
-        //  We don't use try with resources because whoever is calling this
-        //  will close the inputstream, which will close the channel, which
-        //  will close the randomaccessfile.
-        RandomAccessFile raf = new RandomAccessFile(file.toFile(), "r");
-        FileChannel channel = raf.getChannel().position(indexEntry.offset);
-        InputStream stream = Channels.newInputStream(channel);
-        return new FileSystemInputStream(stream, indexEntry.diskSize);
+        return new FileSystemInputStream(pacFile, indexEntry.offset, indexEntry.diskSize);
+    }
+
+    /**
+     * Reads straight from the archive's shared channel with a single positional read.
+     */
+    @Override
+    public int readRaw(ByteBuffer dst, long position) throws IOException {
+        if (!dst.hasRemaining()) {
+            return 0;
+        }
+        if (position < 0) {
+            throw new IllegalArgumentException("Negative position");
+        }
+        long remaining = indexEntry.diskSize - position;
+        if (remaining <= 0) {
+            return -1;
+        }
+        ByteBuffer part = dst;
+        if (dst.remaining() > remaining) {
+            part = dst.duplicate();
+            part.limit(dst.position() + (int) remaining);
+        }
+        int read = pacFile.channel().read(part, indexEntry.offset + position);
+        if (part != dst && read > 0) {
+            dst.position(dst.position() + read);
+        }
+        return read;
     }
 
     @Override
     public int getCompressionId() {
         return compressionId;
     }
+
+    @Override
+    public int getMemorySize() {
+        return indexEntry.memorySize;
+    }
+
+    @Override
+    public long getRawSize() {
+        return indexEntry.diskSize;
+    }
+
+    /**
+     * Fills the remainder of {@code dst} from the channel starting at {@code position}, without touching the
+     * channel's own position.
+     */
+    static void readFully(FileChannel channel, ByteBuffer dst, long position) throws IOException {
+        while (dst.hasRemaining()) {
+            int read = channel.read(dst, position);
+            if (read < 0) {
+                throw new EOFException();
+            }
+            position += read;
+        }
+    }
+
+    /**
+     * Writes the remainder of {@code src} to the channel starting at {@code position}, without touching the channel's
+     * own position.
+     */
+    static void writeFully(FileChannel channel, ByteBuffer src, long position) throws IOException {
+        while (src.hasRemaining()) {
+            position += channel.write(src, position);
+        }
+    }
+}
+
+/**
+ * Issues positional reads until the destination is full, then completes the future with it flipped.
+ */
+class AsyncRead implements CompletionHandler<Integer, Void> {
+
+    private final AsynchronousFileChannel channel;
+    private final ByteBuffer dst;
+    private final CompletableFuture<ByteBuffer> future;
+    private long position;
+
+    AsyncRead(AsynchronousFileChannel channel, ByteBuffer dst, long position, CompletableFuture<ByteBuffer> future) {
+        this.channel = channel;
+        this.dst = dst;
+        this.position = position;
+        this.future = future;
+    }
+
+    void next() {
+        if (!dst.hasRemaining()) {
+            dst.flip();
+            future.complete(dst);
+            return;
+        }
+        try {
+            channel.read(dst, position, null, this);
+        } catch (RuntimeException e) {
+            future.completeExceptionally(e);
+        }
+    }
+
+    @Override
+    public void completed(Integer read, Void attachment) {
+        if (read < 0) {
+            future.completeExceptionally(new EOFException());
+            return;
+        }
+        position += read;
+        next();
+    }
+
+    @Override
+    public void failed(Throwable exc, Void attachment) {
+        future.completeExceptionally(exc);
+    }
 }
 
+/**
+ * Reads an extent of the archive through positional reads on the shared channel. Closing it leaves the channel open.
+ */
 class FileSystemInputStream extends InputStream {
 
-    private final InputStream stream;
+    private final FilesystemPacFile pacFile;
     private final int size;
+    private final long offset;
     private int count;
 
-    public FileSystemInputStream(InputStream stream, int size) {
-        this.stream = stream;
+    public FileSystemInputStream(FilesystemPacFile pacFile, long offset, int size) {
+        this.pacFile = pacFile;
+        this.offset = offset;
         this.size = size;
         this.count = 0;
     }
 
     @Override
     public int read() throws IOException {
-        if (count < size) {
-            count++;
-            return stream.read();
-        }
-        return -1;
+        byte[] b = new byte[1];
+        int read = read(b, 0, 1);
+        return read == -1 ? -1 : b[0] & 0xFF;
     }
 
     @Override
@@ -125,19 +242,24 @@ class FileSystemInputStream extends InputStream {
             return -1;
         }
         len = Math.min(len, available());
-        int read = stream.read(b, off, len);
+        int read = pacFile.channel().read(ByteBuffer.wrap(b, off, len), offset + count);
+        if (read < 0) {
+            throw new EOFException();
+        }
         count += read;
         return read;
     }
 
     @Override
-    public int available() throws IOException {
-        return Math.max(0, size - count);
+    public long skip(long n) throws IOException {
+        int skipped = (int) Math.max(0, Math.min(n, available()));
+        count += skipped;
+        return skipped;
     }
 
     @Override
-    public void close() throws IOException {
-        stream.close();
+    public int available() throws IOException {
+        return Math.max(0, size - count);
     }
 
     @Override
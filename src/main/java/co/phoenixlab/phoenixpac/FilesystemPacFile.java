@@ -26,22 +26,162 @@ package co.phoenixlab.phoenixpac;
 
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
+/**
+ * A PacFile that reads assets straight from the archive on disk. All handles share one FileChannel and only use
+ * positional reads on it, so any number of threads can read assets at once without reopening the file. Asynchronous
+ * reads likewise share one AsynchronousFileChannel.
+ */
 public class FilesystemPacFile extends PacFile {
 
-    private Path path;
+    /**
+     * Largest single read that {@link #readAll(Collection, int)} will merge assets into
+     */
+    static final int MAX_COALESCED_READ = 64 * 1024 * 1024;
+
+    private final Path path;
+    private volatile FileChannel channel;
+    private volatile AsynchronousFileChannel asyncChannel;
+    private volatile boolean closed;
 
     protected FilesystemPacFile(Path path) {
         this.path = path;
     }
 
+    public Path getPath() {
+        return path;
+    }
+
     @Override
     public AssetHandle getHandle(TypePurposeUniqueId tpuid) throws IOException {
-        IndexEntry entry = index.getEntries().get(tpuid);
+        IndexEntry entry = index.getEntry(tpuid);
         if (entry == null) {
             throw new FileNotFoundException(tpuid.toString());
         }
-        return new FileSystemAssetHandle(entry, path, entry.compressionId);
+        return new FileSystemAssetHandle(entry, this, entry.compressionId);
+    }
+
+    /**
+     * Reads the requested assets in offset order, merging any that lie within {@code gapThreshold} bytes of each other
+     * into one sequential read. Each asset's buffer is a slice of the read it belongs to.
+     */
+    @Override
+    public Map<TypePurposeUniqueId, ByteBuffer> readAll(Collection<TypePurposeUniqueId> tpuids, int gapThreshold)
+            throws IOException {
+        Map<TypePurposeUniqueId, ByteBuffer> ret = new LinkedHashMap<>();
+        List<IndexEntry> entries = new ArrayList<>(tpuids.size());
+        for (TypePurposeUniqueId tpuid : tpuids) {
+            if (ret.containsKey(tpuid)) {
+                continue;
+            }
+            IndexEntry entry = index.getEntry(tpuid);
+            if (entry == null) {
+                throw new FileNotFoundException(tpuid.toString());
+            }
+            //  Reserve the key so the result keeps the caller's order
+            ret.put(tpuid, null);
+            entries.add(entry);
+        }
+        entries.sort(Comparator.comparingLong(e -> e.offset));
+        FileChannel ch = channel();
+        int runStart = 0;
+        while (runStart < entries.size()) {
+            long start = entries.get(runStart).offset;
+            long end = start + entries.get(runStart).diskSize;
+            int runEnd = runStart + 1;
+            for (; runEnd < entries.size(); runEnd++) {
+                IndexEntry next = entries.get(runEnd);
+                long nextEnd = Math.max(end, next.offset + next.diskSize);
+                if (next.offset - end > gapThreshold || nextEnd - start > MAX_COALESCED_READ) {
+                    break;
+                }
+                end = nextEnd;
+            }
+            ByteBuffer run = ByteBuffer.allocateDirect((int) (end - start));
+            FileSystemAssetHandle.readFully(ch, run, start);
+            for (int i = runStart; i < runEnd; i++) {
+                IndexEntry entry = entries.get(i);
+                ByteBuffer slice = run.duplicate();
+                slice.position((int) (entry.offset - start));
+                slice.limit(slice.position() + entry.diskSize);
+                ret.put(entry.getTPUID(), slice.slice());
+            }
+            runStart = runEnd;
+        }
+        return ret;
+    }
+
+    /**
+     * Returns the shared channel, opening it on first use. The channel is also reopened if a reading thread was
+     * interrupted, since that closes the channel for everyone.
+     */
+    FileChannel channel() throws IOException {
+        FileChannel ch = channel;
+        if (ch != null && ch.isOpen()) {
+            return ch;
+        }
+        synchronized (this) {
+            if (closed) {
+                throw new ClosedChannelException();
+            }
+            ch = channel;
+            if (ch == null || !ch.isOpen()) {
+                ch = FileChannel.open(path, StandardOpenOption.READ);
+                channel = ch;
+            }
+            return ch;
+        }
+    }
+
+    /**
+     * Returns the shared asynchronous channel, opening it on first use. Its completion handlers run on the JVM's
+     * default thread pool.
+     */
+    AsynchronousFileChannel asyncChannel() throws IOException {
+        AsynchronousFileChannel ch = asyncChannel;
+        if (ch != null && ch.isOpen()) {
+            return ch;
+        }
+        synchronized (this) {
+            if (closed) {
+                throw new ClosedChannelException();
+            }
+            ch = asyncChannel;
+            if (ch == null || !ch.isOpen()) {
+                ch = AsynchronousFileChannel.open(path, StandardOpenOption.READ);
+                asyncChannel = ch;
+            }
+            return ch;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            closed = true;
+            try {
+                if (channel != null) {
+                    channel.close();
+                    channel = null;
+                }
+            } finally {
+                if (asyncChannel != null) {
+                    asyncChannel.close();
+                    asyncChannel = null;
+                }
+            }
+        }
     }
 }
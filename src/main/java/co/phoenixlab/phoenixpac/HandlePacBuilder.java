@@ -148,6 +148,23 @@ public class HandlePacBuilder {
                 throw new IllegalStateException("Must call withMemoryAssetHandle() first");
             }
             entry.sha256Hash = IndexEntry.computeSha256Hash(assetHandle.getRawBytes());
+            entry.hashOnWrite = false;
+            return this;
+        }
+
+        /**
+         * Has {@link PacFileWriter} compute the hash while it writes the asset out, so that the asset is read once
+         * rather than once to hash and again to write. The writer may still buffer it: an asset being compressed is
+         * kept in memory up to 8 MB so that it can be stored raw if it doesn't compress well enough, and with a
+         * parallelism over 1, assets up to 32 MB are prepared in memory in full. An asset over 8 MB that doesn't
+         * compress well enough is read a second time to be stored raw.
+         */
+        public EntryBuilder withStreamedSha256Hash() {
+            if (assetHandle == null) {
+                throw new IllegalStateException("Must call withMemoryAssetHandle() first");
+            }
+            entry.sha256Hash = new byte[IndexEntry.SHA_256_HASH_BYTE_LEN];
+            entry.hashOnWrite = true;
             return this;
         }
 
@@ -156,6 +173,7 @@ public class HandlePacBuilder {
                 throw new IllegalStateException("Must call withMemoryAssetHandle() first");
             }
             entry.sha256Hash = new byte[IndexEntry.SHA_256_HASH_BYTE_LEN];
+            entry.hashOnWrite = false;
             return this;
         }
 
@@ -177,7 +195,8 @@ public class HandlePacBuilder {
                 throw new IllegalStateException("Must call withMemoryAssetHandle() first");
             }
             if (entry.sha256Hash == null) {
-                throw new IllegalStateException("Must call either withComputedSha256Hash() or withIgnoredSha256Hash() first");
+                throw new IllegalStateException("Must call one of withComputedSha256Hash(), withStreamedSha256Hash() " +
+                        "or withIgnoredSha256Hash() first");
             }
             pacFile.index.entries.put(entry.tpuid, entry);
             pacFile.handles.put(entry.tpuid, assetHandle);
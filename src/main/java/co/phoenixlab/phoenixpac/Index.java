@@ -25,6 +25,7 @@ package co.phoenixlab.phoenixpac;
 
 import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.stream.Stream;
 
 public class Index {
 
@@ -45,9 +46,10 @@ public class Index {
     }
 
     public Index(Index other) {
-        this.numIndexEntries = other.numIndexEntries;
-        this.entries = new LinkedHashMap<>(other.entries.size());
-        for (Map.Entry<TypePurposeUniqueId, IndexEntry> entry : other.entries.entrySet()) {
+        LinkedHashMap<TypePurposeUniqueId, IndexEntry> otherEntries = other.getEntries();
+        this.numIndexEntries = other.getNumIndexEntries();
+        this.entries = new LinkedHashMap<>(otherEntries.size());
+        for (Map.Entry<TypePurposeUniqueId, IndexEntry> entry : otherEntries.entrySet()) {
             entries.put(entry.getKey(), new IndexEntry(entry.getValue()));
         }
     }
@@ -67,4 +69,48 @@ public class Index {
     public void syncCount() {
         numIndexEntries = entries.size();
     }
+
+    /**
+     * All entries in this index. Streams returned by this and the queries below are lazy, and reflect changes made to
+     * the index up until the terminal operation.
+     */
+    public Stream<IndexEntry> stream() {
+        return entries.values().stream();
+    }
+
+    /**
+     * All entries with TPUIDs between {@code start} and {@code end}, both inclusive, in the order of
+     * {@link TypePurposeUniqueId#compareTo(TypePurposeUniqueId)}. This scans the whole index; a {@link PackedIndex}
+     * answers it in O(log n + k) instead.
+     */
+    public Stream<IndexEntry> range(TypePurposeUniqueId start, TypePurposeUniqueId end) {
+        checkRange(start, end);
+        return stream().
+                filter(e -> e.tpuid.compareTo(start) >= 0 && e.tpuid.compareTo(end) <= 0).
+                sorted((a, b) -> a.tpuid.compareTo(b.tpuid));
+    }
+
+    public Stream<IndexEntry> ofType(int typeId) {
+        return range(new TypePurposeUniqueId(typeId, 0, 0), new TypePurposeUniqueId(typeId, 0xFFFF, 0xFFFFFFFF));
+    }
+
+    public Stream<IndexEntry> ofTypePurpose(int typeId, int purposeId) {
+        return range(new TypePurposeUniqueId(typeId, purposeId, 0),
+                new TypePurposeUniqueId(typeId, purposeId, 0xFFFFFFFF));
+    }
+
+    /**
+     * All entries whose TPUID equals {@code value} in every bit set in {@code mask}, that is where
+     * {@code tpuid.and(mask).equals(value.and(mask))}.
+     */
+    public Stream<IndexEntry> matching(TypePurposeUniqueId value, TypePurposeUniqueId mask) {
+        TypePurposeUniqueId masked = value.and(mask);
+        return stream().filter(e -> e.tpuid.and(mask).equals(masked));
+    }
+
+    static void checkRange(TypePurposeUniqueId start, TypePurposeUniqueId end) {
+        if (start.compareTo(end) > 0) {
+            throw new IllegalArgumentException("Start must be less than end");
+        }
+    }
 }
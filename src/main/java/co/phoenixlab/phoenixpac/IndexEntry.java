@@ -8,27 +8,46 @@ public class IndexEntry {
 
     public static final int SHA_256_HASH_BYTE_LEN = 32;
 
+    /**
+     * Size of an Index Entry on disk, excluding the WIDE disk offset
+     */
+    private static final int BASE_SIZE_OF = 4 + 4 + 4 + 4 + 4 + SHA_256_HASH_BYTE_LEN;
+
     protected TypePurposeUniqueId tpuid;
     protected long offset;
     protected int diskSize;
     protected int memorySize;
     protected int compressionId;
     protected byte[] sha256Hash;
-
-    {
-        sha256Hash = new byte[SHA_256_HASH_BYTE_LEN];
-    }
+    /**
+     * Whether the writer should fill in the hash while it streams the asset out, instead of it being known up front
+     */
+    boolean hashOnWrite;
 
     public IndexEntry() {
+        sha256Hash = new byte[SHA_256_HASH_BYTE_LEN];
     }
 
     public IndexEntry(IndexEntry other) {
+        byte[] otherHash = other.getSha256Hash();
         this.tpuid = other.tpuid;
         this.offset = other.offset;
         this.diskSize = other.diskSize;
         this.memorySize = other.memorySize;
         this.compressionId = other.compressionId;
-        this.sha256Hash = Arrays.copyOf(other.sha256Hash, other.sha256Hash.length);
+        this.sha256Hash = Arrays.copyOf(otherHash, otherHash.length);
+        this.hashOnWrite = other.hashOnWrite;
+    }
+
+    /**
+     * For views that supply their hash on demand through {@link #getSha256Hash()}
+     */
+    IndexEntry(TypePurposeUniqueId tpuid, long offset, int diskSize, int memorySize, int compressionId) {
+        this.tpuid = tpuid;
+        this.offset = offset;
+        this.diskSize = diskSize;
+        this.memorySize = memorySize;
+        this.compressionId = compressionId;
     }
 
 
@@ -56,11 +75,17 @@ public class IndexEntry {
         return sha256Hash;
     }
 
+    public static int sizeOf(boolean wide) {
+        return BASE_SIZE_OF + (wide ? 8 : 4);
+    }
+
     public static byte[] computeSha256Hash(byte[] input) {
+        return newSha256Digest().digest(input);
+    }
+
+    static MessageDigest newSha256Digest() {
         try {
-            MessageDigest digest = MessageDigest.getInstance("SHA-256");
-            digest.reset();
-            return digest.digest(input);
+            return MessageDigest.getInstance("SHA-256");
         } catch (NoSuchAlgorithmException n) {
             throw new RuntimeException("SHA-256 must be available on this system to use the digest feature.", n);
         }
@@ -0,0 +1,74 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Vincent Zhang
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package co.phoenixlab.phoenixpac;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Inflater;
+
+/**
+ * Thread-safe pool of {@link Inflater}s, so that decompressing many small assets does not create and tear down a
+ * native zlib context for each one.
+ */
+public class InflaterPool {
+
+    private static final InflaterPool SHARED = new InflaterPool(Runtime.getRuntime().availableProcessors() * 2);
+
+    private final ConcurrentLinkedQueue<Inflater> idle;
+    private final AtomicInteger idleCount;
+    private final int maxIdle;
+
+    /**
+     * @param maxIdle How many released Inflaters to keep around. Any past that are ended.
+     */
+    public InflaterPool(int maxIdle) {
+        this.idle = new ConcurrentLinkedQueue<>();
+        this.idleCount = new AtomicInteger();
+        this.maxIdle = maxIdle;
+    }
+
+    public static InflaterPool shared() {
+        return SHARED;
+    }
+
+    public Inflater acquire() {
+        Inflater inflater = idle.poll();
+        if (inflater == null) {
+            return new Inflater();
+        }
+        idleCount.decrementAndGet();
+        return inflater;
+    }
+
+    public void release(Inflater inflater) {
+        inflater.reset();
+        if (idleCount.incrementAndGet() <= maxIdle) {
+            idle.offer(inflater);
+        } else {
+            idleCount.decrementAndGet();
+            inflater.end();
+        }
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Vincent Zhang
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package co.phoenixlab.phoenixpac;
+
+import co.phoenixlab.phoenixpac.throwables.InvalidPacFormatException;
+
+import java.util.List;
+
+/**
+ * Works out where the sections and assets of a new PAC file go before anything is written, so that the header can be
+ * written once with its final offsets. The planned layout is the header, the assets each starting on an alignment
+ * boundary, the index, the metadata, and the trash section listing the padding before the assets. That is the same
+ * order as a streamed file, whose sections can only follow the assets.
+ */
+final class LayoutPlanner {
+
+    /**
+     * Largest offset that narrow offsets can hold
+     */
+    static final long NARROW_OFFSET_LIMIT = 0xFFFFFFFFL;
+
+    private LayoutPlanner() {
+    }
+
+    static int headerSize(boolean wide) {
+        //  SIZE_OF is with wide offsets; the three section offsets are half as long when narrow
+        return wide ? PacHeader.SIZE_OF : PacHeader.SIZE_OF - 3 * 4;
+    }
+
+    static long indexSize(int numEntries, boolean wide) {
+        return 8L + (long) numEntries * IndexEntry.sizeOf(wide);
+    }
+
+    static long trashSize(int numEntries, boolean wide) {
+        return numEntries == 0 ? 0 : 8L + (long) numEntries * TrashIndexEntry.sizeOf(wide);
+    }
+
+    /**
+     * @return The first offset at or after {@code offset} that is a multiple of {@code alignment}
+     */
+    static long align(long offset, int alignment) {
+        return (offset + alignment - 1) / alignment * alignment;
+    }
+
+    static void checkAlignment(int alignment) {
+        if (alignment < 1 || Integer.bitCount(alignment) != 1) {
+            throw new IllegalArgumentException("Alignment must be a power of two, was " + alignment);
+        }
+    }
+
+    /**
+     * Checks that a file ending at {@code end} can use the given offset width.
+     *
+     * @return Whether wide offsets are needed, if {@code wide} is null
+     */
+    static boolean chooseWidth(Boolean wide, long end) throws InvalidPacFormatException {
+        if (wide == null) {
+            return end > NARROW_OFFSET_LIMIT;
+        }
+        if (!wide && end > NARROW_OFFSET_LIMIT) {
+            throw new InvalidPacFormatException("Archive has outgrown 32 bit offsets");
+        }
+        return wide;
+    }
+
+    /**
+     * Lays out a new file whose assets' stored sizes are all known, filling in each entry's offset. Entries that the
+     * dedup table finds to be duplicates share an earlier entry's extent and take up no space of their own.
+     *
+     * @param entries      Entries in write order, with their disk size set
+     * @param sourceCompressionIds The compression ID of each entry's source, for deduplication
+     * @param metadataSize Size of the metadata section, 0 for none
+     * @param wide         Offset width, or null to use narrow offsets if they suffice
+     * @param dedupTable   Table to deduplicate with, or null not to
+     */
+    static Layout plan(List<IndexEntry> entries, int[] sourceCompressionIds, long metadataSize, int alignment,
+                       Boolean wide, DedupTable dedupTable) throws InvalidPacFormatException {
+        checkAlignment(alignment);
+        if (wide == null) {
+            //  Narrow offsets shrink everything, so they are worth a try first
+            Layout narrow = layout(entries, sourceCompressionIds, metadataSize, alignment, false,
+                    dedupTable == null ? null : new DedupTable());
+            //  Redo it for real either way, so that the table ends up holding the planned extents
+            wide = narrow.end > NARROW_OFFSET_LIMIT;
+        }
+        Layout layout = layout(entries, sourceCompressionIds, metadataSize, alignment, wide, dedupTable);
+        chooseWidth(wide, layout.end);
+        return layout;
+    }
+
+    private static Layout layout(List<IndexEntry> entries, int[] sourceCompressionIds, long metadataSize,
+                                 int alignment, boolean wide, DedupTable dedupTable) {
+        Layout layout = new Layout(wide);
+        long cursor = headerSize(wide);
+        TrashAllocator padding = new TrashAllocator();
+        for (int i = 0; i < entries.size(); i++) {
+            IndexEntry entry = entries.get(i);
+            if (dedupTable != null && dedupTable.share(entry, sourceCompressionIds[i])) {
+                continue;
+            }
+            long offset = entry.diskSize == 0 ? cursor : align(cursor, alignment);
+            padding.free(cursor, offset - cursor);
+            entry.offset = offset;
+            cursor = offset + entry.diskSize;
+            if (dedupTable != null) {
+                dedupTable.add(entry, sourceCompressionIds[i]);
+            }
+        }
+        layout.indexOffset = cursor;
+        cursor += indexSize(entries.size(), wide);
+        if (metadataSize > 0) {
+            layout.metadataOffset = cursor;
+            cursor += metadataSize;
+        }
+        layout.padding = padding.toTrashEntries();
+        if (!layout.padding.isEmpty()) {
+            layout.trashOffset = cursor;
+            cursor += trashSize(layout.padding.size(), wide);
+        }
+        layout.end = cursor;
+        return layout;
+    }
+
+    static class Layout {
+
+        final boolean wide;
+        long indexOffset;
+        long metadataOffset;
+        long trashOffset;
+        List<TrashIndexEntry> padding;
+        long end;
+
+        Layout(boolean wide) {
+            this.wide = wide;
+        }
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Vincent Zhang
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package co.phoenixlab.phoenixpac;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+public class MappedAssetHandle implements AssetHandle {
+
+    private final ByteBuffer buffer;
+    private final int compressionId;
+    private final int memorySize;
+
+    public MappedAssetHandle(ByteBuffer buffer, int compressionId) {
+        this(buffer, compressionId, compressionId == 0 ? buffer.remaining() : -1);
+    }
+
+    public MappedAssetHandle(ByteBuffer buffer, int compressionId, int memorySize) {
+        this.buffer = buffer.asReadOnlyBuffer();
+        this.compressionId = compressionId;
+        this.memorySize = memorySize;
+    }
+
+    public MappedAssetHandle(MappedAssetHandle other) {
+        //  The mapping itself is read only, so sharing it is as good as a deep copy
+        this.buffer = other.buffer;
+        this.compressionId = other.compressionId;
+        this.memorySize = other.memorySize;
+    }
+
+    @Override
+    public AssetHandle copy() {
+        return new MappedAssetHandle(this);
+    }
+
+    @Override
+    public byte[] getRawBytes() throws IOException {
+        ByteBuffer dup = buffer.duplicate();
+        byte[] ret = new byte[dup.remaining()];
+        dup.get(ret);
+        return ret;
+    }
+
+    /**
+     * Returns a read-only view of the mapped asset. No data is copied.
+     */
+    @Override
+    public ByteBuffer getRawByteBuffer() throws IOException {
+        return buffer.duplicate();
+    }
+
+    @Override
+    public InputStream getRawStream() throws IOException {
+        return new ByteBufferInputStream(buffer.duplicate());
+    }
+
+    @Override
+    public int readRaw(ByteBuffer dst, long position) throws IOException {
+        return read(buffer.duplicate(), dst, position);
+    }
+
+    /**
+     * Copies as much of {@code src} as fits into {@code dst}, starting {@code position} bytes past src's position.
+     *
+     * @return The number of bytes copied, or -1 if there is nothing at {@code position}
+     */
+    static int read(ByteBuffer src, ByteBuffer dst, long position) {
+        if (!dst.hasRemaining()) {
+            return 0;
+        }
+        if (position < 0) {
+            throw new IllegalArgumentException("Negative position");
+        }
+        if (position >= src.remaining()) {
+            return -1;
+        }
+        ByteBuffer part = src.duplicate();
+        part.position(part.position() + (int) position);
+        int len = Math.min(part.remaining(), dst.remaining());
+        part.limit(part.position() + len);
+        dst.put(part);
+        return len;
+    }
+
+    @Override
+    public int getCompressionId() {
+        return compressionId;
+    }
+
+    @Override
+    public int getMemorySize() {
+        return memorySize;
+    }
+
+    @Override
+    public long getRawSize() {
+        return buffer.remaining();
+    }
+}
+
+class ByteBufferInputStream extends InputStream {
+
+    private final ByteBuffer buffer;
+
+    public ByteBufferInputStream(ByteBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!buffer.hasRemaining()) {
+            return -1;
+        }
+        return buffer.get() & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (b == null) {
+            throw new NullPointerException();
+        } else if (off < 0 || len < 0 || len > b.length - off) {
+            throw new IndexOutOfBoundsException();
+        } else if (len == 0) {
+            return 0;
+        }
+        if (!buffer.hasRemaining()) {
+            return -1;
+        }
+        len = Math.min(len, buffer.remaining());
+        buffer.get(b, off, len);
+        return len;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        int skipped = (int) Math.max(0, Math.min(n, buffer.remaining()));
+        buffer.position(buffer.position() + skipped);
+        return skipped;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return buffer.remaining();
+    }
+}
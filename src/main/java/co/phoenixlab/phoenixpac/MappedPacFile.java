@@ -0,0 +1,144 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Vincent Zhang
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package co.phoenixlab.phoenixpac;
+
+import co.phoenixlab.phoenixpac.throwables.InvalidPacFormatException;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A PacFile that maps the whole archive into memory once and hands out read-only slices of the mapping, so reading an
+ * asset never opens the file or copies its contents.
+ */
+public class MappedPacFile extends PacFile {
+
+    /**
+     * Size of each mapping. A single mapping is limited to 2 GB, so larger archives are mapped in several segments.
+     */
+    static final long SEGMENT_SIZE = 1L << 30;
+
+    private final Path path;
+    private volatile ByteBuffer[] segments;
+    /**
+     * Dedicated mappings for the few assets that straddle a segment boundary, keyed by offset
+     */
+    private volatile Map<Long, ByteBuffer> spanning;
+    private long size;
+
+    protected MappedPacFile(Path path) {
+        this.path = path;
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    /**
+     * Maps the archive. Must be called after the index has been read. The mappings stay valid after the channel is
+     * closed.
+     */
+    void map(FileChannel channel) throws IOException {
+        size = channel.size();
+        int numSegments = (int) ((size + SEGMENT_SIZE - 1) / SEGMENT_SIZE);
+        ByteBuffer[] mapped = new ByteBuffer[numSegments];
+        for (int i = 0; i < numSegments; i++) {
+            long start = i * SEGMENT_SIZE;
+            mapped[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(SEGMENT_SIZE, size - start)).
+                    asReadOnlyBuffer();
+        }
+        Map<Long, ByteBuffer> straddling = new HashMap<>();
+        for (IndexEntry entry : index.getEntries().values()) {
+            checkBounds(entry.offset, entry.diskSize);
+            long endSegment = (entry.offset + entry.diskSize - 1) / SEGMENT_SIZE;
+            if (entry.diskSize > 0 && endSegment != entry.offset / SEGMENT_SIZE) {
+                straddling.put(entry.offset, channel.map(FileChannel.MapMode.READ_ONLY, entry.offset, entry.diskSize).
+                        asReadOnlyBuffer());
+            }
+        }
+        spanning = straddling;
+        segments = mapped;
+    }
+
+    @Override
+    public AssetHandle getHandle(TypePurposeUniqueId tpuid) throws IOException {
+        IndexEntry entry = index.getEntry(tpuid);
+        if (entry == null) {
+            throw new FileNotFoundException(tpuid.toString());
+        }
+        return new MappedAssetHandle(slice(entry.offset, entry.diskSize), entry.compressionId, entry.memorySize);
+    }
+
+    /**
+     * Returns a read-only view of the given extent of the archive without copying it.
+     */
+    ByteBuffer slice(long offset, int length) throws IOException {
+        ByteBuffer[] mapped = segments;
+        Map<Long, ByteBuffer> straddling = spanning;
+        if (mapped == null || straddling == null) {
+            throw new IOException("PacFile is closed");
+        }
+        checkBounds(offset, length);
+        if (length == 0) {
+            return ByteBuffer.allocate(0).asReadOnlyBuffer();
+        }
+        int segment = (int) (offset / SEGMENT_SIZE);
+        int segmentOffset = (int) (offset % SEGMENT_SIZE);
+        ByteBuffer buffer = mapped[segment];
+        if (segmentOffset + length > buffer.capacity()) {
+            buffer = straddling.get(offset);
+            if (buffer == null || buffer.capacity() < length) {
+                throw new InvalidPacFormatException(String.format("No mapping for extent %d+%d", offset, length));
+            }
+            segmentOffset = 0;
+        }
+        ByteBuffer dup = buffer.duplicate();
+        dup.position(segmentOffset);
+        dup.limit(segmentOffset + length);
+        return dup.slice();
+    }
+
+    private void checkBounds(long offset, int length) throws InvalidPacFormatException {
+        if (offset < 0 || length < 0 || offset + length > size) {
+            throw new InvalidPacFormatException(String.format("Extent %d+%d lies outside of the file (%d bytes)",
+                    offset, length, size));
+        }
+    }
+
+    /**
+     * Releases this PacFile's references to the mapping. Handles that were already handed out stay readable until
+     * they are garbage collected, since a mapping cannot be unmapped explicitly.
+     */
+    @Override
+    public void close() {
+        segments = null;
+        spanning = null;
+    }
+}
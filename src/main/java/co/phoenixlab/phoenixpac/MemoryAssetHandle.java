@@ -70,6 +70,11 @@ public class MemoryAssetHandle implements AssetHandle {
         return ByteBuffer.wrap(data);
     }
 
+    @Override
+    public int readRaw(ByteBuffer dst, long position) throws IOException {
+        return MappedAssetHandle.read(ByteBuffer.wrap(data), dst, position);
+    }
+
     @Override
     public InputStream getRawStream() throws IOException {
         return new ByteArrayInputStream(data);
@@ -79,4 +84,14 @@ public class MemoryAssetHandle implements AssetHandle {
     public int getCompressionId() {
         return compressionId;
     }
+
+    @Override
+    public int getMemorySize() {
+        return compressionId == 0 ? data.length : -1;
+    }
+
+    @Override
+    public long getRawSize() {
+        return data.length;
+    }
 }
@@ -31,6 +31,11 @@ public class MetadataEntry {
     protected int valLength;
     protected String key;
     protected String val;
+    /**
+     * UTF-8 encodings of the key and value, kept so that they are encoded only once
+     */
+    byte[] keyBytes;
+    byte[] valBytes;
 
     public MetadataEntry() {
     }
@@ -38,8 +43,10 @@ public class MetadataEntry {
     public MetadataEntry(String key, String val) {
         this.key = utf8truncate(key, 255);
         this.val = utf8truncate(val, 255);
-        keyLength = key.getBytes(StandardCharsets.UTF_8).length;
-        valLength = val.getBytes(StandardCharsets.UTF_8).length;
+        keyBytes = this.key.getBytes(StandardCharsets.UTF_8);
+        valBytes = this.val.getBytes(StandardCharsets.UTF_8);
+        keyLength = keyBytes.length;
+        valLength = valBytes.length;
         if (keyLength > 255) {
             throw new IllegalStateException("Truncated key string is greater than 255 bytes");
         }
@@ -53,6 +60,9 @@ public class MetadataEntry {
         this.valLength = other.valLength;
         this.key = other.key;
         this.val = other.val;
+        //  Never modified, so they can be shared
+        this.keyBytes = other.keyBytes;
+        this.valBytes = other.valBytes;
     }
 
     public int getKeyLength() {
@@ -71,6 +81,20 @@ public class MetadataEntry {
         return val;
     }
 
+    byte[] getKeyBytes() {
+        if (keyBytes == null) {
+            keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        }
+        return keyBytes;
+    }
+
+    byte[] getValBytes() {
+        if (valBytes == null) {
+            valBytes = val.getBytes(StandardCharsets.UTF_8);
+        }
+        return valBytes;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) {
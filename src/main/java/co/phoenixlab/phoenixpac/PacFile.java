@@ -24,13 +24,33 @@
 package co.phoenixlab.phoenixpac;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 
-public abstract class PacFile {
+public abstract class PacFile implements AutoCloseable {
 
 
     public static final int MAJOR_VERSION = 4;
     public static final int MINOR_VERSION = 0;
     public static final int COMPRESSION_DEFLATE = 1;
+    /**
+     * Fast LZ77 compression, see {@link co.phoenixlab.phoenixpac.codec.LzCodec}
+     */
+    public static final int COMPRESSION_LZ = 2;
+    /**
+     * Deflate in independently compressed chunks with a seek table, see
+     * {@link co.phoenixlab.phoenixpac.codec.ChunkedDeflateCodec}
+     */
+    public static final int COMPRESSION_CHUNKED_DEFLATE = 3;
+    /**
+     * Default largest gap between two assets that {@link #readAll(Collection)} will read through rather than split
+     * into two reads
+     */
+    public static final int DEFAULT_GAP_THRESHOLD = 64 * 1024;
 
     protected PacHeader header;
     protected Index index;
@@ -82,4 +102,68 @@ public abstract class PacFile {
 
     public abstract AssetHandle getHandle(TypePurposeUniqueId tpuid) throws IOException;
 
+    /**
+     * Reads the raw contents of several assets at once.
+     *
+     * @see #readAll(Collection, int)
+     */
+    public Map<TypePurposeUniqueId, ByteBuffer> readAll(Collection<TypePurposeUniqueId> tpuids) throws IOException {
+        return readAll(tpuids, DEFAULT_GAP_THRESHOLD);
+    }
+
+    /**
+     * Reads the raw contents of several assets at once. Implementations backed by a file may merge assets that lie
+     * within {@code gapThreshold} bytes of each other into one larger read. By default each asset is read through
+     * its handle.
+     *
+     * @return The raw contents of each asset, in the order the TPUIDs were given
+     */
+    public Map<TypePurposeUniqueId, ByteBuffer> readAll(Collection<TypePurposeUniqueId> tpuids, int gapThreshold)
+            throws IOException {
+        Map<TypePurposeUniqueId, ByteBuffer> ret = new LinkedHashMap<>();
+        for (TypePurposeUniqueId tpuid : tpuids) {
+            if (!ret.containsKey(tpuid)) {
+                ret.put(tpuid, getHandle(tpuid).getRawByteBuffer());
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Reads an asset's raw contents without blocking the calling thread, where the underlying handles support it.
+     *
+     * @see AssetHandle#getRawByteBufferAsync()
+     */
+    public CompletableFuture<ByteBuffer> readAsync(TypePurposeUniqueId tpuid) {
+        try {
+            return getHandle(tpuid).getRawByteBufferAsync();
+        } catch (IOException | RuntimeException e) {
+            CompletableFuture<ByteBuffer> future = new CompletableFuture<>();
+            future.completeExceptionally(e);
+            return future;
+        }
+    }
+
+    /**
+     * Reads an asset without blocking the calling thread and decompresses it on the given executor.
+     *
+     * @see AssetHandle#getDecompressedByteBufferAsync(Executor)
+     */
+    public CompletableFuture<ByteBuffer> readAsync(TypePurposeUniqueId tpuid, Executor executor) {
+        try {
+            return getHandle(tpuid).getDecompressedByteBufferAsync(executor);
+        } catch (IOException | RuntimeException e) {
+            CompletableFuture<ByteBuffer> future = new CompletableFuture<>();
+            future.completeExceptionally(e);
+            return future;
+        }
+    }
+
+    /**
+     * Releases any resources held open for reading assets. Does nothing by default.
+     */
+    @Override
+    public void close() throws IOException {
+    }
+
 }
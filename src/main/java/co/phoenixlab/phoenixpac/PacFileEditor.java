@@ -0,0 +1,528 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Vincent Zhang
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package co.phoenixlab.phoenixpac;
+
+import co.phoenixlab.phoenixpac.throwables.InvalidPacFormatException;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Edits an existing PAC file in place. New and replacement assets go into the best fitting hole listed in the Trash
+ * Index, or at the end of the file if none fits, and {@link #commit()} rewrites only the index, metadata and trash
+ * sections and the header.
+ * <p>
+ * Edits are crash safe: nothing the current header points at is overwritten before the new header is written. Space
+ * given up by replaced or deleted assets and by the old sections is recorded as trash by the commit, but is only
+ * reused after it. Closing the editor without committing discards the edits.
+ * <p>
+ * Several entries may share one extent, as written by a deduplicating {@link PacFileWriter}. Such an extent only
+ * becomes trash once the last entry using it is replaced or deleted.
+ * <p>
+ * In {@link #setAppendOnly(boolean) append-only} mode holes are never reused, so nothing that was ever committed is
+ * overwritten and readers that opened an older version of the archive keep reading consistent data.
+ */
+public class PacFileEditor implements AutoCloseable {
+
+    /**
+     * Moved bytes after which compaction commits, so that an interrupted run loses little work
+     */
+    static final long COMPACTION_COMMIT_INTERVAL = 64L * 1024 * 1024;
+
+    private final Path path;
+    private final RandomAccessFile randomAccessFile;
+    private final FileChannel channel;
+    private CompressionPolicy compressionPolicy;
+    private boolean appendOnly;
+
+    private final PacHeader header;
+    private final boolean wide;
+    private final Index index;
+    private final PacMetadata metadata;
+    /**
+     * Holes that are free as of the last commit, and so safe to write into
+     */
+    private final TrashAllocator trash;
+    /**
+     * Extents that stop being used once the next commit lands
+     */
+    private final List<long[]> pendingFrees;
+    /**
+     * Number of entries using each non-empty extent, by offset
+     */
+    private final Map<Long, Integer> extentRefs;
+    /**
+     * Extents of the sections the current header points at, as {offset, size}
+     */
+    private long[] indexSection;
+    private long[] metadataSection;
+    private long[] trashSection;
+    private long fileEnd;
+
+    public PacFileEditor(Path path) throws IOException {
+        this(path, false);
+    }
+
+    /**
+     * @param compressFiles Whether to deflate uncompressed assets as they are added
+     */
+    public PacFileEditor(Path path, boolean compressFiles) throws IOException {
+        this.path = path;
+        this.randomAccessFile = new RandomAccessFile(path.toFile(), "rw");
+        this.compressionPolicy = PacFileWriter.defaultPolicy(compressFiles);
+        //  Anything from here on that fails must not leak the file
+        try {
+            channel = randomAccessFile.getChannel();
+            PacFile pacFile = new PacFileReader(randomAccessFile, true).read();
+            header = pacFile.header;
+            wide = header.getFlag(PacHeader.FLAG_USE_LONG_OFFSETS);
+            index = pacFile.index;
+            metadata = pacFile.metadata;
+            trash = new TrashAllocator();
+            for (TrashIndexEntry entry : pacFile.trashIndex.entries) {
+                try {
+                    trash.free(entry.offset, entry.size);
+                } catch (IllegalStateException e) {
+                    throw new InvalidPacFormatException("Trash entries overlap", e);
+                }
+            }
+            pendingFrees = new ArrayList<>();
+            extentRefs = new HashMap<>();
+            for (IndexEntry entry : index.entries.values()) {
+                retain(entry);
+            }
+            fileEnd = channel.size();
+            indexSection = new long[] {header.indexSectionOffset,
+                    8L + (long) index.getNumIndexEntries() * IndexEntry.sizeOf(wide)};
+            metadataSection = header.metadataSectionOffset == 0 ? null :
+                    new long[] {header.metadataSectionOffset, SectionEncoder.metadataSize(metadata)};
+            trashSection = header.trashSectionOffset == 0 ? null :
+                    new long[] {header.trashSectionOffset,
+                            8L + (long) pacFile.trashIndex.getNumTrashEntries() * TrashIndexEntry.sizeOf(wide)};
+        } catch (IOException | RuntimeException e) {
+            randomAccessFile.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Sets how each uncompressed asset is stored from now on, overriding the constructor's {@code compressFiles}.
+     */
+    public void setCompressionPolicy(CompressionPolicy compressionPolicy) {
+        if (compressionPolicy == null) {
+            throw new NullPointerException("compressionPolicy");
+        }
+        this.compressionPolicy = compressionPolicy;
+    }
+
+    /**
+     * In append-only mode, new and replacement assets as well as the index, metadata and trash sections are all
+     * written at the end of the file, and a commit only appends to the file and then rewrites the header. Old extents
+     * are still recorded as trash so that a later {@link #compact()} can reclaim them, but until then they keep the
+     * contents that readers of older versions expect. Compaction does move assets into holes, so it should only be
+     * run once no such readers are left.
+     */
+    public void setAppendOnly(boolean appendOnly) {
+        this.appendOnly = appendOnly;
+    }
+
+    public boolean isAppendOnly() {
+        return appendOnly;
+    }
+
+    public PacHeader getHeader() {
+        return header;
+    }
+
+    public Index getIndex() {
+        return index;
+    }
+
+    /**
+     * The metadata as it will be written by the next commit. Changes made to it are picked up by {@link #commit()}.
+     */
+    public PacMetadata getMetadata() {
+        return metadata;
+    }
+
+    /**
+     * @return Bytes currently listed as trash and available for new assets
+     */
+    public long getFreeBytes() {
+        return trash.getFreeBytes();
+    }
+
+    public long getFileSize() {
+        return fileEnd;
+    }
+
+    public void add(TypePurposeUniqueId tpuid, AssetHandle source) throws IOException {
+        if (index.getEntry(tpuid) != null) {
+            throw new FileAlreadyExistsException(tpuid.toString());
+        }
+        put(tpuid, source);
+    }
+
+    /**
+     * Replaces an asset's contents. The new contents may be larger or smaller than the old ones; either way they are
+     * placed best-fit and the old extent becomes trash.
+     */
+    public void replace(TypePurposeUniqueId tpuid, AssetHandle source) throws IOException {
+        if (index.getEntry(tpuid) == null) {
+            throw new FileNotFoundException(tpuid.toString());
+        }
+        put(tpuid, source);
+    }
+
+    /**
+     * Adds the asset, or replaces it if it exists.
+     */
+    public void put(TypePurposeUniqueId tpuid, AssetHandle source) throws IOException {
+        PacFileWriter.PreparedAsset prepared = PacFileWriter.prepare(tpuid, source, compressionPolicy, null, true);
+        long offset = place(prepared.length);
+        FileSystemAssetHandle.writeFully(channel, ByteBuffer.wrap(prepared.data, 0, prepared.length), offset);
+        IndexEntry entry = new IndexEntry();
+        entry.tpuid = tpuid;
+        entry.offset = offset;
+        entry.diskSize = prepared.length;
+        entry.memorySize = Math.max(prepared.memorySize, 0);
+        entry.compressionId = prepared.compressionId;
+        entry.sha256Hash = prepared.sha256Hash;
+        retain(entry);
+        IndexEntry old = index.entries.put(tpuid, entry);
+        if (old != null) {
+            release(old);
+        }
+        index.syncCount();
+    }
+
+    /**
+     * Removes an asset and its metadata.
+     */
+    public void delete(TypePurposeUniqueId tpuid) throws IOException {
+        IndexEntry old = index.entries.remove(tpuid);
+        if (old == null) {
+            throw new FileNotFoundException(tpuid.toString());
+        }
+        metadata.metadata.remove(tpuid);
+        release(old);
+        index.syncCount();
+    }
+
+    private void retain(IndexEntry entry) {
+        if (entry.diskSize > 0) {
+            extentRefs.merge(entry.offset, 1, Integer::sum);
+        }
+    }
+
+    /**
+     * Drops an entry's claim on its extent, which becomes trash at the next commit if nothing else uses it.
+     */
+    private void release(IndexEntry entry) {
+        if (entry.diskSize <= 0) {
+            return;
+        }
+        Integer refs = extentRefs.get(entry.offset);
+        if (refs == null || refs <= 1) {
+            extentRefs.remove(entry.offset);
+            pendingFrees.add(new long[] {entry.offset, entry.diskSize});
+        } else {
+            extentRefs.put(entry.offset, refs - 1);
+        }
+    }
+
+    /**
+     * Writes out the index, metadata and trash sections and then the header, so that the archive reflects every edit
+     * made so far. The data is forced to disk before the header is written, and the header before this returns.
+     */
+    public void commit() throws IOException {
+        //  The new sections may only go into space that is already free on disk
+        long[] newIndexSection;
+        try (SectionEncoder encoder = new SectionEncoder()) {
+            encoder.index(index, wide);
+            newIndexSection = new long[] {place(encoder.size()), encoder.size()};
+            encoder.writeTo(channel, newIndexSection[0]);
+        }
+        long[] newMetadataSection = null;
+        if (metadata != null && !metadata.metadata.isEmpty()) {
+            try (SectionEncoder encoder = new SectionEncoder()) {
+                encoder.metadata(metadata);
+                newMetadataSection = new long[] {place(encoder.size()), encoder.size()};
+                encoder.writeTo(channel, newMetadataSection[0]);
+            }
+        }
+        //  As of the new header, the old sections and anything replaced are garbage too
+        List<long[]> freed = new ArrayList<>(pendingFrees);
+        freed.add(indexSection);
+        if (metadataSection != null) {
+            freed.add(metadataSection);
+        }
+        if (trashSection != null) {
+            freed.add(trashSection);
+        }
+        long[] newTrashSection = writeTrashSection(freed);
+        channel.force(false);
+
+        header.indexSectionOffset = newIndexSection[0];
+        header.metadataSectionOffset = newMetadataSection == null ? 0 : newMetadataSection[0];
+        header.trashSectionOffset = newTrashSection == null ? 0 : newTrashSection[0];
+        try (SectionEncoder encoder = new SectionEncoder()) {
+            encoder.header(header, wide).writeTo(channel, 0);
+        }
+        channel.force(true);
+
+        for (long[] extent : freed) {
+            trash.free(extent[0], extent[1]);
+        }
+        pendingFrees.clear();
+        indexSection = newIndexSection;
+        metadataSection = newMetadataSection;
+        trashSection = newTrashSection;
+    }
+
+    /**
+     * Compacts the archive without limit.
+     *
+     * @see #compact(long)
+     */
+    public CompactionResult compact() throws IOException {
+        return compact(Long.MAX_VALUE);
+    }
+
+    /**
+     * Moves assets down into holes and truncates the free space left at the end of the file. Assets are taken from the
+     * end of the file first and each goes into the lowest hole that fits it whole. Their bytes are copied as they are,
+     * without decompressing them. An extent shared by several entries is moved once and all of them are updated.
+     * <p>
+     * Every move goes into space that is already free on disk, and progress is committed regularly, so the archive
+     * stays valid if compaction is interrupted and the next run picks up where it stopped. Any pending edits are
+     * committed first.
+     *
+     * @param byteBudget The most asset bytes to move in this run. An asset larger than the whole budget is still moved
+     *                   if it is the first one, so that repeated runs always make progress.
+     */
+    public CompactionResult compact(long byteBudget) throws IOException {
+        long startSize = fileEnd;
+        commit();
+        CompactionResult result = new CompactionResult();
+        result.complete = true;
+        //  Entries by the extent they use, from the end of the file down
+        TreeMap<Long, List<IndexEntry>> extents = new TreeMap<>(Comparator.reverseOrder());
+        for (IndexEntry entry : index.entries.values()) {
+            if (entry.diskSize > 0) {
+                extents.computeIfAbsent(entry.offset, k -> new ArrayList<>(1)).add(entry);
+            }
+        }
+        long sinceCommit = 0;
+        try (FileChannel target = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            for (Map.Entry<Long, List<IndexEntry>> extent : extents.entrySet()) {
+                long offset = extent.getKey();
+                List<IndexEntry> sharers = extent.getValue();
+                int size = 0;
+                for (IndexEntry entry : sharers) {
+                    size = Math.max(size, entry.diskSize);
+                }
+                TrashAllocator.Hole hole = trash.firstFit(size, offset);
+                if (hole == null) {
+                    continue;
+                }
+                if (result.bytesMoved + size > byteBudget && result.bytesMoved > 0) {
+                    result.complete = false;
+                    break;
+                }
+                long destination = hole.offset;
+                trash.reserve(destination, size);
+                move(target, offset, destination, size);
+                pendingFrees.add(new long[] {offset, size});
+                for (IndexEntry entry : sharers) {
+                    entry.offset = destination;
+                }
+                Integer refs = extentRefs.remove(offset);
+                if (refs != null) {
+                    extentRefs.put(destination, refs);
+                }
+                result.bytesMoved += size;
+                result.assetsMoved += sharers.size();
+                sinceCommit += size;
+                if (sinceCommit >= COMPACTION_COMMIT_INTERVAL) {
+                    commit();
+                    sinceCommit = 0;
+                }
+            }
+        }
+        commit();
+        truncate();
+        result.bytesReclaimed = startSize - fileEnd;
+        return result;
+    }
+
+    private void move(FileChannel target, long source, long destination, long size) throws IOException {
+        long done = 0;
+        while (done < size) {
+            target.position(destination + done);
+            long transferred = channel.transferTo(source + done, size - done, target);
+            if (transferred <= 0) {
+                throw new IOException("Unable to move asset at " + source);
+            }
+            done += transferred;
+        }
+    }
+
+    /**
+     * Gives the hole at the end of the file, if any, back to the file system. The sections written by the commit that
+     * records this may themselves end up at the end of the file, so this repeats while there is anything to cut.
+     */
+    private void truncate() throws IOException {
+        for (int attempt = 0; attempt < 3; attempt++) {
+            TrashAllocator.Hole tail = trash.holeEndingAt(fileEnd);
+            if (tail == null) {
+                break;
+            }
+            //  The tail is free on disk, so the commit may write its sections there
+            trash.reserve(tail.offset, tail.size);
+            fileEnd = tail.offset;
+            commit();
+            randomAccessFile.setLength(fileEnd);
+        }
+    }
+
+    /**
+     * Writes the trash section listing every hole as of the new header, that is the current holes plus
+     * {@code freed}. The section's size depends on the number of holes, so it only goes into a hole it can share with
+     * something left over, which keeps the count unchanged; otherwise it goes at the end of the file.
+     *
+     * @return The extent of the written section, or null if there is no trash
+     */
+    private long[] writeTrashSection(List<long[]> freed) throws IOException {
+        TrashAllocator after = new TrashAllocator(trash);
+        for (long[] extent : freed) {
+            after.free(extent[0], extent[1]);
+        }
+        int numEntries = after.toTrashEntries().size();
+        if (numEntries == 0) {
+            return null;
+        }
+        long size = 8L + (long) numEntries * TrashIndexEntry.sizeOf(wide);
+        List<TrashIndexEntry> entries = null;
+        long offset = appendOnly ? -1 : trash.allocate(size + 1);
+        if (offset >= 0) {
+            TrashAllocator placed = new TrashAllocator(after);
+            placed.reserve(offset, size);
+            entries = placed.toTrashEntries();
+            if (entries.size() == numEntries) {
+                trash.free(offset + size, 1);
+            } else {
+                //  Splitting a hole that merged with a freed extent would need one more entry than there is room for
+                trash.free(offset, size + 1);
+                offset = -1;
+            }
+        }
+        if (offset < 0) {
+            offset = extend(size);
+            entries = after.toTrashEntries();
+        }
+        try (SectionEncoder encoder = new SectionEncoder()) {
+            encoder.trashIndex(entries, wide).writeTo(channel, offset);
+            return new long[] {offset, encoder.size()};
+        }
+    }
+
+    /**
+     * Finds room for {@code size} bytes, best-fit among the holes or else at the end of the file. In append-only mode
+     * always at the end of the file.
+     */
+    private long place(long size) throws InvalidPacFormatException {
+        long offset = appendOnly ? -1 : trash.allocate(size);
+        if (offset < 0) {
+            offset = extend(size);
+        }
+        return offset;
+    }
+
+    /**
+     * Claims {@code size} bytes at the end of the file.
+     *
+     * @throws InvalidPacFormatException If the archive uses 32 bit offsets and would outgrow them, before anything is
+     *                                   written
+     */
+    private long extend(long size) throws InvalidPacFormatException {
+        if (!wide && fileEnd + size > LayoutPlanner.NARROW_OFFSET_LIMIT) {
+            throw new InvalidPacFormatException("Archive would outgrow 32 bit offsets");
+        }
+        long offset = fileEnd;
+        fileEnd += size;
+        return offset;
+    }
+
+    /**
+     * Closes the file. Edits that were not committed are lost, though the file stays valid.
+     */
+    @Override
+    public void close() throws IOException {
+        randomAccessFile.close();
+    }
+
+    public static class CompactionResult {
+
+        protected long bytesMoved;
+        protected long bytesReclaimed;
+        protected int assetsMoved;
+        protected boolean complete;
+
+        public long getBytesMoved() {
+            return bytesMoved;
+        }
+
+        /**
+         * @return How much smaller the file got
+         */
+        public long getBytesReclaimed() {
+            return bytesReclaimed;
+        }
+
+        public int getAssetsMoved() {
+            return assetsMoved;
+        }
+
+        /**
+         * @return False if the run stopped early because of its byte budget
+         */
+        public boolean isComplete() {
+            return complete;
+        }
+    }
+}
@@ -29,6 +29,7 @@ import co.phoenixlab.phoenixpac.throwables.InvalidPacFormatException;
 import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
 
@@ -36,13 +37,32 @@ public class PacFileReader implements AutoCloseable {
 
     private RandomAccessFile randomAccessFile;
     private Path path;
+    private final boolean bufferedSections;
+    private boolean packedIndex;
 
+    /**
+     * Creates a reader that decodes field by field, starting at the current position of the given file.
+     */
     public PacFileReader(RandomAccessFile randomAccessFile) {
+        this(randomAccessFile, false);
+    }
+
+    /**
+     * @param bufferedSections If true, each section is fetched with one positional read and decoded from memory. The
+     *                         header is then always read from the start of the file.
+     */
+    public PacFileReader(RandomAccessFile randomAccessFile, boolean bufferedSections) {
         this.randomAccessFile = randomAccessFile;
+        this.bufferedSections = bufferedSections;
     }
 
     public PacFileReader(Path path) throws IOException {
+        this(path, true);
+    }
+
+    public PacFileReader(Path path, boolean bufferedSections) throws IOException {
         this.path = path;
+        this.bufferedSections = bufferedSections;
         randomAccessFile = new RandomAccessFile(path.toFile(), "r");
     }
 
@@ -50,32 +70,71 @@ public class PacFileReader implements AutoCloseable {
         this(file.toPath());
     }
 
+    public PacFileReader(File file, boolean bufferedSections) throws IOException {
+        this(file.toPath(), bufferedSections);
+    }
+
+
+    /**
+     * @param packedIndex If true, the index is read into a {@link PackedIndex} instead of one object per entry
+     */
+    public void setPackedIndex(boolean packedIndex) {
+        this.packedIndex = packedIndex;
+    }
 
     public PacFile read() throws IOException {
-        PacFile pacFile = new FilesystemPacFile(path);
-        readHeader(pacFile);
-        readIndex(pacFile);
-        readMetadata(pacFile);
-        readTrashIndex(pacFile);
+        return read(new FilesystemPacFile(path));
+    }
+
+    /**
+     * Reads the archive and maps it into memory. Assets are then served as read-only views of the mapping, which
+     * remains valid after this reader is closed.
+     */
+    public MappedPacFile readMapped() throws IOException {
+        MappedPacFile pacFile = read(new MappedPacFile(path));
+        pacFile.map(randomAccessFile.getChannel());
+        return pacFile;
+    }
+
+    /**
+     * Reads the archive into an immutable {@link PacSnapshot} that any number of threads may read from at once. The
+     * index is always packed, whatever {@link #setPackedIndex(boolean)} says.
+     */
+    public PacSnapshot readSnapshot() throws IOException {
+        boolean packed = packedIndex;
+        packedIndex = true;
+        try {
+            return PacSnapshot.of(read());
+        } finally {
+            packedIndex = packed;
+        }
+    }
+
+    private <T extends PacFile> T read(T pacFile) throws IOException {
+        if (bufferedSections) {
+            SectionBuffer buffer = new SectionBuffer(randomAccessFile.getChannel());
+            readHeader(pacFile, buffer);
+            readIndex(pacFile, buffer);
+            readMetadata(pacFile, buffer);
+            readTrashIndex(pacFile, buffer);
+        } else {
+            readHeader(pacFile);
+            readIndex(pacFile);
+            readMetadata(pacFile);
+            readTrashIndex(pacFile);
+            if (packedIndex) {
+                pacFile.index = new PackedIndex(pacFile.index);
+            }
+        }
         return pacFile;
     }
 
     private void readHeader(PacFile pacFile) throws IOException {
         final PacHeader header = new PacHeader();
-        int magicNumber = randomAccessFile.readInt();
-        if (magicNumber != PacHeader.MAGIC_NUMBER) {
-            throw new InvalidPacFormatException(String.format("Bad magic: Expected %08X, got %08X",
-                                                              PacHeader.MAGIC_NUMBER,
-                                                              magicNumber));
-        }
+        checkMagic(randomAccessFile.readInt());
         header.majorVersion = randomAccessFile.readUnsignedShort();
         header.minorVersion = randomAccessFile.readUnsignedShort();
-        if (header.majorVersion != PacFile.MAJOR_VERSION) {
-            throw new InvalidPacFormatException("Bad major version: Expected 4, got " + header.majorVersion);
-        }
-        if (header.minorVersion != PacFile.MINOR_VERSION) {
-            throw new InvalidPacFormatException("Bad major version: Expected 0, got " + header.minorVersion);
-        }
+        checkVersion(header);
         header.reservedA = randomAccessFile.readLong();
         header.reservedB = randomAccessFile.readLong();
         header.flags = randomAccessFile.readInt();
@@ -164,6 +223,8 @@ public class PacFileReader implements AutoCloseable {
         randomAccessFile.readFully(valBytes);
         entry.key = new String(keyBytes, StandardCharsets.UTF_8);
         entry.val = new String(valBytes, StandardCharsets.UTF_8);
+        entry.keyBytes = keyBytes;
+        entry.valBytes = valBytes;
         metadataBlock.entries.put(entry.key, entry);
     }
 
@@ -201,6 +262,182 @@ public class PacFileReader implements AutoCloseable {
         return new TypePurposeUniqueId(typePurpose, unique);
     }
 
+    private void readHeader(PacFile pacFile, SectionBuffer section) throws IOException {
+        final PacHeader header = new PacHeader();
+        section.seek(0, PacHeader.SIZE_OF);
+        ByteBuffer buffer = section.require(4 + 2 + 2 + 8 + 8 + 4);
+        checkMagic(buffer.getInt());
+        header.majorVersion = Short.toUnsignedInt(buffer.getShort());
+        header.minorVersion = Short.toUnsignedInt(buffer.getShort());
+        checkVersion(header);
+        header.reservedA = buffer.getLong();
+        header.reservedB = buffer.getLong();
+        header.flags = buffer.getInt();
+        if (header.getFlag(PacHeader.FLAG_USE_LONG_OFFSETS)) {
+            buffer = section.require(8 * 3);
+            header.indexSectionOffset = buffer.getLong();
+            header.metadataSectionOffset = buffer.getLong();
+            header.trashSectionOffset = buffer.getLong();
+        } else {
+            buffer = section.require(4 * 3);
+            header.indexSectionOffset = Integer.toUnsignedLong(buffer.getInt());
+            header.metadataSectionOffset = Integer.toUnsignedLong(buffer.getInt());
+            header.trashSectionOffset = Integer.toUnsignedLong(buffer.getInt());
+        }
+        pacFile.header = header;
+    }
+
+    private void readIndex(PacFile pacFile, SectionBuffer section) throws IOException {
+        final boolean useLong = pacFile.header.getFlag(PacHeader.FLAG_USE_LONG_OFFSETS);
+        final int entrySize = IndexEntry.sizeOf(useLong);
+        section.seek(pacFile.header.indexSectionOffset, SectionBuffer.MIN_FETCH);
+        final int numEntries = section.require(4).getInt();
+        if (numEntries < 0) {
+            throw new InvalidPacFormatException("Cannot have a negative number of Index Entries");
+        }
+        //  Pull in the whole section (within reason) now, the per entry checks below are then just bounds checks
+        section.prefetch((int) Math.min((long) numEntries * entrySize + 4, Integer.MAX_VALUE));
+        final Index index;
+        if (packedIndex) {
+            PackedIndex.Builder builder = new PackedIndex.Builder(numEntries);
+            for (int i = 0; i < numEntries; i++) {
+                readIndexEntry(builder, useLong, section.require(entrySize));
+            }
+            index = builder.build();
+        } else {
+            index = new Index(numEntries);
+            for (int i = 0; i < numEntries; i++) {
+                readIndexEntry(index, useLong, section.require(entrySize));
+            }
+        }
+        int guard = section.require(4).getInt();
+        if (guard != Index.GUARD_BYTES) {
+            throw new InvalidPacFormatException(String.format("Bad index guard bytes 0x%08X", guard));
+        }
+        pacFile.index = index;
+    }
+
+    private void readIndexEntry(final Index index, final boolean useLong, final ByteBuffer buffer) {
+        final IndexEntry entry = new IndexEntry();
+        entry.tpuid = new TypePurposeUniqueId(buffer.getInt(), buffer.getInt());
+        if (useLong) {
+            entry.offset = buffer.getLong();
+        } else {
+            entry.offset = Integer.toUnsignedLong(buffer.getInt());
+        }
+        entry.diskSize = buffer.getInt();
+        entry.memorySize = buffer.getInt();
+        entry.compressionId = (buffer.getInt() & 0xFF000000) >>> 24;
+        buffer.get(entry.sha256Hash);
+        index.entries.put(entry.getTPUID(), entry);
+    }
+
+    private void readIndexEntry(final PackedIndex.Builder builder, final boolean useLong, final ByteBuffer buffer) {
+        int typePurposeId = buffer.getInt();
+        int uniqueId = buffer.getInt();
+        long offset = useLong ? buffer.getLong() : Integer.toUnsignedLong(buffer.getInt());
+        int diskSize = buffer.getInt();
+        int memorySize = buffer.getInt();
+        int compressionId = (buffer.getInt() & 0xFF000000) >>> 24;
+        builder.add(typePurposeId, uniqueId, offset, diskSize, memorySize, compressionId, buffer);
+    }
+
+    private void readMetadata(final PacFile pacFile, SectionBuffer section) throws IOException {
+        final PacMetadata metadata = new PacMetadata();
+        if (pacFile.header.metadataSectionOffset != 0) {
+            section.seek(pacFile.header.metadataSectionOffset, SectionBuffer.MIN_FETCH);
+            ByteBuffer buffer = section.require(8);
+            metadata.size = buffer.getInt();
+            metadata.numMetadataBlocks = buffer.getInt();
+            //  The stored size is only a hint, older writers did not count the entry length bytes
+            section.prefetch(Math.max(metadata.size, 0) + 4);
+            for (int i = 0; i < metadata.numMetadataBlocks; i++) {
+                readMetadataBlock(metadata, section);
+            }
+            int guard = section.require(4).getInt();
+            if (guard != PacMetadata.GUARD_BYTES) {
+                throw new InvalidPacFormatException(String.format("Bad index guard bytes 0x%08X", guard));
+            }
+        }
+        pacFile.metadata = metadata;
+    }
+
+    private void readMetadataBlock(PacMetadata metadata, SectionBuffer section) throws IOException {
+        final MetadataBlock block = new MetadataBlock();
+        ByteBuffer buffer = section.require(12);
+        block.tpuid = new TypePurposeUniqueId(buffer.getInt(), buffer.getInt());
+        block.numberOfEntries = Short.toUnsignedInt(buffer.getShort());
+        block.size = Short.toUnsignedInt(buffer.getShort());
+        for (int i = 0; i < block.numberOfEntries; i++) {
+            readMetadataEntry(block, section);
+        }
+        metadata.metadata.put(block.tpuid, block);
+    }
+
+    private void readMetadataEntry(MetadataBlock metadataBlock, SectionBuffer section) throws IOException {
+        MetadataEntry entry = new MetadataEntry();
+        ByteBuffer buffer = section.require(2);
+        entry.keyLength = Byte.toUnsignedInt(buffer.get());
+        entry.valLength = Byte.toUnsignedInt(buffer.get());
+        buffer = section.require(entry.keyLength + entry.valLength);
+        entry.key = decodeUtf8(buffer, entry.keyLength);
+        entry.val = decodeUtf8(buffer, entry.valLength);
+        metadataBlock.entries.put(entry.key, entry);
+    }
+
+    private void readTrashIndex(PacFile pacFile, SectionBuffer section) throws IOException {
+        TrashIndex index = new TrashIndex();
+        final boolean useLong = pacFile.header.getFlag(PacHeader.FLAG_USE_LONG_OFFSETS);
+        if (pacFile.header.trashSectionOffset != 0) {
+            final int entrySize = TrashIndexEntry.sizeOf(useLong);
+            section.seek(pacFile.header.trashSectionOffset, SectionBuffer.MIN_FETCH);
+            index.numTrashEntries = section.require(4).getInt();
+            if (index.numTrashEntries < 0) {
+                throw new InvalidPacFormatException("Cannot have a negative number of Trash Entries");
+            }
+            section.prefetch((int) Math.min((long) index.numTrashEntries * entrySize + 4, Integer.MAX_VALUE));
+            for (int i = 0; i < index.numTrashEntries; i++) {
+                ByteBuffer buffer = section.require(entrySize);
+                TrashIndexEntry entry = new TrashIndexEntry();
+                if (useLong) {
+                    entry.offset = buffer.getLong();
+                } else {
+                    entry.offset = Integer.toUnsignedLong(buffer.getInt());
+                }
+                entry.size = buffer.getInt();
+                index.entries.add(entry);
+            }
+            int guard = section.require(4).getInt();
+            if (guard != TrashIndex.GUARD_BYTES) {
+                throw new InvalidPacFormatException(String.format("Bad index guard bytes 0x%08X", guard));
+            }
+        }
+        pacFile.trashIndex = index;
+    }
+
+    private static String decodeUtf8(ByteBuffer buffer, int length) {
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void checkMagic(int magicNumber) throws InvalidPacFormatException {
+        if (magicNumber != PacHeader.MAGIC_NUMBER) {
+            throw new InvalidPacFormatException(String.format("Bad magic: Expected %08X, got %08X",
+                                                              PacHeader.MAGIC_NUMBER,
+                                                              magicNumber));
+        }
+    }
+
+    private static void checkVersion(PacHeader header) throws InvalidPacFormatException {
+        if (header.majorVersion != PacFile.MAJOR_VERSION) {
+            throw new InvalidPacFormatException("Bad major version: Expected 4, got " + header.majorVersion);
+        }
+        if (header.minorVersion != PacFile.MINOR_VERSION) {
+            throw new InvalidPacFormatException("Bad major version: Expected 0, got " + header.minorVersion);
+        }
+    }
+
 
     @Override
     public void close() throws Exception {
@@ -24,24 +24,67 @@
 
 package co.phoenixlab.phoenixpac;
 
+import co.phoenixlab.phoenixpac.codec.PacCodecs;
+
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
 import java.nio.channels.Channels;
 import java.nio.channels.ReadableByteChannel;
-import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.zip.Deflater;
-import java.util.zip.DeflaterInputStream;
 
 public class PacFileWriter implements AutoCloseable {
 
-    private static final byte[] EMPTY_RESERVED = new byte[16];
+    /**
+     * Largest asset prepared in memory when writing in parallel. Larger ones are streamed on the calling thread.
+     */
+    static final long MAX_PREPARED_SIZE = 32L * 1024 * 1024;
+    /**
+     * Largest asset whose raw bytes are kept while compressing it, so that it needn't be read again if the compressed
+     * form is rejected
+     */
+    static final int MAX_RETAINED_SIZE = 8 * 1024 * 1024;
+    /**
+     * Largest array the VM reliably allocates
+     */
+    private static final int MAX_ARRAY_SIZE = Integer.MAX_VALUE - 8;
 
     private RandomAccessFile randomAccessFile;
-    private final boolean compressFiles;
+    private CompressionPolicy compressionPolicy;
+    private int parallelism = 1;
+    long maxPreparedSize = MAX_PREPARED_SIZE;
+    private boolean deduplicate;
+    private int alignment = 1;
+    private boolean autoOffsetWidth;
+    private AccessTrace accessTrace;
+
+    /**
+     * State of the file being written between {@link #begin(PacHeader)} and {@link #finish(PacMetadata)}
+     */
+    private PacHeader streamHeader;
+    private boolean streamWide;
+    private PackedIndex.Builder streamIndex;
+    private DedupTable dedupTable;
+    /**
+     * Space before each asset left by alignment, and after the header if its size isn't decided yet
+     */
+    private TrashAllocator streamPadding;
 
     public PacFileWriter(RandomAccessFile randomAccessFile) {
         this(randomAccessFile, false);
@@ -49,7 +92,7 @@ public class PacFileWriter implements AutoCloseable {
 
     public PacFileWriter(RandomAccessFile randomAccessFile, boolean compressFiles) {
         this.randomAccessFile = randomAccessFile;
-        this.compressFiles = compressFiles;
+        this.compressionPolicy = defaultPolicy(compressFiles);
     }
 
     public PacFileWriter(File file) throws IOException {
@@ -58,7 +101,7 @@ public class PacFileWriter implements AutoCloseable {
 
     public PacFileWriter(File file, boolean compressFiles) throws IOException {
         randomAccessFile = new RandomAccessFile(file, "rw");
-        this.compressFiles = compressFiles;
+        this.compressionPolicy = defaultPolicy(compressFiles);
     }
 
     public PacFileWriter(Path path) throws IOException {
@@ -69,130 +112,711 @@ public class PacFileWriter implements AutoCloseable {
         this(path.toFile(), compressFiles);
     }
 
+    /**
+     * The policy used when {@code compressFiles} is passed to the constructor: everything deflated at best compression,
+     * or nothing compressed at all.
+     */
+    static CompressionPolicy defaultPolicy(boolean compressFiles) {
+        return compressFiles ? CompressionPolicy.always(Deflater.BEST_COMPRESSION) : CompressionPolicy.never();
+    }
+
+    /**
+     * Sets how each uncompressed asset is stored, overriding the constructor's {@code compressFiles}.
+     */
+    public void setCompressionPolicy(CompressionPolicy compressionPolicy) {
+        if (compressionPolicy == null) {
+            throw new NullPointerException("compressionPolicy");
+        }
+        this.compressionPolicy = compressionPolicy;
+    }
+
+    /**
+     * Sets how many threads prepare assets for writing. Past 1, assets are read and compressed concurrently while the
+     * calling thread appends them in order, so the output is the same as when writing sequentially. At most two
+     * assets per thread are held in memory waiting to be written. Assets over 32 MB, or whose size is not known up
+     * front, are not held in memory but written by the calling thread the sequential way once the assets before them
+     * are out.
+     */
+    public void setParallelism(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be at least 1");
+        }
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Sets whether assets with identical contents are stored once. Duplicates are detected by their SHA-256 hash and
+     * size, so entries that carry a precomputed hash must carry the right one; entries that ignore their hash are
+     * never deduplicated. A duplicate whose hash is only known once it has been written is written and then rolled
+     * back.
+     */
+    public void setDeduplicate(boolean deduplicate) {
+        this.deduplicate = deduplicate;
+    }
+
+    /**
+     * @return How many bytes deduplication saved in the file being or last written
+     */
+    public long getDeduplicatedBytes() {
+        return dedupTable == null ? 0 : dedupTable.getBytesSaved();
+    }
+
+    /**
+     * @return How many entries share another entry's contents in the file being or last written
+     */
+    public int getDeduplicatedEntries() {
+        return dedupTable == null ? 0 : dedupTable.getEntriesShared();
+    }
+
+    /**
+     * Sets the boundary each asset starts on, which must be a power of two. Aligning assets to the page size lets
+     * them be mapped and handed on without copying. The padding before each asset is listed as trash.
+     */
+    public void setAlignment(int alignment) {
+        LayoutPlanner.checkAlignment(alignment);
+        this.alignment = alignment;
+    }
+
+    /**
+     * Sets whether to ignore {@link PacHeader#FLAG_USE_LONG_OFFSETS} in the header given and use wide offsets only
+     * when the file is too large for narrow ones.
+     */
+    public void setAutoOffsetWidth(boolean autoOffsetWidth) {
+        this.autoOffsetWidth = autoOffsetWidth;
+    }
+
+    /**
+     * Sets the order {@link #writeNew(HandledPacFile)} lays assets out in. Assets in the trace are written in the
+     * order they were first accessed, so that loading them again reads the file front to back, followed by the rest in
+     * the order the PacFile holds them. Null, the default, writes everything in that order. Assets passed to
+     * {@link #append(TypePurposeUniqueId, AssetHandle)} are always written in the order they come.
+     */
+    public void setAccessTrace(AccessTrace accessTrace) {
+        this.accessTrace = accessTrace;
+    }
+
+    /**
+     * Writes a whole PAC file. If every asset's stored size is known up front, which is when none of them is to be
+     * compressed, the layout is planned first so that the header is written once and each section straight into its
+     * place. Otherwise the assets are streamed as with {@link #begin(PacHeader)}.
+     */
     public void writeNew(HandledPacFile<AssetHandle> pacFile) throws IOException {
-        HandledPacFile<AssetHandle> pac = new HandledPacFile<>(pacFile);
+        //  Policies may sample the asset to decide, so each decision taken while planning is kept for streaming
+        Map<TypePurposeUniqueId, CompressionDecision> decisions = new HashMap<>();
+        if (writePlanned(pacFile, decisions)) {
+            return;
+        }
+        begin(pacFile.header);
+        if (parallelism > 1) {
+            writeFilesParallel(pacFile, decisions);
+        } else {
+            for (Map.Entry<TypePurposeUniqueId, AssetHandle> entry : layoutOrder(pacFile)) {
+                append(new IndexEntry(pacFile.getIndex().getEntry(entry.getKey())), entry.getValue(),
+                        decisions.get(entry.getKey()));
+            }
+        }
+        finish(pacFile.getMetadata());
+    }
+
+    /**
+     * Writes the file from a planned layout, unless some asset's stored size is not known beforehand. When
+     * deduplicating, entries whose hash is to be computed on write also rule out planning, since the planned space of
+     * a duplicate could not be given back.
+     *
+     * @param decisions Receives the compression decision taken for each asset looked at
+     * @return False if nothing was written because the layout can't be planned
+     */
+    private boolean writePlanned(HandledPacFile<AssetHandle> pacFile,
+                                 Map<TypePurposeUniqueId, CompressionDecision> decisions) throws IOException {
+        if (streamIndex != null) {
+            throw new IllegalStateException("Already writing a PAC file");
+        }
+        Map<TypePurposeUniqueId, AssetHandle> handles = pacFile.getHandles();
+        List<IndexEntry> entries = new ArrayList<>(handles.size());
+        List<AssetHandle> sources = new ArrayList<>(handles.size());
+        int[] srcCompIds = new int[handles.size()];
+        for (Map.Entry<TypePurposeUniqueId, AssetHandle> entry : layoutOrder(pacFile)) {
+            AssetHandle handle = entry.getValue();
+            IndexEntry indx = new IndexEntry(pacFile.getIndex().getEntry(entry.getKey()));
+            long rawSize = handle.getRawSize();
+            if (rawSize < 0 || rawSize > Integer.MAX_VALUE || (deduplicate && indx.hashOnWrite)) {
+                return false;
+            }
+            CompressionDecision decision = decide(indx.tpuid, handle);
+            decisions.put(indx.tpuid, decision);
+            if (!decision.isStored()) {
+                return false;
+            }
+            indx.diskSize = (int) rawSize;
+            indx.compressionId = handle.getCompressionId();
+            if (indx.memorySize < 0) {
+                indx.memorySize = indx.compressionId == 0 ? indx.diskSize : 0;
+            }
+            srcCompIds[entries.size()] = indx.compressionId;
+            entries.add(indx);
+            sources.add(handle);
+        }
+        PacMetadata metadata = pacFile.getMetadata();
+        long metadataSize = SectionEncoder.metadataSize(metadata);
+        PacHeader header = new PacHeader(pacFile.header);
+        dedupTable = deduplicate ? new DedupTable() : null;
+        LayoutPlanner.Layout layout = LayoutPlanner.plan(entries, srcCompIds,
+                metadataSize, alignment,
+                autoOffsetWidth ? null : header.getFlag(PacHeader.FLAG_USE_LONG_OFFSETS), dedupTable);
+        setWide(header, layout.wide);
+        header.indexSectionOffset = layout.indexOffset;
+        header.metadataSectionOffset = layout.metadataOffset;
+        header.trashSectionOffset = layout.trashOffset;
+
+        randomAccessFile.seek(0);
+        randomAccessFile.setLength(0);
+        writeHeader(header, layout.wide);
+        PackedIndex.Builder index = new PackedIndex.Builder(entries.size());
+        long written = 0;
+        for (int i = 0; i < entries.size(); i++) {
+            IndexEntry indx = entries.get(i);
+            //  Entries placed before this one are written already, so a lower offset means a shared extent
+            if (indx.offset >= written) {
+                int planned = indx.diskSize;
+                randomAccessFile.seek(indx.offset);
+                writeAsset(indx, sources.get(i), CompressionDecision.STORE);
+                if (indx.diskSize != planned) {
+                    throw new IOException(String.format("%s changed size from %d to %d bytes while being written",
+                            indx.tpuid, planned, indx.diskSize));
+                }
+                written = indx.offset + indx.diskSize;
+            }
+            index.add(indx.tpuid.getTypePurposeCombinedId(), indx.tpuid.getUniqueId(), indx.offset,
+                    indx.diskSize, indx.memorySize, indx.compressionId, ByteBuffer.wrap(indx.getSha256Hash()));
+        }
+        //  Hashes computed while writing the assets are only known now. The sections follow each other, so they go
+        //  out in one write.
+        try (SectionEncoder encoder = new SectionEncoder()) {
+            encoder.index(index.build(), layout.wide);
+            if (metadataSize != 0) {
+                encoder.metadata(metadata);
+            }
+            if (!layout.padding.isEmpty()) {
+                encoder.trashIndex(layout.padding, layout.wide);
+            }
+            encoder.writeTo(randomAccessFile.getChannel(), layout.indexOffset);
+        }
+        randomAccessFile.setLength(layout.end);
+        return true;
+    }
+
+    /**
+     * @return The assets of the given file in the order they are to be written
+     */
+    private Collection<Map.Entry<TypePurposeUniqueId, AssetHandle>> layoutOrder(HandledPacFile<AssetHandle> pacFile) {
+        Collection<Map.Entry<TypePurposeUniqueId, AssetHandle>> entries = pacFile.getHandles().entrySet();
+        if (accessTrace == null || accessTrace.size() == 0) {
+            return entries;
+        }
+        List<Map.Entry<TypePurposeUniqueId, AssetHandle>> ordered = new ArrayList<>(entries);
+        //  Stable, so untraced assets keep their order after the traced ones
+        ordered.sort(Map.Entry.comparingByKey(accessTrace.layoutOrder()));
+        return ordered;
+    }
+
+    private static void setWide(PacHeader header, boolean wide) {
+        if (wide) {
+            header.flags |= PacHeader.FLAG_USE_LONG_OFFSETS;
+        } else {
+            header.flags &= ~PacHeader.FLAG_USE_LONG_OFFSETS;
+        }
+    }
+
+    /**
+     * Starts writing a new PAC file with the latest version.
+     *
+     * @see #begin(PacHeader)
+     */
+    public void begin(boolean wideOffsets) throws IOException {
+        PacHeader header = new PacHeader();
+        header.majorVersion = PacFile.MAJOR_VERSION;
+        header.minorVersion = PacFile.MINOR_VERSION;
+        header.flags = wideOffsets ? PacHeader.FLAG_USE_LONG_OFFSETS : 0;
+        begin(header);
+    }
+
+    /**
+     * Starts writing a new PAC file, truncating anything already in the file. Assets are then written out one by one
+     * as they are passed to {@link #append(TypePurposeUniqueId, AssetHandle)}, and the index, metadata and final header
+     * are written by {@link #finish(PacMetadata)}. Only a compact index entry per asset is kept in memory meanwhile.
+     */
+    public void begin(PacHeader header) throws IOException {
+        if (streamIndex != null) {
+            throw new IllegalStateException("Already writing a PAC file");
+        }
+        streamHeader = new PacHeader(header);
         randomAccessFile.seek(0);
         randomAccessFile.setLength(0);
         //  The first time we write the header we don't care about the offsets - set them to 0
-        pac.header.indexSectionOffset = 0L;
-        pac.header.metadataSectionOffset = 0L;
-        pac.header.trashSectionOffset = 0L;
-        boolean wide = pac.header.getFlag(PacHeader.FLAG_USE_LONG_OFFSETS);
-        writeHeader(pac.header, wide);
+        streamHeader.indexSectionOffset = 0L;
+        streamHeader.metadataSectionOffset = 0L;
+        streamHeader.trashSectionOffset = 0L;
+        //  If the offset width is decided at the end, leave room for the larger header
+        streamWide = autoOffsetWidth || streamHeader.getFlag(PacHeader.FLAG_USE_LONG_OFFSETS);
+        writeHeader(streamHeader, streamWide);
+        streamIndex = new PackedIndex.Builder(64);
+        dedupTable = deduplicate ? new DedupTable() : null;
+        streamPadding = new TrashAllocator();
+    }
 
-        //  Write files (and update the index entries)
-        writeFiles(pac);
+    /**
+     * Writes an asset to the end of the file, compressed as the compression policy decides. Its hash is computed
+     * while it is written, the same way as {@link HandlePacBuilder.EntryBuilder#withStreamedSha256Hash()}. If the asset
+     * fails to be read or written, whatever was written of it is truncated away again, so the writer can go on to the
+     * next asset.
+     */
+    public void append(TypePurposeUniqueId tpuid, AssetHandle source) throws IOException {
+        IndexEntry indx = new IndexEntry();
+        indx.tpuid = tpuid;
+        indx.memorySize = source.getMemorySize();
+        indx.hashOnWrite = true;
+        append(indx, source, null);
+    }
 
-        //  Write the index
-        pac.header.indexSectionOffset = writeIndex(pac.index, wide);
+    /**
+     * @param decision How to store the asset, or null to ask the policy
+     */
+    private void append(IndexEntry indx, AssetHandle handle, CompressionDecision decision) throws IOException {
+        checkStreaming();
+        int srcCompId = handle.getCompressionId();
+        if (indx.memorySize < 0 && srcCompId != 0) {
+            //  Not knowable without decompressing. Set now rather than on write, so that duplicates share the same
+            //  way as on the planned and parallel paths.
+            indx.memorySize = 0;
+        }
+        if (dedupTable != null && !indx.hashOnWrite && dedupTable.share(indx, srcCompId)) {
+            addToIndex(indx);
+            return;
+        }
+        long start = padToAlignment();
+        try {
+            writeAsset(indx, handle, decision == null ? decide(indx.tpuid, handle) : decision);
+        } catch (IOException | RuntimeException e) {
+            rollBack(start, e);
+            throw e;
+        }
+        deduplicateWritten(indx, srcCompId);
+        addToIndex(indx);
+    }
+
+    /**
+     * Moves the file pointer up to the next alignment boundary, remembering the gap as trash.
+     *
+     * @return Where the file pointer was, to roll back to if the asset then fails to be written
+     */
+    private long padToAlignment() throws IOException {
+        long position = randomAccessFile.getFilePointer();
+        long aligned = LayoutPlanner.align(position, alignment);
+        if (aligned != position) {
+            streamPadding.free(position, aligned - position);
+            randomAccessFile.seek(aligned);
+        }
+        return position;
+    }
 
-        //  Write metadata
-        pac.header.metadataSectionOffset = writeMetadata(pac.getMetadata());
+    /**
+     * Drops an asset that failed partway, along with the padding before it, so that nothing unindexed is left behind
+     * and the next asset goes where it would have.
+     *
+     * @param start Where the file pointer was before padding for the asset
+     */
+    private void rollBack(long start, Exception cause) {
+        try {
+            long aligned = LayoutPlanner.align(start, alignment);
+            if (aligned != start) {
+                streamPadding.reserve(start, aligned - start);
+            }
+            randomAccessFile.setLength(start);
+            randomAccessFile.seek(start);
+        } catch (IOException | RuntimeException e) {
+            cause.addSuppressed(e);
+        }
+    }
 
-        //  No trash
+    /**
+     * Checks whether an asset that was just written at the end of the file duplicates an earlier one, and if so
+     * truncates it away and points it at the earlier copy.
+     */
+    private void deduplicateWritten(IndexEntry indx, int srcCompId) throws IOException {
+        if (dedupTable == null) {
+            return;
+        }
+        long written = indx.offset;
+        if (dedupTable.share(indx, srcCompId)) {
+            randomAccessFile.setLength(written);
+            randomAccessFile.seek(written);
+        } else {
+            dedupTable.add(indx, srcCompId);
+        }
+    }
+
+    private void addToIndex(IndexEntry indx) {
+        streamIndex.add(indx.tpuid.getTypePurposeCombinedId(), indx.tpuid.getUniqueId(), indx.offset,
+                indx.diskSize, indx.memorySize, indx.compressionId, ByteBuffer.wrap(indx.getSha256Hash()));
+    }
+
+    /**
+     * Writes the index, metadata, trash listing any alignment padding, and final header after the appended assets.
+     *
+     * @param metadata The metadata to write, or null for none
+     */
+    public void finish(PacMetadata metadata) throws IOException {
+        checkStreaming();
+        PackedIndex index = streamIndex.build();
+        streamIndex = null;
+        long indexOffset = randomAccessFile.getFilePointer();
+        long metadataSize = SectionEncoder.metadataSize(metadata);
+        boolean wide = streamWide;
+        if (autoOffsetWidth) {
+            //  A narrow header leaves a gap before the first asset
+            TrashAllocator narrowPadding = new TrashAllocator(streamPadding);
+            narrowPadding.free(LayoutPlanner.headerSize(false),
+                    LayoutPlanner.headerSize(true) - LayoutPlanner.headerSize(false));
+            long narrowEnd = indexOffset + LayoutPlanner.indexSize(index.getNumIndexEntries(), false) +
+                    metadataSize + LayoutPlanner.trashSize(narrowPadding.getNumHoles(), false);
+            wide = LayoutPlanner.chooseWidth(null, narrowEnd);
+            if (!wide) {
+                streamPadding = narrowPadding;
+            }
+            setWide(streamHeader, wide);
+        } else {
+            LayoutPlanner.chooseWidth(wide, indexOffset + LayoutPlanner.indexSize(index.getNumIndexEntries(), wide) +
+                    metadataSize + LayoutPlanner.trashSize(streamPadding.getNumHoles(), wide));
+        }
+        //  Index, metadata and trash, which is the alignment padding if any, go out in one write
+        List<TrashIndexEntry> padding = streamPadding.toTrashEntries();
+        streamPadding = null;
+        try (SectionEncoder encoder = new SectionEncoder()) {
+            streamHeader.indexSectionOffset = indexOffset;
+            encoder.index(index, wide);
+            if (metadataSize != 0) {
+                streamHeader.metadataSectionOffset = indexOffset + encoder.size();
+                encoder.metadata(metadata);
+            }
+            if (!padding.isEmpty()) {
+                streamHeader.trashSectionOffset = indexOffset + encoder.size();
+                encoder.trashIndex(padding, wide);
+            }
+            encoder.writeTo(randomAccessFile.getChannel(), indexOffset);
+        }
 
         //  Rewrite header
         randomAccessFile.seek(0);
-        writeHeader(pac.header, wide);
+        writeHeader(streamHeader, wide);
+    }
+
+    private void checkStreaming() {
+        if (streamIndex == null) {
+            throw new IllegalStateException("begin() must be called first");
+        }
     }
 
+    /**
+     * Writes the header at the current position.
+     */
     private void writeHeader(PacHeader header, boolean wide) throws IOException {
-        randomAccessFile.writeInt(PacHeader.MAGIC_NUMBER);
-        randomAccessFile.writeShort(header.majorVersion);
-        randomAccessFile.writeShort(header.minorVersion);
-        randomAccessFile.write(EMPTY_RESERVED);
-        //  Later on we should smartly detect if we need long offsets or not.
-        //  For now keep what we have.
-        randomAccessFile.writeInt(header.flags);
-        if (wide) {
-            randomAccessFile.writeLong(header.indexSectionOffset);
-            randomAccessFile.writeLong(header.metadataSectionOffset);
-            randomAccessFile.writeLong(header.trashSectionOffset);
-        } else {
-            randomAccessFile.writeInt((int) (header.indexSectionOffset & 0xFFFFFFFFL));
-            randomAccessFile.writeInt((int) (header.metadataSectionOffset & 0xFFFFFFFFL));
-            randomAccessFile.writeInt((int) (header.trashSectionOffset & 0xFFFFFFFFL));
+        try (SectionEncoder encoder = new SectionEncoder()) {
+            encoder.header(header, wide).writeTo(randomAccessFile.getChannel(), randomAccessFile.getFilePointer());
         }
     }
 
-    private void writeFiles(HandledPacFile<AssetHandle> pacFile) throws IOException {
-        for (Map.Entry<TypePurposeUniqueId, AssetHandle> entry : pacFile.getHandles().entrySet()) {
-            IndexEntry indx = pacFile.getIndex().getEntry(entry.getKey());
-            AssetHandle handle = entry.getValue();
-            indx.offset = randomAccessFile.getFilePointer();
-            int srcCompId = handle.getCompressionId();
-            if (srcCompId == 0 && compressFiles) {
-                //  Compress the file
-                indx.compressionId = PacFile.COMPRESSION_DEFLATE;
-                try (InputStream rawStream = handle.getRawStream()) {
-                    DeflaterInputStream srcIn = new DeflaterInputStream(rawStream,
-                        new Deflater(Deflater.BEST_COMPRESSION));
-                    ReadableByteChannel srcCh = Channels.newChannel(srcIn);
-                    long written = 0;
-                    long writ;
-                    long pos = randomAccessFile.getFilePointer();
-                    while ((writ = randomAccessFile.getChannel().transferFrom(srcCh, pos + written, 8192)) != 0) {
-                        written += writ;
-                    }
-                    int diskSize = (int) (Math.min(written, Integer.MAX_VALUE));
-                    randomAccessFile.skipBytes(Math.max((int) written, 0));
-                    indx.diskSize = diskSize;
+    /**
+     * Writes an asset at the current position and fills in its offset, disk size and compression, plus its memory size
+     * if negative and its hash if it is to be computed on write.
+     */
+    private void writeAsset(IndexEntry indx, AssetHandle handle, CompressionDecision decision) throws IOException {
+        indx.offset = randomAccessFile.getFilePointer();
+        int srcCompId = handle.getCompressionId();
+        MessageDigest digest = indx.hashOnWrite ? IndexEntry.newSha256Digest() : null;
+        boolean compressed = false;
+        byte[] retained = null;
+        if (!decision.isStored()) {
+            //  Compress the file
+            CountingInputStream counter = new CountingInputStream(digesting(handle.getRawStream(), digest),
+                    MAX_RETAINED_SIZE, handle.getRawSize());
+            try (InputStream srcIn = compressing(decision, counter)) {
+                indx.diskSize = transfer(srcIn);
+            }
+            long rawSize = counter.getCount();
+            compressed = decision.accepts(rawSize, indx.diskSize);
+            if (compressed) {
+                indx.compressionId = decision.getCompressionId();
+                if (indx.memorySize < 0) {
+                    indx.memorySize = (int) Math.min(rawSize, Integer.MAX_VALUE);
                 }
             } else {
-                //  Carry compression over
-                indx.compressionId = srcCompId;
-                randomAccessFile.write(handle.getRawBytes());
-                indx.diskSize = (int)(randomAccessFile.getFilePointer() - indx.offset);
+                //  Not worth it, write it raw in its place, from the copy kept on the way in if there is one
+                randomAccessFile.setLength(indx.offset);
+                randomAccessFile.seek(indx.offset);
+                retained = counter.getRetained();
+                if (retained != null) {
+                    randomAccessFile.write(retained, 0, (int) rawSize);
+                    indx.diskSize = (int) rawSize;
+                } else if (digest != null) {
+                    digest.reset();
+                }
+            }
+        }
+        if (!compressed) {
+            //  Carry compression over
+            indx.compressionId = srcCompId;
+            if (retained == null) {
+                try (InputStream srcIn = digesting(handle.getRawStream(), digest)) {
+                    indx.diskSize = transfer(srcIn);
+                }
+            }
+            if (indx.memorySize < 0) {
+                //  Not knowable without decompressing, if the source was compressed
+                indx.memorySize = srcCompId == 0 ? indx.diskSize : 0;
+            }
+        }
+        if (digest != null) {
+            indx.sha256Hash = digest.digest();
+            indx.hashOnWrite = false;
+        }
+    }
+
+    /**
+     * Copies the stream to the end of the file through the channel, leaving the file pointer after it.
+     *
+     * @return The number of bytes written, capped at {@code Integer.MAX_VALUE}
+     */
+    private int transfer(InputStream srcIn) throws IOException {
+        ReadableByteChannel srcCh = Channels.newChannel(srcIn);
+        long written = 0;
+        long writ;
+        long pos = randomAccessFile.getFilePointer();
+        if (pos > randomAccessFile.length()) {
+            //  Nothing is transferred past the end of the file, so fill the gap first
+            randomAccessFile.setLength(pos);
+        }
+        while ((writ = randomAccessFile.getChannel().transferFrom(srcCh, pos + written, 8192)) != 0) {
+            written += writ;
+        }
+        randomAccessFile.seek(pos + written);
+        return (int) (Math.min(written, Integer.MAX_VALUE));
+    }
+
+    /**
+     * Asks the policy how to store the asset, unless it is compressed already.
+     */
+    private CompressionDecision decide(TypePurposeUniqueId tpuid, AssetHandle handle) throws IOException {
+        return decide(compressionPolicy, tpuid, handle);
+    }
+
+    private static CompressionDecision decide(CompressionPolicy policy, TypePurposeUniqueId tpuid,
+                                              AssetHandle handle) throws IOException {
+        if (handle.getCompressionId() != 0) {
+            return CompressionDecision.STORE;
+        }
+        CompressionDecision decision = policy.decide(tpuid, handle);
+        return decision == null ? CompressionDecision.STORE : decision;
+    }
+
+    private static InputStream compressing(CompressionDecision decision, InputStream in) throws IOException {
+        try {
+            return PacCodecs.get(decision.getCompressionId()).newCompressingStream(in, decision.getLevel());
+        } catch (IOException | RuntimeException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    private static InputStream digesting(InputStream in, MessageDigest digest) {
+        return digest == null ? in : new DigestInputStream(in, digest);
+    }
+
+    private void writeFilesParallel(HandledPacFile<AssetHandle> pacFile,
+                                    Map<TypePurposeUniqueId, CompressionDecision> decisions) throws IOException {
+        ExecutorService executor = Executors.newFixedThreadPool(parallelism, r -> {
+            Thread thread = new Thread(r, "PacFileWriter-worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+        //  Prepared assets waiting to be appended, in write order. Bounding it keeps workers from running ahead.
+        ArrayDeque<PendingAsset> window = new ArrayDeque<>();
+        int maxInFlight = parallelism * 2;
+        try {
+            for (Map.Entry<TypePurposeUniqueId, AssetHandle> entry : layoutOrder(pacFile)) {
+                if (window.size() >= maxInFlight) {
+                    append(window.poll());
+                }
+                IndexEntry indx = new IndexEntry(pacFile.getIndex().getEntry(entry.getKey()));
+                AssetHandle handle = entry.getValue();
+                CompressionDecision decision = decisions.get(entry.getKey());
+                long rawSize = handle.getRawSize();
+                if (rawSize < 0 || rawSize > maxPreparedSize) {
+                    //  Too large, or possibly so, to hold in memory
+                    while (!window.isEmpty()) {
+                        append(window.poll());
+                    }
+                    append(indx, handle, decision);
+                    continue;
+                }
+                CompressionPolicy policy = compressionPolicy;
+                window.add(new PendingAsset(indx, handle.getCompressionId(),
+                        executor.submit(() -> prepare(indx.tpuid, handle, policy, decision, indx.hashOnWrite))));
+            }
+            while (!window.isEmpty()) {
+                append(window.poll());
             }
+        } finally {
+            executor.shutdownNow();
         }
     }
 
-    private long writeIndex(Index index, boolean wide) throws IOException {
-        long startPos = randomAccessFile.getFilePointer();
-        randomAccessFile.writeInt(index.numIndexEntries);
-        for (IndexEntry entry : index.entries.values()) {
-            randomAccessFile.writeInt(entry.tpuid.getTypePurposeCombinedId());
-            randomAccessFile.writeInt(entry.tpuid.getUniqueId());
-            if (wide) {
-                randomAccessFile.writeLong(entry.offset);
+    /**
+     * Reads an asset and compresses it if needed, the same way
+     * {@link #writeAsset(IndexEntry, AssetHandle, CompressionDecision)} does, but into memory.
+     *
+     * @param decision How to store the asset, or null to ask the policy
+     */
+    static PreparedAsset prepare(TypePurposeUniqueId tpuid, AssetHandle handle, CompressionPolicy policy,
+                                 CompressionDecision decision, boolean hash) throws IOException {
+        int srcCompId = handle.getCompressionId();
+        MessageDigest digest = hash ? IndexEntry.newSha256Digest() : null;
+        if (decision == null) {
+            decision = decide(policy, tpuid, handle);
+        }
+        PreparedAsset prepared = null;
+        if (!decision.isStored()) {
+            CountingInputStream counter = new CountingInputStream(digesting(handle.getRawStream(), digest),
+                    MAX_RETAINED_SIZE, handle.getRawSize());
+            try (InputStream srcIn = compressing(decision, counter)) {
+                prepared = readFully(srcIn, decision.getCompressionId(), 0);
+            }
+            long rawSize = counter.getCount();
+            byte[] retained = counter.getRetained();
+            if (decision.accepts(rawSize, prepared.length)) {
+                prepared.memorySize = (int) Math.min(rawSize, Integer.MAX_VALUE);
+            } else if (retained != null) {
+                //  Not worth it, use the copy kept on the way in
+                prepared = new PreparedAsset(srcCompId, retained, (int) rawSize);
+                prepared.memorySize = prepared.length;
             } else {
-                randomAccessFile.writeInt((int) entry.offset);
+                //  Not worth it and too large to have been kept, read it again raw
+                prepared = null;
+                if (digest != null) {
+                    digest.reset();
+                }
+            }
+        }
+        if (prepared == null) {
+            try (InputStream srcIn = digesting(handle.getRawStream(), digest)) {
+                //  One spare byte so that an exact size hint doesn't cause a needless grow at the end
+                prepared = readFully(srcIn, srcCompId, handle.getRawSize() + 1);
+            }
+            prepared.memorySize = srcCompId == 0 ? prepared.length : handle.getMemorySize();
+        }
+        if (digest != null) {
+            prepared.sha256Hash = digest.digest();
+        }
+        return prepared;
+    }
+
+    /**
+     * @param sizeHint Expected size of the stream, or 0 or less if not known
+     */
+    private static PreparedAsset readFully(InputStream srcIn, int compressionId, long sizeHint) throws IOException {
+        byte[] data = new byte[(int) Math.min(Math.max(sizeHint, 8192), MAX_ARRAY_SIZE)];
+        int length = 0;
+        int read;
+        while ((read = srcIn.read(data, length, data.length - length)) != -1) {
+            length += read;
+            if (length == data.length) {
+                if (length == MAX_ARRAY_SIZE) {
+                    if (srcIn.read() == -1) {
+                        break;
+                    }
+                    throw new IOException("Asset is too large to prepare in memory");
+                }
+                data = Arrays.copyOf(data, (int) Math.min(data.length * 2L, MAX_ARRAY_SIZE));
             }
-            randomAccessFile.writeInt(entry.diskSize);
-            randomAccessFile.writeInt(entry.memorySize);
-            randomAccessFile.writeInt(0xFF000000 & (entry.compressionId << 24));
-            randomAccessFile.write(entry.sha256Hash);
         }
-        randomAccessFile.writeInt(Index.GUARD_BYTES);
-        return startPos;
+        return new PreparedAsset(compressionId, data, length);
     }
 
-    private long writeMetadata(PacMetadata metadata) throws IOException {
-        if (metadata == null || metadata.metadata.isEmpty()) {
-            return 0;
+    private void append(PendingAsset pending) throws IOException {
+        PreparedAsset prepared;
+        try {
+            prepared = pending.future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while writing assets", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Unable to prepare asset " + pending.indexEntry.tpuid, e.getCause());
+        }
+        IndexEntry indx = pending.indexEntry;
+        if (prepared.sha256Hash != null) {
+            indx.sha256Hash = prepared.sha256Hash;
+            indx.hashOnWrite = false;
         }
-        metadata.calculateSize();
-        long startPos = randomAccessFile.getFilePointer();
-        randomAccessFile.writeInt(metadata.size);
-        randomAccessFile.writeInt(metadata.numMetadataBlocks);
-        for (MetadataBlock block : metadata.metadata.values()) {
-            randomAccessFile.writeInt(block.tpuid.getTypePurposeCombinedId());
-            randomAccessFile.writeInt(block.tpuid.getUniqueId());
-            randomAccessFile.writeShort(block.numberOfEntries);
-            randomAccessFile.writeShort(block.size);
-            for (MetadataEntry entry : block.entries.values()) {
-                randomAccessFile.writeByte(entry.keyLength);
-                randomAccessFile.writeByte(entry.valLength);
-                randomAccessFile.write(entry.key.getBytes(StandardCharsets.UTF_8));
-                randomAccessFile.write(entry.val.getBytes(StandardCharsets.UTF_8));
+        if (indx.memorySize < 0) {
+            indx.memorySize = Math.max(prepared.memorySize, 0);
+        }
+        //  The hash is known before writing here, so duplicates never hit the disk
+        if (dedupTable == null || !dedupTable.share(indx, pending.sourceCompressionId)) {
+            long start = padToAlignment();
+            indx.offset = randomAccessFile.getFilePointer();
+            indx.compressionId = prepared.compressionId;
+            try {
+                randomAccessFile.write(prepared.data, 0, prepared.length);
+            } catch (IOException e) {
+                rollBack(start, e);
+                throw e;
+            }
+            indx.diskSize = prepared.length;
+            if (dedupTable != null) {
+                dedupTable.add(indx, pending.sourceCompressionId);
             }
         }
-        randomAccessFile.writeInt(PacMetadata.GUARD_BYTES);
-        return startPos;
+        addToIndex(indx);
     }
 
     @Override
     public void close() throws IOException {
         randomAccessFile.close();
     }
+
+    private static class PendingAsset {
+
+        final IndexEntry indexEntry;
+        final int sourceCompressionId;
+        final Future<PreparedAsset> future;
+
+        PendingAsset(IndexEntry indexEntry, int sourceCompressionId, Future<PreparedAsset> future) {
+            this.indexEntry = indexEntry;
+            this.sourceCompressionId = sourceCompressionId;
+            this.future = future;
+        }
+    }
+
+    /**
+     * An asset read into memory and compressed, ready to be written out
+     */
+    static class PreparedAsset {
+
+        final int compressionId;
+        final byte[] data;
+        final int length;
+        /**
+         * Size of the asset uncompressed, or -1 if it was carried over compressed and the source didn't know
+         */
+        int memorySize;
+        byte[] sha256Hash;
+
+        PreparedAsset(int compressionId, byte[] data, int length) {
+            this.compressionId = compressionId;
+            this.data = data;
+            this.length = length;
+        }
+    }
 }
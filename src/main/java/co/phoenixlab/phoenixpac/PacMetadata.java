@@ -68,4 +68,15 @@ public class PacMetadata {
     public LinkedHashMap<TypePurposeUniqueId, MetadataBlock> getMetadata() {
         return metadata;
     }
+
+    /**
+     * Returns the block for the given TPUID, adding an empty one if there is none yet.
+     */
+    public MetadataBlock getOrCreateBlock(TypePurposeUniqueId tpuid) {
+        return metadata.computeIfAbsent(tpuid, t -> {
+            MetadataBlock block = new MetadataBlock();
+            block.tpuid = t;
+            return block;
+        });
+    }
 }
@@ -0,0 +1,250 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Vincent Zhang
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package co.phoenixlab.phoenixpac;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Stacks several archives, such as a base archive plus patches and DLC, into one view. Each archive is mounted with a
+ * precedence, and an asset is taken from the mounted archive with the highest precedence that has it.
+ * <p>
+ * A layer can also delete an asset of the layers below it with a tombstone: a metadata block for the asset's TPUID
+ * with a {@link #TOMBSTONE_KEY} entry, and no index entry for it in the same archive.
+ * <p>
+ * The merged TPUID to (archive, entry) table is built as layers are mounted, so a lookup is a single hash lookup
+ * however many layers there are, and a miss returns null instead of throwing. Mounting or unmounting a layer only
+ * revisits the TPUIDs that layer provides. Lookups need no locking; mounting and unmounting are serialized, and
+ * a lookup that races with one sees either the old or the new resolution of each TPUID.
+ */
+public class PacOverlay {
+
+    public static final String TOMBSTONE_KEY = "tombstone";
+
+    /**
+     * Mounted layers, highest precedence first. Guarded by this.
+     */
+    private final List<Layer> layers;
+    private final ConcurrentHashMap<TypePurposeUniqueId, Resolution> resolved;
+
+    public PacOverlay() {
+        layers = new ArrayList<>();
+        resolved = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Mounts an archive above every layer with a lower precedence.
+     *
+     * @throws IllegalArgumentException If the archive is already mounted or another layer has the same precedence
+     */
+    public synchronized void mount(PacFile pacFile, int precedence) {
+        int pos = 0;
+        for (Layer layer : layers) {
+            if (layer.pacFile == pacFile) {
+                throw new IllegalArgumentException("PacFile is already mounted");
+            }
+            if (layer.precedence == precedence) {
+                throw new IllegalArgumentException("Another layer already has precedence " + precedence);
+            }
+            if (layer.precedence > precedence) {
+                ++pos;
+            }
+        }
+        Layer layer = new Layer(pacFile, precedence);
+        layers.add(pos, layer);
+        for (Iterator<IndexEntry> iterator = pacFile.getIndex().stream().iterator(); iterator.hasNext(); ) {
+            IndexEntry entry = iterator.next();
+            overlay(entry.tpuid, new Resolution(layer, entry));
+        }
+        for (TypePurposeUniqueId tpuid : layer.tombstones) {
+            overlay(tpuid, new Resolution(layer, null));
+        }
+    }
+
+    private void overlay(TypePurposeUniqueId tpuid, Resolution resolution) {
+        Resolution current = resolved.get(tpuid);
+        if (current == null || current.layer.precedence < resolution.layer.precedence) {
+            resolved.put(tpuid, resolution);
+        }
+    }
+
+    /**
+     * Unmounts an archive, uncovering whatever it overrode or deleted in the layers below. The archive is not closed.
+     *
+     * @return Whether the archive was mounted
+     */
+    public synchronized boolean unmount(PacFile pacFile) {
+        Layer removed = null;
+        for (Iterator<Layer> iterator = layers.iterator(); iterator.hasNext(); ) {
+            Layer layer = iterator.next();
+            if (layer.pacFile == pacFile) {
+                removed = layer;
+                iterator.remove();
+                break;
+            }
+        }
+        if (removed == null) {
+            return false;
+        }
+        for (Iterator<IndexEntry> iterator = pacFile.getIndex().stream().iterator(); iterator.hasNext(); ) {
+            uncover(iterator.next().tpuid, removed);
+        }
+        for (TypePurposeUniqueId tpuid : removed.tombstones) {
+            uncover(tpuid, removed);
+        }
+        return true;
+    }
+
+    private void uncover(TypePurposeUniqueId tpuid, Layer removed) {
+        Resolution current = resolved.get(tpuid);
+        if (current == null || current.layer != removed) {
+            return;
+        }
+        //  Only the TPUIDs the removed layer won need to be looked up again in the layers below
+        for (Layer layer : layers) {
+            IndexEntry entry = layer.pacFile.getIndex().getEntry(tpuid);
+            if (entry != null) {
+                resolved.put(tpuid, new Resolution(layer, entry));
+                return;
+            }
+            if (layer.tombstones.contains(tpuid)) {
+                resolved.put(tpuid, new Resolution(layer, null));
+                return;
+            }
+        }
+        resolved.remove(tpuid);
+    }
+
+    /**
+     * @return The mounted archives, highest precedence first
+     */
+    public synchronized List<PacFile> getLayers() {
+        List<PacFile> ret = new ArrayList<>(layers.size());
+        for (Layer layer : layers) {
+            ret.add(layer.pacFile);
+        }
+        return ret;
+    }
+
+    /**
+     * @return Where the asset comes from, or null if no layer has it or it was deleted
+     */
+    public Resolution resolve(TypePurposeUniqueId tpuid) {
+        Resolution resolution = resolved.get(tpuid);
+        return resolution == null || resolution.entry == null ? null : resolution;
+    }
+
+    public boolean contains(TypePurposeUniqueId tpuid) {
+        return resolve(tpuid) != null;
+    }
+
+    /**
+     * @return A handle to the asset, or null if no layer has it or it was deleted
+     */
+    public AssetHandle findHandle(TypePurposeUniqueId tpuid) throws IOException {
+        Resolution resolution = resolve(tpuid);
+        return resolution == null ? null : resolution.getPacFile().getHandle(tpuid);
+    }
+
+    /**
+     * Like {@link #findHandle(TypePurposeUniqueId)}, but throws if the asset is missing, as {@link PacFile} does.
+     */
+    public AssetHandle getHandle(TypePurposeUniqueId tpuid) throws IOException {
+        AssetHandle handle = findHandle(tpuid);
+        if (handle == null) {
+            throw new FileNotFoundException(tpuid.toString());
+        }
+        return handle;
+    }
+
+    /**
+     * @return The TPUIDs of every asset visible through the overlay
+     */
+    public Set<TypePurposeUniqueId> getTPUIDs() {
+        Set<TypePurposeUniqueId> ret = new HashSet<>();
+        for (Map.Entry<TypePurposeUniqueId, Resolution> entry : resolved.entrySet()) {
+            if (entry.getValue().entry != null) {
+                ret.add(entry.getKey());
+            }
+        }
+        return ret;
+    }
+
+    public static class Resolution {
+
+        private final Layer layer;
+        /**
+         * Null for a tombstone
+         */
+        private final IndexEntry entry;
+
+        private Resolution(Layer layer, IndexEntry entry) {
+            this.layer = layer;
+            this.entry = entry;
+        }
+
+        public PacFile getPacFile() {
+            return layer.pacFile;
+        }
+
+        public int getPrecedence() {
+            return layer.precedence;
+        }
+
+        public IndexEntry getEntry() {
+            return entry;
+        }
+    }
+
+    private static class Layer {
+
+        final PacFile pacFile;
+        final int precedence;
+        final Set<TypePurposeUniqueId> tombstones;
+
+        Layer(PacFile pacFile, int precedence) {
+            this.pacFile = pacFile;
+            this.precedence = precedence;
+            Set<TypePurposeUniqueId> deleted = new HashSet<>();
+            PacMetadata metadata = pacFile.getMetadata();
+            if (metadata != null) {
+                for (MetadataBlock block : metadata.metadata.values()) {
+                    if (block.entries.containsKey(TOMBSTONE_KEY) && pacFile.getIndex().getEntry(block.tpuid) == null) {
+                        deleted.add(block.tpuid);
+                    }
+                }
+            }
+            this.tombstones = deleted.isEmpty() ? Collections.emptySet() : deleted;
+        }
+    }
+}
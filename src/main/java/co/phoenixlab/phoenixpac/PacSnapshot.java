@@ -0,0 +1,169 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Vincent Zhang
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package co.phoenixlab.phoenixpac;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.stream.Stream;
+
+/**
+ * An immutable, read-only view of an archive as of the moment it was read. All fields are final and nothing reachable
+ * from a snapshot can be changed, so once published it can be shared by any number of threads, which resolve and read
+ * assets without any synchronization.
+ * <p>
+ * A snapshot owns the PacFile it was created from, which must not be used directly afterwards. To follow an archive
+ * that changes, read a new snapshot and swap it in through a {@link PacSnapshotHolder}.
+ *
+ * @see PacFileReader#readSnapshot()
+ */
+public final class PacSnapshot implements AutoCloseable {
+
+    private final PacFile pacFile;
+    private final PacHeader header;
+    private final PackedIndex index;
+    private final Map<TypePurposeUniqueId, Map<String, MetadataEntry>> metadata;
+
+    private PacSnapshot(PacFile pacFile) {
+        this.pacFile = pacFile;
+        this.header = new PacHeader(pacFile.header);
+        //  The packed index is immutable and hands out a fresh view of an entry on every lookup
+        if (!(pacFile.index instanceof PackedIndex)) {
+            pacFile.index = new PackedIndex(pacFile.index);
+        }
+        this.index = (PackedIndex) pacFile.index;
+        Map<TypePurposeUniqueId, Map<String, MetadataEntry>> blocks = new HashMap<>();
+        if (pacFile.metadata != null) {
+            for (MetadataBlock block : pacFile.metadata.metadata.values()) {
+                LinkedHashMap<String, MetadataEntry> entries = new LinkedHashMap<>();
+                for (MetadataEntry entry : block.entries.values()) {
+                    entries.put(entry.key, new MetadataEntry(entry));
+                }
+                blocks.put(block.tpuid, Collections.unmodifiableMap(entries));
+            }
+        }
+        this.metadata = Collections.unmodifiableMap(blocks);
+    }
+
+    /**
+     * Takes over a PacFile and freezes its current contents. Handles are read through the PacFile, which must be safe
+     * for concurrent reads, as {@link FilesystemPacFile} and {@link MappedPacFile} are.
+     */
+    public static PacSnapshot of(PacFile pacFile) {
+        return new PacSnapshot(pacFile);
+    }
+
+    /**
+     * @return A copy of the header
+     */
+    public PacHeader getHeader() {
+        return new PacHeader(header);
+    }
+
+    public int getNumEntries() {
+        return index.getNumIndexEntries();
+    }
+
+    public boolean contains(TypePurposeUniqueId tpuid) {
+        return index.find(tpuid) >= 0;
+    }
+
+    /**
+     * @return A copy of the entry, or null if there is none
+     */
+    public IndexEntry getEntry(TypePurposeUniqueId tpuid) {
+        return index.getEntry(tpuid);
+    }
+
+    /**
+     * @return Copies of all entries in TPUID order
+     */
+    public Stream<IndexEntry> entries() {
+        return index.stream();
+    }
+
+    /**
+     * @see Index#range(TypePurposeUniqueId, TypePurposeUniqueId)
+     */
+    public Stream<IndexEntry> range(TypePurposeUniqueId start, TypePurposeUniqueId end) {
+        return index.range(start, end);
+    }
+
+    /**
+     * @see Index#matching(TypePurposeUniqueId, TypePurposeUniqueId)
+     */
+    public Stream<IndexEntry> matching(TypePurposeUniqueId value, TypePurposeUniqueId mask) {
+        return index.matching(value, mask);
+    }
+
+    /**
+     * @return An unmodifiable view of the asset's metadata, empty if it has none
+     */
+    public Map<String, MetadataEntry> getMetadata(TypePurposeUniqueId tpuid) {
+        Map<String, MetadataEntry> block = metadata.get(tpuid);
+        return block == null ? Collections.emptyMap() : block;
+    }
+
+    /**
+     * @return An unmodifiable view of all metadata blocks by TPUID
+     */
+    public Map<TypePurposeUniqueId, Map<String, MetadataEntry>> getMetadata() {
+        return metadata;
+    }
+
+    public AssetHandle getHandle(TypePurposeUniqueId tpuid) throws IOException {
+        return pacFile.getHandle(tpuid);
+    }
+
+    /**
+     * @see PacFile#readAll(Collection, int)
+     */
+    public Map<TypePurposeUniqueId, ByteBuffer> readAll(Collection<TypePurposeUniqueId> tpuids, int gapThreshold)
+            throws IOException {
+        return pacFile.readAll(tpuids, gapThreshold);
+    }
+
+    public CompletableFuture<ByteBuffer> readAsync(TypePurposeUniqueId tpuid) {
+        return pacFile.readAsync(tpuid);
+    }
+
+    public CompletableFuture<ByteBuffer> readAsync(TypePurposeUniqueId tpuid, Executor executor) {
+        return pacFile.readAsync(tpuid, executor);
+    }
+
+    /**
+     * Closes the underlying PacFile. Only call this once no thread is reading from the snapshot any more.
+     */
+    @Override
+    public void close() throws IOException {
+        pacFile.close();
+    }
+}
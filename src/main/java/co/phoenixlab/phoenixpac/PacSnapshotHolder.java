@@ -0,0 +1,62 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Vincent Zhang
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package co.phoenixlab.phoenixpac;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Holds the current {@link PacSnapshot} of an archive. Readers fetch the snapshot once per operation with
+ * {@link #get()} and use it without locking; when the archive changes a new snapshot is swapped in atomically, and
+ * readers still holding the old one keep a consistent view of the old version.
+ */
+public class PacSnapshotHolder {
+
+    private final AtomicReference<PacSnapshot> current;
+
+    public PacSnapshotHolder(PacSnapshot snapshot) {
+        this.current = new AtomicReference<>(snapshot);
+    }
+
+    public PacSnapshot get() {
+        return current.get();
+    }
+
+    /**
+     * Replaces the current snapshot.
+     *
+     * @return The previous snapshot, which the caller closes once nothing reads from it any more
+     */
+    public PacSnapshot swap(PacSnapshot snapshot) {
+        return current.getAndSet(snapshot);
+    }
+
+    /**
+     * Replaces the snapshot only if it is still {@code expected}, so that concurrent refreshes do not overwrite a
+     * newer snapshot with an older one.
+     */
+    public boolean compareAndSwap(PacSnapshot expected, PacSnapshot snapshot) {
+        return current.compareAndSet(expected, snapshot);
+    }
+}
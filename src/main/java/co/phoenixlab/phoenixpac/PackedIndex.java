@@ -0,0 +1,404 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Vincent Zhang
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package co.phoenixlab.phoenixpac;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * An immutable Index that keeps its entries in primitive columns sorted by TPUID instead of one object graph per
+ * entry, at under 60 bytes of heap per entry. Entries are found by binary search in the same order as
+ * {@link TypePurposeUniqueId#compareTo(TypePurposeUniqueId)}, and handed out as lightweight IndexEntry views.
+ * <p>
+ * {@link #getEntries()} builds a new map on every call and is only meant for compatibility with code that walks the
+ * whole index; changes made to that map are not reflected here.
+ */
+public class PackedIndex extends Index {
+
+    private final int size;
+    /**
+     * Combined type-purpose and unique IDs with the sign bit flipped, so that signed ordering of the keys matches the
+     * unsigned ordering of TPUIDs
+     */
+    private final long[] keys;
+    private final long[] offsets;
+    private final int[] diskSizes;
+    private final int[] memorySizes;
+    private final byte[] compressionIds;
+    private final byte[] hashes;
+
+    public PackedIndex(Index index) {
+        this(copyOf(index));
+    }
+
+    private PackedIndex(Builder builder) {
+        super();
+        builder.sort();
+        this.size = builder.count;
+        this.keys = builder.keys;
+        this.offsets = builder.offsets;
+        this.diskSizes = builder.diskSizes;
+        this.memorySizes = builder.memorySizes;
+        this.compressionIds = builder.compressionIds;
+        this.hashes = builder.hashes;
+        this.numIndexEntries = size;
+    }
+
+    private static Builder copyOf(Index index) {
+        LinkedHashMap<TypePurposeUniqueId, IndexEntry> entries = index.getEntries();
+        Builder builder = new Builder(entries.size());
+        for (IndexEntry entry : entries.values()) {
+            builder.add(entry.tpuid.getTypePurposeCombinedId(), entry.tpuid.getUniqueId(),
+                    entry.offset, entry.diskSize, entry.memorySize, entry.compressionId,
+                    ByteBuffer.wrap(entry.getSha256Hash()));
+        }
+        return builder;
+    }
+
+    @Override
+    public int getNumIndexEntries() {
+        return size;
+    }
+
+    @Override
+    public LinkedHashMap<TypePurposeUniqueId, IndexEntry> getEntries() {
+        LinkedHashMap<TypePurposeUniqueId, IndexEntry> ret = new LinkedHashMap<>(size);
+        for (int i = 0; i < size; i++) {
+            IndexEntry entry = view(i);
+            ret.put(entry.tpuid, entry);
+        }
+        return ret;
+    }
+
+    @Override
+    public IndexEntry getEntry(TypePurposeUniqueId tpuid) {
+        int slot = find(tpuid);
+        return slot < 0 ? null : view(slot);
+    }
+
+    @Override
+    public Stream<IndexEntry> stream() {
+        return slots(0, size);
+    }
+
+    @Override
+    public Stream<IndexEntry> range(TypePurposeUniqueId start, TypePurposeUniqueId end) {
+        checkRange(start, end);
+        return slots(start.getTypePurposeCombinedId(), start.getUniqueId(),
+                end.getTypePurposeCombinedId(), end.getUniqueId());
+    }
+
+    /**
+     * Narrows the search down to the range of keys that share the mask's leading run of set bits, then filters that
+     * range. Type and type-purpose masks are all leading bits, so those take O(log n + k); masks that only constrain
+     * low bits degrade towards a full scan.
+     */
+    @Override
+    public Stream<IndexEntry> matching(TypePurposeUniqueId value, TypePurposeUniqueId mask) {
+        long maskBits = ((long) mask.getTypePurposeCombinedId() << 32) | Integer.toUnsignedLong(mask.getUniqueId());
+        long valueBits = ((long) value.getTypePurposeCombinedId() << 32) | Integer.toUnsignedLong(value.getUniqueId());
+        int prefixLength = Long.numberOfLeadingZeros(~maskBits);
+        long prefixMask = prefixLength == 0 ? 0 : -1L << (64 - prefixLength);
+        long low = valueBits & prefixMask;
+        long high = low | ~prefixMask;
+        Stream<IndexEntry> candidates = slots((int) (low >>> 32), (int) low, (int) (high >>> 32), (int) high);
+        if (prefixMask == maskBits) {
+            return candidates;
+        }
+        long masked = valueBits & maskBits;
+        return candidates.filter(e -> ((keys[((View) e).slot] ^ Long.MIN_VALUE) & maskBits) == masked);
+    }
+
+    private Stream<IndexEntry> slots(int startTypePurpose, int startUnique, int endTypePurpose, int endUnique) {
+        int from = Arrays.binarySearch(keys, 0, size, key(startTypePurpose, startUnique));
+        if (from < 0) {
+            from = -from - 1;
+        }
+        int to = Arrays.binarySearch(keys, 0, size, key(endTypePurpose, endUnique));
+        to = to < 0 ? -to - 1 : to + 1;
+        return slots(from, to);
+    }
+
+    private Stream<IndexEntry> slots(int from, int to) {
+        return StreamSupport.stream(new SlotSpliterator(from, to), false);
+    }
+
+    /**
+     * @return The slot of the given TPUID, or {@code -(insertion point) - 1} if it is not in the index
+     */
+    int find(TypePurposeUniqueId tpuid) {
+        return Arrays.binarySearch(keys, 0, size, key(tpuid.getTypePurposeCombinedId(), tpuid.getUniqueId()));
+    }
+
+    IndexEntry view(int slot) {
+        long key = keys[slot] ^ Long.MIN_VALUE;
+        return new View(new TypePurposeUniqueId((int) (key >>> 32), (int) key), slot);
+    }
+
+    @Override
+    public void syncCount() {
+        //  Always in sync
+    }
+
+    static long key(int typePurposeId, int uniqueId) {
+        return (((long) typePurposeId << 32) | Integer.toUnsignedLong(uniqueId)) ^ Long.MIN_VALUE;
+    }
+
+    private class View extends IndexEntry {
+
+        private final int slot;
+
+        View(TypePurposeUniqueId tpuid, int slot) {
+            super(tpuid, offsets[slot], diskSizes[slot], memorySizes[slot], compressionIds[slot] & 0xFF);
+            this.slot = slot;
+        }
+
+        @Override
+        public byte[] getSha256Hash() {
+            if (sha256Hash == null) {
+                int start = slot * SHA_256_HASH_BYTE_LEN;
+                sha256Hash = Arrays.copyOfRange(hashes, start, start + SHA_256_HASH_BYTE_LEN);
+            }
+            return sha256Hash;
+        }
+    }
+
+    private class SlotSpliterator implements Spliterator<IndexEntry> {
+
+        private int slot;
+        private final int end;
+
+        SlotSpliterator(int slot, int end) {
+            this.slot = slot;
+            this.end = end;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super IndexEntry> action) {
+            if (slot >= end) {
+                return false;
+            }
+            action.accept(view(slot++));
+            return true;
+        }
+
+        @Override
+        public void forEachRemaining(Consumer<? super IndexEntry> action) {
+            for (; slot < end; slot++) {
+                action.accept(view(slot));
+            }
+        }
+
+        @Override
+        public Spliterator<IndexEntry> trySplit() {
+            int mid = (slot + end) >>> 1;
+            if (mid <= slot) {
+                return null;
+            }
+            Spliterator<IndexEntry> prefix = new SlotSpliterator(slot, mid);
+            slot = mid;
+            return prefix;
+        }
+
+        @Override
+        public long estimateSize() {
+            return end - slot;
+        }
+
+        @Override
+        public int characteristics() {
+            return ORDERED | DISTINCT | SIZED | SUBSIZED | NONNULL | IMMUTABLE;
+        }
+    }
+
+    /**
+     * Collects entries in any order. Later entries replace earlier ones with the same TPUID, like puts into a map.
+     */
+    static class Builder {
+
+        private int count;
+        private long[] keys;
+        private long[] offsets;
+        private int[] diskSizes;
+        private int[] memorySizes;
+        private byte[] compressionIds;
+        private byte[] hashes;
+
+        Builder(int expectedSize) {
+            keys = new long[expectedSize];
+            offsets = new long[expectedSize];
+            diskSizes = new int[expectedSize];
+            memorySizes = new int[expectedSize];
+            compressionIds = new byte[expectedSize];
+            hashes = new byte[expectedSize * IndexEntry.SHA_256_HASH_BYTE_LEN];
+        }
+
+        /**
+         * @param hash Buffer positioned at the entry's SHA-256 hash, which is consumed
+         */
+        void add(int typePurposeId, int uniqueId, long offset, int diskSize, int memorySize, int compressionId,
+                 ByteBuffer hash) {
+            if (count == keys.length) {
+                grow();
+            }
+            keys[count] = key(typePurposeId, uniqueId);
+            offsets[count] = offset;
+            diskSizes[count] = diskSize;
+            memorySizes[count] = memorySize;
+            compressionIds[count] = (byte) compressionId;
+            hash.get(hashes, count * IndexEntry.SHA_256_HASH_BYTE_LEN, IndexEntry.SHA_256_HASH_BYTE_LEN);
+            ++count;
+        }
+
+        PackedIndex build() {
+            return new PackedIndex(this);
+        }
+
+        private void grow() {
+            int capacity = Math.max(16, keys.length * 2);
+            keys = Arrays.copyOf(keys, capacity);
+            offsets = Arrays.copyOf(offsets, capacity);
+            diskSizes = Arrays.copyOf(diskSizes, capacity);
+            memorySizes = Arrays.copyOf(memorySizes, capacity);
+            compressionIds = Arrays.copyOf(compressionIds, capacity);
+            hashes = Arrays.copyOf(hashes, capacity * IndexEntry.SHA_256_HASH_BYTE_LEN);
+        }
+
+        private void sort() {
+            boolean sorted = true;
+            for (int i = 1; i < count && sorted; i++) {
+                sorted = keys[i - 1] < keys[i];
+            }
+            if (sorted) {
+                return;
+            }
+            //  Sort a permutation rather than the columns themselves, ties broken by insertion order so the last
+            //  duplicate wins
+            int[] order = new int[count];
+            for (int i = 0; i < count; i++) {
+                order[i] = i;
+            }
+            long[] sortKeys = Arrays.copyOf(keys, count);
+            quicksort(sortKeys, order, 0, count - 1);
+            int unique = 0;
+            for (int i = 0; i < count; i++) {
+                if (i + 1 < count && sortKeys[i] == sortKeys[i + 1]) {
+                    continue;
+                }
+                order[unique++] = order[i];
+            }
+            long[] newKeys = new long[unique];
+            long[] newOffsets = new long[unique];
+            int[] newDiskSizes = new int[unique];
+            int[] newMemorySizes = new int[unique];
+            byte[] newCompressionIds = new byte[unique];
+            byte[] newHashes = new byte[unique * IndexEntry.SHA_256_HASH_BYTE_LEN];
+            for (int i = 0; i < unique; i++) {
+                int from = order[i];
+                newKeys[i] = keys[from];
+                newOffsets[i] = offsets[from];
+                newDiskSizes[i] = diskSizes[from];
+                newMemorySizes[i] = memorySizes[from];
+                newCompressionIds[i] = compressionIds[from];
+                System.arraycopy(hashes, from * IndexEntry.SHA_256_HASH_BYTE_LEN,
+                        newHashes, i * IndexEntry.SHA_256_HASH_BYTE_LEN, IndexEntry.SHA_256_HASH_BYTE_LEN);
+            }
+            count = unique;
+            keys = newKeys;
+            offsets = newOffsets;
+            diskSizes = newDiskSizes;
+            memorySizes = newMemorySizes;
+            compressionIds = newCompressionIds;
+            hashes = newHashes;
+        }
+
+        private static void quicksort(long[] keys, int[] order, int lo, int hi) {
+            while (hi - lo > 16) {
+                int mid = (lo + hi) >>> 1;
+                //  Median of three
+                if (less(keys, order, mid, lo)) {
+                    swap(keys, order, mid, lo);
+                }
+                if (less(keys, order, hi, lo)) {
+                    swap(keys, order, hi, lo);
+                }
+                if (less(keys, order, hi, mid)) {
+                    swap(keys, order, hi, mid);
+                }
+                long pivotKey = keys[mid];
+                int pivotOrder = order[mid];
+                int i = lo;
+                int j = hi;
+                while (i <= j) {
+                    while (compare(keys[i], order[i], pivotKey, pivotOrder) < 0) {
+                        ++i;
+                    }
+                    while (compare(keys[j], order[j], pivotKey, pivotOrder) > 0) {
+                        --j;
+                    }
+                    if (i <= j) {
+                        swap(keys, order, i++, j--);
+                    }
+                }
+                //  Recurse into the smaller half so the stack stays logarithmic
+                if (j - lo < hi - i) {
+                    quicksort(keys, order, lo, j);
+                    lo = i;
+                } else {
+                    quicksort(keys, order, i, hi);
+                    hi = j;
+                }
+            }
+            for (int i = lo + 1; i <= hi; i++) {
+                for (int j = i; j > lo && less(keys, order, j, j - 1); j--) {
+                    swap(keys, order, j, j - 1);
+                }
+            }
+        }
+
+        private static boolean less(long[] keys, int[] order, int a, int b) {
+            return compare(keys[a], order[a], keys[b], order[b]) < 0;
+        }
+
+        private static int compare(long keyA, int orderA, long keyB, int orderB) {
+            int ret = Long.compare(keyA, keyB);
+            return ret != 0 ? ret : Integer.compare(orderA, orderB);
+        }
+
+        private static void swap(long[] keys, int[] order, int a, int b) {
+            long key = keys[a];
+            keys[a] = keys[b];
+            keys[b] = key;
+            int o = order[a];
+            order[a] = order[b];
+            order[b] = o;
+        }
+    }
+}
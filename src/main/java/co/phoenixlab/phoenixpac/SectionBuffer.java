@@ -0,0 +1,119 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Vincent Zhang
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package co.phoenixlab.phoenixpac;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Window over a section of a PAC file that is filled with large positional reads, so that fields can be decoded
+ * from memory instead of costing a read call each.
+ */
+class SectionBuffer {
+
+    static final int MIN_FETCH = 8 * 1024;
+    static final int MAX_FETCH = 64 * 1024 * 1024;
+
+    private final FileChannel channel;
+    private ByteBuffer buffer;
+    /**
+     * File offset of the byte following the last byte in the buffer
+     */
+    private long filePosition;
+
+    SectionBuffer(FileChannel channel) {
+        this.channel = channel;
+        this.buffer = ByteBuffer.allocateDirect(MIN_FETCH);
+        this.buffer.limit(0);
+    }
+
+    /**
+     * Moves the window to the given file offset, fetching up to {@code sizeHint} bytes in one read. Running into the
+     * end of the file is not an error here, only when the bytes are actually {@link #require(int) required}.
+     */
+    ByteBuffer seek(long offset, int sizeHint) throws IOException {
+        int size = clampFetch(sizeHint);
+        if (buffer.capacity() < size) {
+            buffer = ByteBuffer.allocateDirect(size);
+        }
+        buffer.clear();
+        buffer.limit(size);
+        filePosition = offset;
+        fill();
+        return buffer;
+    }
+
+    /**
+     * Ensures that at least {@code bytes} bytes can be decoded from the buffer's current position, reading more of the
+     * file if needed.
+     */
+    ByteBuffer require(int bytes) throws IOException {
+        if (buffer.remaining() >= bytes) {
+            return buffer;
+        }
+        fetch(Math.max(clampFetch(bytes), bytes));
+        if (buffer.remaining() < bytes) {
+            throw new EOFException();
+        }
+        return buffer;
+    }
+
+    /**
+     * Tries to make {@code bytes} bytes available from the buffer's current position in one read, up to the maximum
+     * fetch size. Stops early at the end of the file.
+     */
+    void prefetch(int bytes) throws IOException {
+        fetch(clampFetch(bytes));
+    }
+
+    private void fetch(int size) throws IOException {
+        if (buffer.remaining() >= size) {
+            return;
+        }
+        if (buffer.capacity() < size) {
+            ByteBuffer grown = ByteBuffer.allocateDirect(size);
+            grown.put(buffer);
+            buffer = grown;
+        } else {
+            buffer.compact();
+        }
+        buffer.limit(size);
+        fill();
+    }
+
+    private void fill() throws IOException {
+        int read;
+        while (buffer.hasRemaining() && (read = channel.read(buffer, filePosition)) >= 0) {
+            filePosition += read;
+        }
+        buffer.flip();
+    }
+
+    private static int clampFetch(int size) {
+        return Math.min(Math.max(size, MIN_FETCH), MAX_FETCH);
+    }
+}
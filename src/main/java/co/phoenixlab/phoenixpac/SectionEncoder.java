@@ -0,0 +1,276 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Vincent Zhang
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package co.phoenixlab.phoenixpac;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Encodes the header and the index, metadata and trash sections into pooled direct buffers and writes them out with
+ * a single gathering write, instead of costing a write call per field. Shared by {@link PacFileWriter} and
+ * {@link PacFileEditor}.
+ * <p>
+ * Sections are appended back to back, so several sections that are contiguous on disk can be written in one go.
+ */
+final class SectionEncoder implements Closeable {
+
+    static final int CHUNK_SIZE = 64 * 1024;
+    private static final int MAX_IDLE_CHUNKS = 64;
+    private static final ConcurrentLinkedQueue<ByteBuffer> IDLE = new ConcurrentLinkedQueue<>();
+    private static final AtomicInteger IDLE_COUNT = new AtomicInteger();
+
+    private static final byte[] EMPTY_RESERVED = new byte[16];
+
+    private final List<ByteBuffer> chunks;
+    private ByteBuffer current;
+    private long size;
+
+    SectionEncoder() {
+        chunks = new ArrayList<>();
+    }
+
+    /**
+     * Total number of bytes encoded so far.
+     */
+    long size() {
+        return size;
+    }
+
+    SectionEncoder header(PacHeader header, boolean wide) {
+        putInt(PacHeader.MAGIC_NUMBER);
+        putShort(header.majorVersion);
+        putShort(header.minorVersion);
+        put(EMPTY_RESERVED);
+        //  The width is the caller's, or picked by LayoutPlanner from the file's size
+        putInt(header.flags);
+        if (wide) {
+            putLong(header.indexSectionOffset);
+            putLong(header.metadataSectionOffset);
+            putLong(header.trashSectionOffset);
+        } else {
+            putInt((int) (header.indexSectionOffset & 0xFFFFFFFFL));
+            putInt((int) (header.metadataSectionOffset & 0xFFFFFFFFL));
+            putInt((int) (header.trashSectionOffset & 0xFFFFFFFFL));
+        }
+        return this;
+    }
+
+    SectionEncoder index(Index index, boolean wide) {
+        putInt(index.getNumIndexEntries());
+        for (Iterator<IndexEntry> iterator = index.stream().iterator(); iterator.hasNext(); ) {
+            IndexEntry entry = iterator.next();
+            putInt(entry.tpuid.getTypePurposeCombinedId());
+            putInt(entry.tpuid.getUniqueId());
+            if (wide) {
+                putLong(entry.offset);
+            } else {
+                putInt((int) entry.offset);
+            }
+            putInt(entry.diskSize);
+            putInt(entry.memorySize);
+            putInt(0xFF000000 & (entry.compressionId << 24));
+            put(entry.getSha256Hash());
+        }
+        putInt(Index.GUARD_BYTES);
+        return this;
+    }
+
+    /**
+     * Encodes a metadata section. Callers skip the section altogether when there is no metadata.
+     */
+    SectionEncoder metadata(PacMetadata metadata) {
+        metadata.calculateSize();
+        putInt(metadata.size);
+        putInt(metadata.numMetadataBlocks);
+        for (MetadataBlock block : metadata.metadata.values()) {
+            putInt(block.tpuid.getTypePurposeCombinedId());
+            putInt(block.tpuid.getUniqueId());
+            putShort(block.numberOfEntries);
+            putShort(block.size);
+            for (MetadataEntry entry : block.entries.values()) {
+                putByte(entry.keyLength);
+                putByte(entry.valLength);
+                put(entry.getKeyBytes());
+                put(entry.getValBytes());
+            }
+        }
+        putInt(PacMetadata.GUARD_BYTES);
+        return this;
+    }
+
+    SectionEncoder trashIndex(Collection<TrashIndexEntry> entries, boolean wide) {
+        putInt(entries.size());
+        for (TrashIndexEntry entry : entries) {
+            if (wide) {
+                putLong(entry.offset);
+            } else {
+                putInt((int) entry.offset);
+            }
+            putInt(entry.size);
+        }
+        putInt(TrashIndex.GUARD_BYTES);
+        return this;
+    }
+
+    /**
+     * Size of the metadata section as {@link #metadata(PacMetadata)} would encode it, or 0 when there is no metadata.
+     */
+    static long metadataSize(PacMetadata metadata) {
+        if (metadata == null || metadata.metadata.isEmpty()) {
+            return 0;
+        }
+        long total = 12;    //  Size + num blocks + guard bytes
+        for (MetadataBlock block : metadata.metadata.values()) {
+            total += 12;    //  TPUID + num entries + size
+            for (MetadataEntry entry : block.entries.values()) {
+                total += 2 + entry.keyLength + entry.valLength;
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Writes everything encoded so far at the given position with a gathering write. The channel is left positioned
+     * right after the written bytes, which for a {@link java.io.RandomAccessFile}'s channel moves its file pointer too.
+     *
+     * @return The position following the written bytes
+     */
+    long writeTo(FileChannel channel, long position) throws IOException {
+        ByteBuffer[] srcs = buffers();
+        channel.position(position);
+        long remaining = size;
+        while (remaining > 0) {
+            remaining -= channel.write(srcs);
+        }
+        return position + size;
+    }
+
+    byte[] toByteArray() {
+        byte[] ret = new byte[(int) size];
+        int pos = 0;
+        for (ByteBuffer buffer : buffers()) {
+            int len = buffer.remaining();
+            buffer.get(ret, pos, len);
+            pos += len;
+        }
+        return ret;
+    }
+
+    /**
+     * Returns the chunks to the pool. The encoder must not be used afterwards.
+     */
+    @Override
+    public void close() {
+        if (current != null) {
+            chunks.add(current);
+            current = null;
+        }
+        for (ByteBuffer chunk : chunks) {
+            release(chunk);
+        }
+        chunks.clear();
+    }
+
+    private ByteBuffer[] buffers() {
+        ByteBuffer[] ret = new ByteBuffer[chunks.size() + (current == null ? 0 : 1)];
+        for (int i = 0; i < chunks.size(); i++) {
+            ret[i] = (ByteBuffer) chunks.get(i).duplicate().flip();
+        }
+        if (current != null) {
+            ret[ret.length - 1] = (ByteBuffer) current.duplicate().flip();
+        }
+        return ret;
+    }
+
+    private ByteBuffer require(int bytes) {
+        if (current == null || current.remaining() < bytes) {
+            if (current != null) {
+                chunks.add(current);
+            }
+            current = acquire();
+        }
+        size += bytes;
+        return current;
+    }
+
+    private void putByte(int b) {
+        require(1).put((byte) b);
+    }
+
+    private void putShort(int s) {
+        require(2).putShort((short) s);
+    }
+
+    private void putInt(int i) {
+        require(4).putInt(i);
+    }
+
+    private void putLong(long l) {
+        require(8).putLong(l);
+    }
+
+    private void put(byte[] bytes) {
+        //  Unlike numbers, byte runs may be split across chunks
+        int pos = 0;
+        while (pos < bytes.length) {
+            if (current == null || !current.hasRemaining()) {
+                if (current != null) {
+                    chunks.add(current);
+                }
+                current = acquire();
+            }
+            int len = Math.min(bytes.length - pos, current.remaining());
+            current.put(bytes, pos, len);
+            size += len;
+            pos += len;
+        }
+    }
+
+    private static ByteBuffer acquire() {
+        ByteBuffer chunk = IDLE.poll();
+        if (chunk == null) {
+            return ByteBuffer.allocateDirect(CHUNK_SIZE);
+        }
+        IDLE_COUNT.decrementAndGet();
+        chunk.clear();
+        return chunk;
+    }
+
+    private static void release(ByteBuffer chunk) {
+        if (IDLE_COUNT.incrementAndGet() <= MAX_IDLE_CHUNKS) {
+            IDLE.offer(chunk);
+        } else {
+            IDLE_COUNT.decrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Vincent Zhang
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package co.phoenixlab.phoenixpac;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * Wraps another PacFile and records every asset read through it into an {@link AccessTrace}. Wrap the archive for a
+ * real session, such as game startup or a level load, then save the trace and write the next build with it so that
+ * the assets lie in the order they are loaded.
+ * <p>
+ * An asset is recorded when it is requested, whether or not the read then succeeds.
+ */
+public class TracingPacFile extends PacFile {
+
+    private final PacFile pacFile;
+    private final AccessTrace trace;
+
+    public TracingPacFile(PacFile pacFile) {
+        this(pacFile, new AccessTrace());
+    }
+
+    /**
+     * @param pacFile The PacFile to read assets from
+     * @param trace   The trace to record into, which may be shared with other archives of the same session
+     */
+    public TracingPacFile(PacFile pacFile, AccessTrace trace) {
+        this.pacFile = pacFile;
+        this.trace = trace;
+    }
+
+    public PacFile getDelegate() {
+        return pacFile;
+    }
+
+    public AccessTrace getTrace() {
+        return trace;
+    }
+
+    @Override
+    public PacHeader getHeader() {
+        return pacFile.getHeader();
+    }
+
+    @Override
+    public Index getIndex() {
+        return pacFile.getIndex();
+    }
+
+    @Override
+    public PacMetadata getMetadata() {
+        return pacFile.getMetadata();
+    }
+
+    @Override
+    public TrashIndex getTrashIndex() {
+        return pacFile.getTrashIndex();
+    }
+
+    @Override
+    public AssetHandle getHandle(TypePurposeUniqueId tpuid) throws IOException {
+        trace.record(tpuid);
+        return pacFile.getHandle(tpuid);
+    }
+
+    @Override
+    public Map<TypePurposeUniqueId, ByteBuffer> readAll(Collection<TypePurposeUniqueId> tpuids, int gapThreshold)
+            throws IOException {
+        for (TypePurposeUniqueId tpuid : tpuids) {
+            trace.record(tpuid);
+        }
+        //  Let the delegate merge the reads as it usually would
+        return pacFile.readAll(tpuids, gapThreshold);
+    }
+
+    @Override
+    public CompletableFuture<ByteBuffer> readAsync(TypePurposeUniqueId tpuid) {
+        trace.record(tpuid);
+        return pacFile.readAsync(tpuid);
+    }
+
+    @Override
+    public CompletableFuture<ByteBuffer> readAsync(TypePurposeUniqueId tpuid, Executor executor) {
+        trace.record(tpuid);
+        return pacFile.readAsync(tpuid, executor);
+    }
+
+    /**
+     * Closes the underlying PacFile. The trace stays usable.
+     */
+    @Override
+    public void close() throws IOException {
+        pacFile.close();
+    }
+}
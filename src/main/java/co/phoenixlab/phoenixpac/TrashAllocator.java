@@ -0,0 +1,201 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Vincent Zhang
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package co.phoenixlab.phoenixpac;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Tracks the free extents (holes) of a PAC file and hands them out best-fit. Adjacent holes are merged as they are
+ * freed, so the trash never holds two entries that could be one.
+ */
+class TrashAllocator {
+
+    private static final Comparator<Hole> BY_SIZE = (a, b) -> {
+        int ret = Long.compare(a.size, b.size);
+        return ret != 0 ? ret : Long.compare(a.offset, b.offset);
+    };
+
+    private final TreeMap<Long, Hole> byOffset;
+    private final TreeSet<Hole> bySize;
+    private long freeBytes;
+
+    TrashAllocator() {
+        byOffset = new TreeMap<>();
+        bySize = new TreeSet<>(BY_SIZE);
+    }
+
+    TrashAllocator(TrashAllocator other) {
+        this();
+        for (Hole hole : other.byOffset.values()) {
+            free(hole.offset, hole.size);
+        }
+    }
+
+    /**
+     * Marks an extent as free, merging it with the holes on either side.
+     *
+     * @throws IllegalStateException If the extent overlaps a hole that is already free
+     */
+    void free(long offset, long size) {
+        if (size <= 0) {
+            return;
+        }
+        long end = offset + size;
+        Map.Entry<Long, Hole> lower = byOffset.floorEntry(offset);
+        if (lower != null && lower.getValue().end() >= offset) {
+            if (lower.getValue().end() > offset) {
+                throw new IllegalStateException(String.format("Extent %d+%d is already free", offset, size));
+            }
+            Hole hole = remove(lower.getValue());
+            offset = hole.offset;
+        }
+        Map.Entry<Long, Hole> higher = byOffset.ceilingEntry(offset);
+        if (higher != null && higher.getKey() <= end) {
+            if (higher.getKey() < end) {
+                throw new IllegalStateException(String.format("Extent %d+%d is already free", offset, size));
+            }
+            end = remove(higher.getValue()).end();
+        }
+        add(new Hole(offset, end - offset));
+    }
+
+    /**
+     * Takes the smallest hole that fits {@code size} bytes, keeping whatever is left of it free.
+     *
+     * @return The offset of the allocated extent, or -1 if no hole is large enough
+     */
+    long allocate(long size) {
+        if (size <= 0) {
+            return -1;
+        }
+        Hole hole = bySize.ceiling(new Hole(Long.MIN_VALUE, size));
+        if (hole == null) {
+            return -1;
+        }
+        remove(hole);
+        if (hole.size > size) {
+            add(new Hole(hole.offset + size, hole.size - size));
+        }
+        return hole.offset;
+    }
+
+    /**
+     * Takes a specific extent out of the free space. The extent must lie within a single hole.
+     */
+    void reserve(long offset, long size) {
+        Map.Entry<Long, Hole> entry = byOffset.floorEntry(offset);
+        if (entry == null || entry.getValue().end() < offset + size) {
+            throw new IllegalStateException(String.format("Extent %d+%d is not free", offset, size));
+        }
+        Hole hole = remove(entry.getValue());
+        if (hole.offset < offset) {
+            add(new Hole(hole.offset, offset - hole.offset));
+        }
+        if (hole.end() > offset + size) {
+            add(new Hole(offset + size, hole.end() - offset - size));
+        }
+    }
+
+    long getFreeBytes() {
+        return freeBytes;
+    }
+
+    int getNumHoles() {
+        return byOffset.size();
+    }
+
+    /**
+     * @return The hole ending exactly at {@code end}, or null
+     */
+    Hole holeEndingAt(long end) {
+        Map.Entry<Long, Hole> entry = byOffset.lowerEntry(end);
+        return entry != null && entry.getValue().end() == end ? entry.getValue() : null;
+    }
+
+    /**
+     * @return The lowest hole of at least {@code size} bytes that starts before {@code limit}, or null
+     */
+    Hole firstFit(long size, long limit) {
+        for (Hole hole : byOffset.headMap(limit, false).values()) {
+            if (hole.size >= size) {
+                return hole;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Lists the holes in offset order as trash entries, splitting any that are too large for one entry.
+     */
+    List<TrashIndexEntry> toTrashEntries() {
+        List<TrashIndexEntry> ret = new ArrayList<>(byOffset.size());
+        for (Hole hole : byOffset.values()) {
+            long offset = hole.offset;
+            long remaining = hole.size;
+            while (remaining > 0) {
+                TrashIndexEntry entry = new TrashIndexEntry();
+                entry.offset = offset;
+                entry.size = (int) Math.min(remaining, Integer.MAX_VALUE);
+                ret.add(entry);
+                offset += entry.size;
+                remaining -= entry.size;
+            }
+        }
+        return ret;
+    }
+
+    private void add(Hole hole) {
+        byOffset.put(hole.offset, hole);
+        bySize.add(hole);
+        freeBytes += hole.size;
+    }
+
+    private Hole remove(Hole hole) {
+        byOffset.remove(hole.offset);
+        bySize.remove(hole);
+        freeBytes -= hole.size;
+        return hole;
+    }
+
+    static final class Hole {
+
+        final long offset;
+        final long size;
+
+        Hole(long offset, long size) {
+            this.offset = offset;
+            this.size = size;
+        }
+
+        long end() {
+            return offset + size;
+        }
+    }
+}
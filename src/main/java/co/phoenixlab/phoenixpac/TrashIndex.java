@@ -48,7 +48,7 @@ public class TrashIndex {
     public TrashIndex(TrashIndex other) {
         this.numTrashEntries = other.numTrashEntries;
         this.entries = new LinkedHashSet<>(other.entries.size());
-        entries.addAll(entries.stream().
+        entries.addAll(other.entries.stream().
                 map(TrashIndexEntry::new).
                 collect(Collectors.toList()));
     }
@@ -45,6 +45,10 @@ public class TrashIndexEntry implements Comparable<TrashIndexEntry> {
         return size;
     }
 
+    public static int sizeOf(boolean wide) {
+        return (wide ? 8 : 4) + 4;
+    }
+
     @Override
     public int compareTo(TrashIndexEntry o) {
         return Long.compareUnsigned(offset, o.offset);
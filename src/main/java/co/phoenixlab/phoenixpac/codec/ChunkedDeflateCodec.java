@@ -0,0 +1,519 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Vincent Zhang
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package co.phoenixlab.phoenixpac.codec;
+
+import co.phoenixlab.phoenixpac.AssetHandle;
+import co.phoenixlab.phoenixpac.InflaterPool;
+import co.phoenixlab.phoenixpac.PacFile;
+import co.phoenixlab.phoenixpac.throwables.InvalidPacFormatException;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * zlib deflate in independent chunks, compression ID 3, for large assets that are read at random offsets. Each chunk
+ * of 64 KB of the decompressed asset, except the last, which may be shorter, is compressed on its own. The chunks are
+ * followed by a seek table, so a read only has to decompress the chunks it covers.
+ * <p>
+ * Each chunk is stored as a big-endian int raw length and int payload length followed by the payload, which is stored
+ * as is if it is as long as the raw data and is a zlib stream otherwise. An int 0 ends the chunks. Then comes the seek
+ * table, an int offset from the start of the asset for each chunk, and finally a footer of three ints: the decompressed
+ * size, the chunk size and the number of chunks. Levels are the {@link Deflater} levels.
+ */
+public class ChunkedDeflateCodec implements SeekablePacCodec {
+
+    static final int CHUNK_SIZE = 64 * 1024;
+    static final int CHUNK_HEADER_SIZE = 8;
+    static final int FOOTER_SIZE = 12;
+    /**
+     * Largest chunk size accepted when reading, so that a corrupt footer can't make us allocate gigabytes
+     */
+    private static final int MAX_CHUNK_SIZE = 64 * 1024 * 1024;
+
+    @Override
+    public int getCompressionId() {
+        return PacFile.COMPRESSION_CHUNKED_DEFLATE;
+    }
+
+    @Override
+    public String getName() {
+        return "chunked-deflate";
+    }
+
+    @Override
+    public int getDefaultLevel() {
+        return Deflater.BEST_COMPRESSION;
+    }
+
+    @Override
+    public InputStream newCompressingStream(InputStream source, int level) throws IOException {
+        return new CompressingStream(source, level);
+    }
+
+    @Override
+    public InputStream newDecompressingStream(InputStream source) throws IOException {
+        return new DecompressingStream(source);
+    }
+
+    @Override
+    public SeekableByteChannel newDecompressingChannel(AssetHandle handle) throws IOException {
+        return new ChunkChannel(handle);
+    }
+
+    private static void checkChunk(int rawLength, int payloadLength, int maxRawLength)
+            throws InvalidPacFormatException {
+        if (rawLength <= 0 || rawLength > maxRawLength || payloadLength <= 0 || payloadLength > rawLength) {
+            throw new InvalidPacFormatException(String.format("Invalid chunk of %d bytes from %d",
+                    rawLength, payloadLength));
+        }
+    }
+
+    /**
+     * Decodes a whole chunk payload into {@code out}.
+     */
+    private static void decodeChunk(byte[] payload, int payloadLength, byte[] out, int rawLength) throws IOException {
+        if (payloadLength == rawLength) {
+            System.arraycopy(payload, 0, out, 0, rawLength);
+            return;
+        }
+        InflaterPool pool = InflaterPool.shared();
+        Inflater inflater = pool.acquire();
+        try {
+            inflater.setInput(payload, 0, payloadLength);
+            int length = 0;
+            while (length < rawLength) {
+                int read = inflater.inflate(out, length, rawLength - length);
+                if (read == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new InvalidPacFormatException("Chunk is shorter than its declared length");
+                }
+                length += read;
+            }
+            if (!inflater.finished() && (inflater.inflate(new byte[1]) != 0 || !inflater.finished())) {
+                throw new InvalidPacFormatException("Chunk is longer than its declared length");
+            }
+        } catch (DataFormatException e) {
+            throw new InvalidPacFormatException(e);
+        } finally {
+            pool.release(inflater);
+        }
+    }
+
+    private static int readBigEndianInt(byte[] b, int i) {
+        return (b[i] & 0xFF) << 24 | (b[i + 1] & 0xFF) << 16 | (b[i + 2] & 0xFF) << 8 | (b[i + 3] & 0xFF);
+    }
+
+    private static void writeBigEndianInt(byte[] b, int i, int value) {
+        b[i] = (byte) (value >>> 24);
+        b[i + 1] = (byte) (value >>> 16);
+        b[i + 2] = (byte) (value >>> 8);
+        b[i + 3] = (byte) value;
+    }
+
+    /**
+     * Reads until the array is full or the stream ends.
+     *
+     * @return The number of bytes read
+     */
+    private static int readFully(InputStream in, byte[] b, int off, int len) throws IOException {
+        int total = 0;
+        int read;
+        while (total < len && (read = in.read(b, off + total, len - total)) != -1) {
+            total += read;
+        }
+        return total;
+    }
+
+    /**
+     * Compresses a chunk at a time as it is read, then appends the seek table and footer
+     */
+    private static class CompressingStream extends InputStream {
+
+        private final InputStream in;
+        private final Deflater deflater;
+        private final byte[] raw = new byte[CHUNK_SIZE];
+        private byte[] out = new byte[CHUNK_HEADER_SIZE + CHUNK_SIZE];
+        private int outPos;
+        private int outLength;
+        private int[] offsets = new int[16];
+        private int numChunks;
+        /**
+         * Compressed bytes produced so far, which is the offset of the next chunk
+         */
+        private long written;
+        private long rawSize;
+        private boolean finished;
+
+        CompressingStream(InputStream in, int level) {
+            this.in = in;
+            this.deflater = new Deflater(level);
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (!fill()) {
+                return -1;
+            }
+            return out[outPos++] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (!fill()) {
+                return -1;
+            }
+            int n = Math.min(len, outLength - outPos);
+            System.arraycopy(out, outPos, b, off, n);
+            outPos += n;
+            return n;
+        }
+
+        private boolean fill() throws IOException {
+            if (outPos < outLength) {
+                return true;
+            }
+            if (finished) {
+                return false;
+            }
+            int rawLength = readFully(in, raw, 0, CHUNK_SIZE);
+            if (rawLength == 0) {
+                writeTrailer();
+                return true;
+            }
+            deflater.reset();
+            deflater.setInput(raw, 0, rawLength);
+            deflater.finish();
+            int payloadLength = 0;
+            while (!deflater.finished() && payloadLength < rawLength) {
+                payloadLength += deflater.deflate(out, CHUNK_HEADER_SIZE + payloadLength, rawLength - payloadLength);
+            }
+            if (!deflater.finished() || payloadLength >= rawLength) {
+                //  Not worth compressing
+                System.arraycopy(raw, 0, out, CHUNK_HEADER_SIZE, rawLength);
+                payloadLength = rawLength;
+            }
+            writeBigEndianInt(out, 0, rawLength);
+            writeBigEndianInt(out, 4, payloadLength);
+            if (numChunks == offsets.length) {
+                offsets = Arrays.copyOf(offsets, numChunks * 2);
+            }
+            offsets[numChunks++] = (int) written;
+            written += CHUNK_HEADER_SIZE + payloadLength;
+            rawSize += rawLength;
+            if (written > Integer.MAX_VALUE || rawSize > Integer.MAX_VALUE) {
+                throw new IOException("Asset is too large for chunked compression");
+            }
+            outPos = 0;
+            outLength = CHUNK_HEADER_SIZE + payloadLength;
+            return true;
+        }
+
+        private void writeTrailer() {
+            int length = 4 + numChunks * 4 + FOOTER_SIZE;
+            if (out.length < length) {
+                out = new byte[length];
+            }
+            int pos = 0;
+            writeBigEndianInt(out, pos, 0);
+            pos += 4;
+            for (int i = 0; i < numChunks; i++) {
+                writeBigEndianInt(out, pos, offsets[i]);
+                pos += 4;
+            }
+            writeBigEndianInt(out, pos, (int) rawSize);
+            writeBigEndianInt(out, pos + 4, CHUNK_SIZE);
+            writeBigEndianInt(out, pos + 8, numChunks);
+            outPos = 0;
+            outLength = length;
+            finished = true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            deflater.end();
+            in.close();
+        }
+    }
+
+    /**
+     * Decompresses the chunks in order, ignoring the seek table
+     */
+    private static class DecompressingStream extends InputStream {
+
+        private final InputStream in;
+        private final byte[] header = new byte[CHUNK_HEADER_SIZE];
+        private byte[] payload = new byte[CHUNK_SIZE];
+        private byte[] out = new byte[CHUNK_SIZE];
+        private int outPos;
+        private int outLength;
+        private boolean finished;
+
+        DecompressingStream(InputStream in) {
+            this.in = in;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (!fill()) {
+                return -1;
+            }
+            return out[outPos++] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (!fill()) {
+                return -1;
+            }
+            int n = Math.min(len, outLength - outPos);
+            System.arraycopy(out, outPos, b, off, n);
+            outPos += n;
+            return n;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return outLength - outPos;
+        }
+
+        private boolean fill() throws IOException {
+            if (outPos < outLength) {
+                return true;
+            }
+            if (finished) {
+                return false;
+            }
+            if (readFully(in, header, 0, 4) < 4) {
+                throw new EOFException("Truncated chunk header");
+            }
+            int rawLength = readBigEndianInt(header, 0);
+            if (rawLength == 0) {
+                finished = true;
+                return false;
+            }
+            if (readFully(in, header, 4, 4) < 4) {
+                throw new EOFException("Truncated chunk header");
+            }
+            int payloadLength = readBigEndianInt(header, 4);
+            checkChunk(rawLength, payloadLength, MAX_CHUNK_SIZE);
+            if (payload.length < payloadLength) {
+                payload = new byte[payloadLength];
+            }
+            if (out.length < rawLength) {
+                out = new byte[rawLength];
+            }
+            if (readFully(in, payload, 0, payloadLength) < payloadLength) {
+                throw new EOFException("Truncated chunk");
+            }
+            decodeChunk(payload, payloadLength, out, rawLength);
+            outPos = 0;
+            outLength = rawLength;
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    /**
+     * Reads the chunks covering each read through positional reads on the asset, keeping the last chunk decoded
+     */
+    private static class ChunkChannel implements SeekableByteChannel {
+
+        private final AssetHandle handle;
+        private final int rawSize;
+        private final int chunkSize;
+        private final int[] offsets;
+        private final long tableOffset;
+        private long position;
+        private boolean open;
+        private int loadedChunk;
+        private byte[] chunk;
+        private int chunkLength;
+        private byte[] payload;
+
+        ChunkChannel(AssetHandle handle) throws IOException {
+            this.handle = handle;
+            long assetSize = handle.getRawSize();
+            if (assetSize < 0) {
+                assetSize = handle.getRawByteBuffer().remaining();
+            }
+            if (assetSize < 4 + FOOTER_SIZE) {
+                throw new InvalidPacFormatException("Chunked asset is too short for its footer");
+            }
+            ByteBuffer footer = read(assetSize - FOOTER_SIZE, FOOTER_SIZE);
+            rawSize = footer.getInt();
+            chunkSize = footer.getInt();
+            int numChunks = footer.getInt();
+            if (rawSize < 0 || chunkSize <= 0 || chunkSize > MAX_CHUNK_SIZE ||
+                    numChunks != (int) ((rawSize + (long) chunkSize - 1) / chunkSize)) {
+                throw new InvalidPacFormatException(String.format(
+                        "Invalid chunked asset footer: %d bytes in %d chunks of %d", rawSize, numChunks, chunkSize));
+            }
+            tableOffset = assetSize - FOOTER_SIZE - 4L * numChunks;
+            if (tableOffset < 4) {
+                throw new InvalidPacFormatException("Chunked asset is too short for its seek table");
+            }
+            ByteBuffer table = read(tableOffset, 4 * numChunks);
+            offsets = new int[numChunks];
+            for (int i = 0; i < numChunks; i++) {
+                offsets[i] = table.getInt();
+                if (offsets[i] < (i == 0 ? 0 : offsets[i - 1] + CHUNK_HEADER_SIZE) ||
+                        offsets[i] + CHUNK_HEADER_SIZE > tableOffset - 4) {
+                    throw new InvalidPacFormatException("Invalid seek table entry " + offsets[i]);
+                }
+            }
+            loadedChunk = -1;
+            open = true;
+        }
+
+        private ByteBuffer read(long position, int length) throws IOException {
+            ByteBuffer buffer = ByteBuffer.allocate(length);
+            while (buffer.hasRemaining()) {
+                if (handle.readRaw(buffer, position + buffer.position()) < 0) {
+                    throw new EOFException("Truncated chunked asset");
+                }
+            }
+            buffer.flip();
+            return buffer;
+        }
+
+        private void load(int index) throws IOException {
+            if (index == loadedChunk) {
+                return;
+            }
+            ByteBuffer header = read(offsets[index], CHUNK_HEADER_SIZE);
+            int rawLength = header.getInt();
+            int payloadLength = header.getInt();
+            int expected = (int) Math.min(chunkSize, rawSize - (long) index * chunkSize);
+            checkChunk(rawLength, payloadLength, chunkSize);
+            if (rawLength != expected || offsets[index] + CHUNK_HEADER_SIZE + (long) payloadLength > tableOffset - 4) {
+                throw new InvalidPacFormatException(String.format("Chunk %d does not match the seek table", index));
+            }
+            if (payload == null || payload.length < payloadLength) {
+                payload = new byte[payloadLength];
+            }
+            if (chunk == null || chunk.length < rawLength) {
+                chunk = new byte[rawLength];
+            }
+            //  Forget the old chunk first, in case decoding the new one fails halfway
+            loadedChunk = -1;
+            ByteBuffer dst = ByteBuffer.wrap(payload, 0, payloadLength);
+            while (dst.hasRemaining()) {
+                if (handle.readRaw(dst, offsets[index] + CHUNK_HEADER_SIZE + dst.position()) < 0) {
+                    throw new EOFException("Truncated chunk");
+                }
+            }
+            decodeChunk(payload, payloadLength, chunk, rawLength);
+            chunkLength = rawLength;
+            loadedChunk = index;
+        }
+
+        @Override
+        public synchronized int read(ByteBuffer dst) throws IOException {
+            ensureOpen();
+            if (position >= rawSize) {
+                return -1;
+            }
+            int total = 0;
+            while (dst.hasRemaining() && position < rawSize) {
+                int index = (int) (position / chunkSize);
+                load(index);
+                int inChunk = (int) (position - (long) index * chunkSize);
+                int n = Math.min(chunkLength - inChunk, dst.remaining());
+                dst.put(chunk, inChunk, n);
+                position += n;
+                total += n;
+            }
+            return total;
+        }
+
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            throw new NonWritableChannelException();
+        }
+
+        @Override
+        public synchronized long position() throws IOException {
+            ensureOpen();
+            return position;
+        }
+
+        @Override
+        public synchronized SeekableByteChannel position(long newPosition) throws IOException {
+            ensureOpen();
+            if (newPosition < 0) {
+                throw new IllegalArgumentException("Negative position");
+            }
+            position = newPosition;
+            return this;
+        }
+
+        @Override
+        public synchronized long size() throws IOException {
+            ensureOpen();
+            return rawSize;
+        }
+
+        @Override
+        public SeekableByteChannel truncate(long size) throws IOException {
+            throw new NonWritableChannelException();
+        }
+
+        @Override
+        public synchronized boolean isOpen() {
+            return open;
+        }
+
+        @Override
+        public synchronized void close() {
+            open = false;
+            chunk = null;
+            payload = null;
+        }
+
+        private void ensureOpen() throws ClosedChannelException {
+            if (!open) {
+                throw new ClosedChannelException();
+            }
+        }
+    }
+}
@@ -0,0 +1,234 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Vincent Zhang
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package co.phoenixlab.phoenixpac.codec;
+
+import co.phoenixlab.phoenixpac.InflaterPool;
+import co.phoenixlab.phoenixpac.PacFile;
+import co.phoenixlab.phoenixpac.throwables.InvalidPacFormatException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * zlib deflate, compression ID 1. Levels are the {@link Deflater} levels. Decompression uses the shared
+ * {@link InflaterPool}.
+ */
+public class DeflateCodec implements PacCodec {
+
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    @Override
+    public int getCompressionId() {
+        return PacFile.COMPRESSION_DEFLATE;
+    }
+
+    @Override
+    public String getName() {
+        return "deflate";
+    }
+
+    @Override
+    public int getDefaultLevel() {
+        return Deflater.BEST_COMPRESSION;
+    }
+
+    @Override
+    public InputStream newCompressingStream(InputStream source, int level) throws IOException {
+        return new OwnedDeflaterInputStream(source, new Deflater(level));
+    }
+
+    @Override
+    public InputStream newDecompressingStream(InputStream source) throws IOException {
+        return new PooledInflaterInputStream(source, InflaterPool.shared());
+    }
+
+    @Override
+    public byte[] decompress(ByteBuffer source, int memorySize) throws IOException {
+        //  The memory size is only trusted as the initial guess
+        byte[] out = new byte[memorySize >= 0 ? memorySize : Math.max(source.remaining() * 4, 64)];
+        int length = 0;
+        InflaterPool pool = InflaterPool.shared();
+        Inflater inflater = pool.acquire();
+        try {
+            Input input = new Input(source);
+            byte[] probe = new byte[1];
+            while (true) {
+                if (length == out.length) {
+                    //  Full - check whether anything is left before growing
+                    int read = inflate(inflater, input, probe, 0, 1);
+                    if (read == 0) {
+                        break;
+                    }
+                    out = Arrays.copyOf(out, Math.max(out.length * 2, 64));
+                    out[length++] = probe[0];
+                }
+                int read = inflate(inflater, input, out, length, out.length - length);
+                if (read == 0) {
+                    break;
+                }
+                length += read;
+            }
+        } finally {
+            pool.release(inflater);
+        }
+        return length == out.length ? out : Arrays.copyOf(out, length);
+    }
+
+    @Override
+    public ByteBuffer decompress(ByteBuffer source, ByteBuffer dst) throws IOException {
+        InflaterPool pool = InflaterPool.shared();
+        Inflater inflater = pool.acquire();
+        try {
+            Input input = new Input(source);
+            if (dst.hasArray()) {
+                int read;
+                while (dst.hasRemaining() &&
+                        (read = inflate(inflater, input, dst.array(), dst.arrayOffset() + dst.position(),
+                                dst.remaining())) != 0) {
+                    dst.position(dst.position() + read);
+                }
+            } else {
+                byte[] chunk = new byte[Math.min(CHUNK_SIZE, Math.max(dst.remaining(), 1))];
+                int read;
+                while (dst.hasRemaining() &&
+                        (read = inflate(inflater, input, chunk, 0, Math.min(chunk.length, dst.remaining()))) != 0) {
+                    dst.put(chunk, 0, read);
+                }
+            }
+            if (!dst.hasRemaining() && inflate(inflater, input, new byte[1], 0, 1) != 0) {
+                throw new BufferOverflowException();
+            }
+            return dst;
+        } finally {
+            pool.release(inflater);
+        }
+    }
+
+    /**
+     * Inflates into the given array, feeding more input as needed.
+     *
+     * @return The number of bytes inflated, 0 only once the stream has finished
+     */
+    private static int inflate(Inflater inflater, Input input, byte[] out, int off, int len) throws IOException {
+        try {
+            while (true) {
+                int read = inflater.inflate(out, off, len);
+                if (read != 0 || inflater.finished()) {
+                    return read;
+                }
+                if (inflater.needsDictionary()) {
+                    throw new InvalidPacFormatException("Compressed asset requires a preset dictionary");
+                }
+                if (inflater.needsInput() && !input.feed(inflater)) {
+                    throw new InvalidPacFormatException("Compressed asset is truncated");
+                }
+            }
+        } catch (DataFormatException e) {
+            throw new InvalidPacFormatException(e);
+        }
+    }
+
+    /**
+     * Feeds a buffer to an Inflater, without copying if it is backed by an array
+     */
+    private static class Input {
+
+        private final ByteBuffer buffer;
+        private byte[] scratch;
+
+        Input(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        boolean feed(Inflater inflater) {
+            int length = buffer.remaining();
+            if (length == 0) {
+                return false;
+            }
+            if (buffer.hasArray()) {
+                inflater.setInput(buffer.array(), buffer.arrayOffset() + buffer.position(), length);
+                buffer.position(buffer.limit());
+            } else {
+                if (scratch == null) {
+                    scratch = new byte[Math.min(CHUNK_SIZE, length)];
+                }
+                length = Math.min(length, scratch.length);
+                buffer.get(scratch, 0, length);
+                inflater.setInput(scratch, 0, length);
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Ends its Deflater when closed, since nobody else holds on to it
+     */
+    private static class OwnedDeflaterInputStream extends DeflaterInputStream {
+
+        OwnedDeflaterInputStream(InputStream in, Deflater deflater) {
+            super(in, deflater);
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                def.end();
+            }
+        }
+    }
+
+    private static class PooledInflaterInputStream extends InflaterInputStream {
+
+        private final InflaterPool pool;
+        private boolean released;
+
+        PooledInflaterInputStream(InputStream in, InflaterPool pool) {
+            super(in, pool.acquire());
+            this.pool = pool;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                if (!released) {
+                    released = true;
+                    pool.release(inf);
+                }
+            }
+        }
+    }
+}
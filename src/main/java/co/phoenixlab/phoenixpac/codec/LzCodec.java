@@ -0,0 +1,481 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Vincent Zhang
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package co.phoenixlab.phoenixpac.codec;
+
+import co.phoenixlab.phoenixpac.PacFile;
+import co.phoenixlab.phoenixpac.throwables.InvalidPacFormatException;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * Fast LZ77 codec, compression ID 2, built for decompression speed over ratio. Assets are split into independent blocks
+ * of up to 64 KB, each stored as a big-endian int raw length and int payload length followed by the payload. A payload
+ * as long as the raw data is stored as is, otherwise it is a sequence of LZ4 style tokens: a byte holding the literal
+ * count and match length, the literals, and a little-endian 16-bit match distance. Levels are ignored.
+ */
+public class LzCodec implements PacCodec {
+
+    static final int BLOCK_SIZE = 64 * 1024;
+    static final int BLOCK_HEADER_SIZE = 8;
+
+    private static final int MIN_MATCH = 4;
+    /**
+     * A block always ends with at least this many literals, and a match never starts within {@link #MATCH_FIND_LIMIT}
+     * bytes of its end
+     */
+    private static final int LAST_LITERALS = 5;
+    private static final int MATCH_FIND_LIMIT = 12;
+    private static final int MAX_DISTANCE = 65535;
+    private static final int HASH_LOG = 14;
+    /**
+     * Misses before the match finder starts skipping ahead faster, as log2
+     */
+    private static final int SKIP_TRIGGER = 6;
+
+    @Override
+    public int getCompressionId() {
+        return PacFile.COMPRESSION_LZ;
+    }
+
+    @Override
+    public String getName() {
+        return "lz";
+    }
+
+    @Override
+    public int getDefaultLevel() {
+        return 0;
+    }
+
+    @Override
+    public InputStream newCompressingStream(InputStream source, int level) throws IOException {
+        return new CompressingStream(source);
+    }
+
+    @Override
+    public InputStream newDecompressingStream(InputStream source) throws IOException {
+        return new DecompressingStream(source);
+    }
+
+    @Override
+    public byte[] decompress(ByteBuffer buffer, int memorySize) throws IOException {
+        ByteBuffer source = buffer.duplicate().order(ByteOrder.BIG_ENDIAN);
+        byte[] out = new byte[Math.max(memorySize, 0)];
+        int length = 0;
+        byte[] scratch = null;
+        while (source.hasRemaining()) {
+            if (source.remaining() < BLOCK_HEADER_SIZE) {
+                throw new InvalidPacFormatException("Truncated block header");
+            }
+            int rawLength = source.getInt();
+            int payloadLength = source.getInt();
+            checkBlock(rawLength, payloadLength);
+            if (source.remaining() < payloadLength) {
+                throw new InvalidPacFormatException("Truncated block");
+            }
+            if (out.length - length < rawLength) {
+                out = Arrays.copyOf(out, Math.max(out.length * 2, length + rawLength));
+            }
+            byte[] src;
+            int srcOff;
+            if (source.hasArray()) {
+                src = source.array();
+                srcOff = source.arrayOffset() + source.position();
+                source.position(source.position() + payloadLength);
+            } else {
+                if (scratch == null) {
+                    scratch = new byte[BLOCK_SIZE];
+                }
+                source.get(scratch, 0, payloadLength);
+                src = scratch;
+                srcOff = 0;
+            }
+            decodeBlock(src, srcOff, payloadLength, out, length, rawLength);
+            length += rawLength;
+        }
+        buffer.position(source.position());
+        return length == out.length ? out : Arrays.copyOf(out, length);
+    }
+
+    private static void checkBlock(int rawLength, int payloadLength) throws InvalidPacFormatException {
+        if (rawLength <= 0 || rawLength > BLOCK_SIZE || payloadLength <= 0 || payloadLength > rawLength) {
+            throw new InvalidPacFormatException(String.format("Invalid block of %d bytes from %d",
+                    rawLength, payloadLength));
+        }
+    }
+
+    private static void decodeBlock(byte[] src, int srcOff, int payloadLength, byte[] dst, int dstOff, int rawLength)
+            throws InvalidPacFormatException {
+        if (payloadLength == rawLength) {
+            System.arraycopy(src, srcOff, dst, dstOff, rawLength);
+        } else {
+            decompressBlock(src, srcOff, payloadLength, dst, dstOff, rawLength);
+        }
+    }
+
+    /**
+     * @return The number of bytes written to {@code dst}, or -1 if the block doesn't compress. {@code dst} must have
+     * room for {@link #maxCompressedLength(int)} bytes.
+     */
+    static int compressBlock(byte[] src, int srcOff, int srcLen, byte[] dst, int dstOff, int[] table) {
+        int end = srcOff + srcLen;
+        int matchLimit = end - LAST_LITERALS;
+        int findLimit = end - MATCH_FIND_LIMIT;
+        int anchor = srcOff;
+        int op = dstOff;
+        if (srcLen > MATCH_FIND_LIMIT) {
+            Arrays.fill(table, -1);
+            int ip = srcOff;
+            int searched = 0;
+            while (ip < findLimit) {
+                int sequence = readInt(src, ip);
+                int h = hash(sequence);
+                int ref = table[h];
+                table[h] = ip;
+                if (ref < 0 || ip - ref > MAX_DISTANCE || readInt(src, ref) != sequence) {
+                    //  Speed through data that doesn't seem to match
+                    ip += 1 + (searched++ >>> SKIP_TRIGGER);
+                    continue;
+                }
+                searched = 0;
+                while (ip > anchor && ref > srcOff && src[ip - 1] == src[ref - 1]) {
+                    ip--;
+                    ref--;
+                }
+                int matchLength = MIN_MATCH;
+                while (ip + matchLength < matchLimit && src[ip + matchLength] == src[ref + matchLength]) {
+                    matchLength++;
+                }
+                op = writeSequence(src, anchor, ip - anchor, dst, op, ip - ref, matchLength);
+                ip += matchLength;
+                anchor = ip;
+                if (ip < findLimit) {
+                    table[hash(readInt(src, ip - 2))] = ip - 2;
+                }
+            }
+        }
+        op = writeLiterals(src, anchor, end - anchor, dst, op);
+        int written = op - dstOff;
+        return written < srcLen ? written : -1;
+    }
+
+    static int maxCompressedLength(int srcLen) {
+        return srcLen + srcLen / 255 + 16;
+    }
+
+    private static int writeSequence(byte[] src, int literalOff, int literalLength, byte[] dst, int op,
+                                     int distance, int matchLength) {
+        int matchCode = matchLength - MIN_MATCH;
+        int token = (Math.min(literalLength, 15) << 4) | Math.min(matchCode, 15);
+        dst[op++] = (byte) token;
+        op = writeLength(dst, op, literalLength);
+        System.arraycopy(src, literalOff, dst, op, literalLength);
+        op += literalLength;
+        dst[op++] = (byte) distance;
+        dst[op++] = (byte) (distance >>> 8);
+        return writeLength(dst, op, matchCode);
+    }
+
+    private static int writeLiterals(byte[] src, int literalOff, int literalLength, byte[] dst, int op) {
+        dst[op++] = (byte) (Math.min(literalLength, 15) << 4);
+        op = writeLength(dst, op, literalLength);
+        System.arraycopy(src, literalOff, dst, op, literalLength);
+        return op + literalLength;
+    }
+
+    /**
+     * Writes the part of a length that doesn't fit in its token nibble, if any
+     */
+    private static int writeLength(byte[] dst, int op, int length) {
+        if (length >= 15) {
+            int rest = length - 15;
+            while (rest >= 255) {
+                dst[op++] = (byte) 255;
+                rest -= 255;
+            }
+            dst[op++] = (byte) rest;
+        }
+        return op;
+    }
+
+    static void decompressBlock(byte[] src, int srcOff, int srcLen, byte[] dst, int dstOff, int dstLen)
+            throws InvalidPacFormatException {
+        int ip = srcOff;
+        int srcEnd = srcOff + srcLen;
+        int op = dstOff;
+        int dstEnd = dstOff + dstLen;
+        while (true) {
+            if (ip >= srcEnd) {
+                throw corrupt();
+            }
+            int token = src[ip++] & 0xFF;
+            int literalLength = token >>> 4;
+            if (literalLength == 15) {
+                int b;
+                do {
+                    if (ip >= srcEnd) {
+                        throw corrupt();
+                    }
+                    b = src[ip++] & 0xFF;
+                    literalLength += b;
+                } while (b == 255);
+            }
+            if (literalLength > srcEnd - ip || literalLength > dstEnd - op) {
+                throw corrupt();
+            }
+            System.arraycopy(src, ip, dst, op, literalLength);
+            ip += literalLength;
+            op += literalLength;
+            if (ip == srcEnd) {
+                //  The last sequence has literals only
+                break;
+            }
+            if (srcEnd - ip < 2) {
+                throw corrupt();
+            }
+            int distance = (src[ip] & 0xFF) | (src[ip + 1] & 0xFF) << 8;
+            ip += 2;
+            if (distance == 0 || distance > op - dstOff) {
+                throw corrupt();
+            }
+            int matchLength = token & 0x0F;
+            if (matchLength == 15) {
+                int b;
+                do {
+                    if (ip >= srcEnd) {
+                        throw corrupt();
+                    }
+                    b = src[ip++] & 0xFF;
+                    matchLength += b;
+                } while (b == 255);
+            }
+            matchLength += MIN_MATCH;
+            if (matchLength > dstEnd - op) {
+                throw corrupt();
+            }
+            int ref = op - distance;
+            if (distance >= matchLength) {
+                System.arraycopy(dst, ref, dst, op, matchLength);
+            } else {
+                //  Overlapping match, a repeating pattern. Copy whole periods, doubling each time.
+                int pos = op;
+                int end = op + matchLength;
+                while (pos < end) {
+                    int n = Math.min(pos - ref, end - pos);
+                    System.arraycopy(dst, ref, dst, pos, n);
+                    pos += n;
+                }
+            }
+            op += matchLength;
+        }
+        if (op != dstEnd) {
+            throw corrupt();
+        }
+    }
+
+    private static InvalidPacFormatException corrupt() {
+        return new InvalidPacFormatException("Corrupt LZ block");
+    }
+
+    private static int readInt(byte[] b, int i) {
+        return (b[i] & 0xFF) | (b[i + 1] & 0xFF) << 8 | (b[i + 2] & 0xFF) << 16 | (b[i + 3] & 0xFF) << 24;
+    }
+
+    private static int hash(int sequence) {
+        return (sequence * -1640531535) >>> (32 - HASH_LOG);
+    }
+
+    private static void writeInt(byte[] b, int i, int value) {
+        b[i] = (byte) (value >>> 24);
+        b[i + 1] = (byte) (value >>> 16);
+        b[i + 2] = (byte) (value >>> 8);
+        b[i + 3] = (byte) value;
+    }
+
+    private static int readBigEndianInt(byte[] b, int i) {
+        return (b[i] & 0xFF) << 24 | (b[i + 1] & 0xFF) << 16 | (b[i + 2] & 0xFF) << 8 | (b[i + 3] & 0xFF);
+    }
+
+    /**
+     * Reads until the array is full or the stream ends.
+     *
+     * @return The number of bytes read
+     */
+    private static int readFully(InputStream in, byte[] b, int off, int len) throws IOException {
+        int total = 0;
+        int read;
+        while (total < len && (read = in.read(b, off + total, len - total)) != -1) {
+            total += read;
+        }
+        return total;
+    }
+
+    /**
+     * Compresses a block at a time as it is read
+     */
+    private static class CompressingStream extends InputStream {
+
+        private final InputStream in;
+        private final byte[] raw = new byte[BLOCK_SIZE];
+        private final byte[] out = new byte[BLOCK_HEADER_SIZE + maxCompressedLength(BLOCK_SIZE)];
+        private final int[] table = new int[1 << HASH_LOG];
+        private int outPos;
+        private int outLength;
+        private boolean eof;
+
+        CompressingStream(InputStream in) {
+            this.in = in;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (!fill()) {
+                return -1;
+            }
+            return out[outPos++] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (!fill()) {
+                return -1;
+            }
+            int n = Math.min(len, outLength - outPos);
+            System.arraycopy(out, outPos, b, off, n);
+            outPos += n;
+            return n;
+        }
+
+        private boolean fill() throws IOException {
+            while (outPos == outLength) {
+                if (eof) {
+                    return false;
+                }
+                int rawLength = readFully(in, raw, 0, raw.length);
+                if (rawLength < raw.length) {
+                    eof = true;
+                }
+                if (rawLength == 0) {
+                    continue;
+                }
+                int payloadLength = compressBlock(raw, 0, rawLength, out, BLOCK_HEADER_SIZE, table);
+                if (payloadLength < 0) {
+                    System.arraycopy(raw, 0, out, BLOCK_HEADER_SIZE, rawLength);
+                    payloadLength = rawLength;
+                }
+                writeInt(out, 0, rawLength);
+                writeInt(out, 4, payloadLength);
+                outPos = 0;
+                outLength = BLOCK_HEADER_SIZE + payloadLength;
+            }
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    /**
+     * Decompresses a block at a time as it is read
+     */
+    private static class DecompressingStream extends InputStream {
+
+        private final InputStream in;
+        private final byte[] header = new byte[BLOCK_HEADER_SIZE];
+        private final byte[] payload = new byte[BLOCK_SIZE];
+        private final byte[] out = new byte[BLOCK_SIZE];
+        private int outPos;
+        private int outLength;
+
+        DecompressingStream(InputStream in) {
+            this.in = in;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (!fill()) {
+                return -1;
+            }
+            return out[outPos++] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (!fill()) {
+                return -1;
+            }
+            int n = Math.min(len, outLength - outPos);
+            System.arraycopy(out, outPos, b, off, n);
+            outPos += n;
+            return n;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return outLength - outPos;
+        }
+
+        private boolean fill() throws IOException {
+            if (outPos < outLength) {
+                return true;
+            }
+            int headerLength = readFully(in, header, 0, BLOCK_HEADER_SIZE);
+            if (headerLength == 0) {
+                return false;
+            }
+            if (headerLength < BLOCK_HEADER_SIZE) {
+                throw new EOFException("Truncated block header");
+            }
+            int rawLength = readBigEndianInt(header, 0);
+            int payloadLength = readBigEndianInt(header, 4);
+            checkBlock(rawLength, payloadLength);
+            if (readFully(in, payload, 0, payloadLength) < payloadLength) {
+                throw new EOFException("Truncated block");
+            }
+            decodeBlock(payload, 0, payloadLength, out, 0, rawLength);
+            outPos = 0;
+            outLength = rawLength;
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Vincent Zhang
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package co.phoenixlab.phoenixpac.codec;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Compresses and decompresses assets stored under one compression ID. Codecs are looked up by {@link PacCodecs} and
+ * may be added through {@link java.util.ServiceLoader}. Implementations must be thread-safe.
+ */
+public interface PacCodec {
+
+    /**
+     * @return The ID stored in index entries for assets compressed with this codec, from 1 to 255
+     */
+    int getCompressionId();
+
+    String getName();
+
+    /**
+     * @return The level to compress at when the caller has no preference. The meaning of levels is up to the codec.
+     */
+    int getDefaultLevel();
+
+    /**
+     * Wraps a stream of uncompressed data into a stream of its compressed form. Closing the returned stream closes the
+     * source.
+     */
+    InputStream newCompressingStream(InputStream source, int level) throws IOException;
+
+    /**
+     * Wraps a stream of compressed data into a stream of its decompressed form. Closing the returned stream closes
+     * the source.
+     */
+    InputStream newDecompressingStream(InputStream source) throws IOException;
+
+    /**
+     * Decompresses a whole asset.
+     *
+     * @param memorySize The expected decompressed size, which is only a hint, or -1 if unknown
+     */
+    default byte[] decompress(ByteBuffer source, int memorySize) throws IOException {
+        byte[] compressed = new byte[source.remaining()];
+        source.get(compressed);
+        byte[] out = new byte[Math.max(memorySize, 64)];
+        int length = 0;
+        try (InputStream in = newDecompressingStream(new ByteArrayInputStream(compressed))) {
+            int read;
+            while ((read = in.read(out, length, out.length - length)) != -1) {
+                length += read;
+                if (length == out.length) {
+                    int next = in.read();
+                    if (next == -1) {
+                        break;
+                    }
+                    out = Arrays.copyOf(out, out.length * 2);
+                    out[length++] = (byte) next;
+                }
+            }
+        }
+        return length == out.length ? out : Arrays.copyOf(out, length);
+    }
+
+    /**
+     * Decompresses a whole asset into the given buffer, advancing its position.
+     *
+     * @throws BufferOverflowException If the asset does not fit in the buffer's remaining space
+     */
+    default ByteBuffer decompress(ByteBuffer source, ByteBuffer dst) throws IOException {
+        byte[] bytes = decompress(source, dst.remaining());
+        if (bytes.length > dst.remaining()) {
+            throw new BufferOverflowException();
+        }
+        return dst.put(bytes);
+    }
+}
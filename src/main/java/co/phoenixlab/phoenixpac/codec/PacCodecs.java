@@ -0,0 +1,122 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Vincent Zhang
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package co.phoenixlab.phoenixpac.codec;
+
+import co.phoenixlab.phoenixpac.throwables.UnsupportedCompressionException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Registry of the codecs known for each compression ID. The bundled codecs are always present; others are discovered
+ * through {@link ServiceLoader} the first time the registry is used, or can be registered explicitly.
+ */
+public final class PacCodecs {
+
+    private static final AtomicReferenceArray<PacCodec> CODECS = new AtomicReferenceArray<>(256);
+
+    static {
+        register(new DeflateCodec());
+        register(new LzCodec());
+        register(new ChunkedDeflateCodec());
+        Iterator<PacCodec> providers = ServiceLoader.load(PacCodec.class, PacCodecs.class.getClassLoader()).iterator();
+        while (true) {
+            try {
+                if (!providers.hasNext()) {
+                    break;
+                }
+            } catch (ServiceConfigurationError e) {
+                //  The iterator itself is broken and may keep failing at the same place, so stop looking
+                break;
+            }
+            //  A broken provider shouldn't take the codecs that do work down with it
+            try {
+                PacCodec codec = providers.next();
+                int id = codec.getCompressionId();
+                if (id <= 0 || id >= CODECS.length()) {
+                    continue;
+                }
+                //  Discovered codecs only fill free IDs, so that the classpath can't silently change how assets decode
+                CODECS.compareAndSet(id, null, codec);
+            } catch (ServiceConfigurationError | RuntimeException e) {
+                //  Skip it
+            }
+        }
+    }
+
+    private PacCodecs() {
+    }
+
+    /**
+     * @throws UnsupportedCompressionException If no codec is known for the ID
+     */
+    public static PacCodec get(int compressionId) throws UnsupportedCompressionException {
+        PacCodec codec = find(compressionId);
+        if (codec == null) {
+            throw new UnsupportedCompressionException(compressionId);
+        }
+        return codec;
+    }
+
+    /**
+     * @return The codec for the ID, or null if there is none
+     */
+    public static PacCodec find(int compressionId) {
+        if (compressionId <= 0 || compressionId >= CODECS.length()) {
+            return null;
+        }
+        return CODECS.get(compressionId);
+    }
+
+    /**
+     * Registers a codec, replacing any codec already registered under its compression ID.
+     */
+    public static void register(PacCodec codec) {
+        CODECS.set(checkId(codec.getCompressionId()), codec);
+    }
+
+    public static List<PacCodec> getCodecs() {
+        List<PacCodec> codecs = new ArrayList<>();
+        for (int i = 1; i < CODECS.length(); i++) {
+            PacCodec codec = CODECS.get(i);
+            if (codec != null) {
+                codecs.add(codec);
+            }
+        }
+        return Collections.unmodifiableList(codecs);
+    }
+
+    private static int checkId(int compressionId) {
+        if (compressionId <= 0 || compressionId >= CODECS.length()) {
+            throw new IllegalArgumentException("Compression ID must be between 1 and 255, was " + compressionId);
+        }
+        return compressionId;
+    }
+}
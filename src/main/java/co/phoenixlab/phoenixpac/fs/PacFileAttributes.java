@@ -0,0 +1,115 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Vincent Zhang
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package co.phoenixlab.phoenixpac.fs;
+
+import co.phoenixlab.phoenixpac.IndexEntry;
+import co.phoenixlab.phoenixpac.TypePurposeUniqueId;
+
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+
+/**
+ * Attributes of a file or directory in a {@link PacFileSystem}. Assets carry no timestamps of their own, so every
+ * timestamp is the archive's last modification time.
+ */
+public class PacFileAttributes implements BasicFileAttributes {
+
+    private final IndexEntry entry;
+    private final FileTime time;
+
+    PacFileAttributes(IndexEntry entry, FileTime time) {
+        this.entry = entry;
+        this.time = time;
+    }
+
+    @Override
+    public FileTime lastModifiedTime() {
+        return time;
+    }
+
+    @Override
+    public FileTime lastAccessTime() {
+        return time;
+    }
+
+    @Override
+    public FileTime creationTime() {
+        return time;
+    }
+
+    @Override
+    public boolean isRegularFile() {
+        return entry != null;
+    }
+
+    @Override
+    public boolean isDirectory() {
+        return entry == null;
+    }
+
+    @Override
+    public boolean isSymbolicLink() {
+        return false;
+    }
+
+    @Override
+    public boolean isOther() {
+        return false;
+    }
+
+    /**
+     * @return The asset's decompressed size, or 0 for a directory
+     */
+    @Override
+    public long size() {
+        if (entry == null) {
+            return 0;
+        }
+        return entry.getCompressionId() == 0 ? entry.getDiskSize() : entry.getMemorySize();
+    }
+
+    /**
+     * @return The asset's TPUID, so that both paths of an asset have the same key, or null for a directory
+     */
+    @Override
+    public Object fileKey() {
+        return getTPUID();
+    }
+
+    public TypePurposeUniqueId getTPUID() {
+        return entry == null ? null : entry.getTPUID();
+    }
+
+    /**
+     * @return The asset's size as stored in the archive, or 0 for a directory
+     */
+    public long getDiskSize() {
+        return entry == null ? 0 : entry.getDiskSize();
+    }
+
+    public int getCompressionId() {
+        return entry == null ? 0 : entry.getCompressionId();
+    }
+}
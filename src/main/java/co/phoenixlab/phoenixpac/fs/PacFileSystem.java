@@ -0,0 +1,458 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Vincent Zhang
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package co.phoenixlab.phoenixpac.fs;
+
+import co.phoenixlab.phoenixpac.IndexEntry;
+import co.phoenixlab.phoenixpac.MetadataEntry;
+import co.phoenixlab.phoenixpac.PacSnapshot;
+import co.phoenixlab.phoenixpac.TypePurposeUniqueId;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.ClosedFileSystemException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileStore;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystemException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.NotDirectoryException;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.UserPrincipalLookupService;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A PAC archive mounted as a read-only file system. Every asset can be reached by its TPUID as
+ * {@code /0xTTTT/0xPPPP/0xUUUUUUUU}, the same layout as {@link co.phoenixlab.phoenixpac.TPU#asURL}, and assets with
+ * a {@value #FILENAME_KEY} metadata entry, as written by the pack tool, can also be reached by that name.
+ * <p>
+ * The archive is read into a {@link PacSnapshot} when it is mounted, so the file system can be used from any number of
+ * threads, and later changes to the archive are not seen until it is mounted again.
+ */
+public class PacFileSystem extends FileSystem {
+
+    public static final String FILENAME_KEY = "filename";
+
+    private static final Pattern TPUID_PATH = Pattern.compile(
+            "/(?:0[xX])?([0-9a-fA-F]{1,4})/(?:0[xX])?([0-9a-fA-F]{1,4})/(?:0[xX])?([0-9a-fA-F]{1,8})");
+
+    private final PacFileSystemProvider provider;
+    private final Path archive;
+    private final PacSnapshot snapshot;
+    private final FileTime lastModified;
+    private final PacPath root;
+    /**
+     * Every file and directory by normalized absolute path
+     */
+    private final Map<String, Node> nodes;
+    private volatile boolean open;
+
+    PacFileSystem(PacFileSystemProvider provider, Path archive, PacSnapshot snapshot, FileTime lastModified) {
+        this.provider = provider;
+        this.archive = archive;
+        this.snapshot = snapshot;
+        this.lastModified = lastModified;
+        this.root = new PacPath(this, "/");
+        this.nodes = new HashMap<>();
+        nodes.put("/", new Node(null));
+        for (Iterator<IndexEntry> iterator = snapshot.entries().iterator(); iterator.hasNext(); ) {
+            IndexEntry entry = iterator.next();
+            TypePurposeUniqueId tpuid = entry.getTPUID();
+            add(tpuidPath(tpuid).substring(1).split("/"), entry);
+            MetadataEntry filename = snapshot.getMetadata(tpuid).get(FILENAME_KEY);
+            if (filename != null) {
+                String[] names = splitFilename(filename.getVal());
+                if (names != null) {
+                    add(names, entry);
+                }
+            }
+        }
+        this.open = true;
+    }
+
+    /**
+     * Splits a stored filename into names, accepting either separator. Returns null for names that would escape the
+     * root.
+     */
+    private static String[] splitFilename(String filename) {
+        List<String> names = new ArrayList<>();
+        for (String name : filename.replace('\\', '/').split("/")) {
+            if (name.equals("..")) {
+                return null;
+            }
+            if (!name.isEmpty() && !name.equals(".")) {
+                names.add(name);
+            }
+        }
+        return names.isEmpty() ? null : names.toArray(new String[names.size()]);
+    }
+
+    /**
+     * Adds a file and any missing parent directories. A name that is already taken, or a parent that is a file, leaves
+     * the file out, so that the first asset to claim a name keeps it.
+     */
+    private void add(String[] names, IndexEntry entry) {
+        Node dir = nodes.get("/");
+        StringBuilder path = new StringBuilder();
+        for (int i = 0; i < names.length - 1; i++) {
+            path.append('/').append(names[i]);
+            Node child = nodes.get(path.toString());
+            if (child == null) {
+                child = new Node(null);
+                nodes.put(path.toString(), child);
+                dir.children.add(names[i]);
+            } else if (child.entry != null) {
+                return;
+            }
+            dir = child;
+        }
+        String file = path.append('/').append(names[names.length - 1]).toString();
+        if (!nodes.containsKey(file)) {
+            nodes.put(file, new Node(entry));
+            dir.children.add(names[names.length - 1]);
+        }
+    }
+
+    static String tpuidPath(TypePurposeUniqueId tpuid) {
+        return String.format("/0x%04x/0x%04x/0x%08x", tpuid.getTypeId(), tpuid.getPurposeId(), tpuid.getUniqueId());
+    }
+
+    /**
+     * @return The path of an asset by its TPUID, whether or not the archive has it
+     */
+    public Path getPath(TypePurposeUniqueId tpuid) {
+        return new PacPath(this, tpuidPath(tpuid));
+    }
+
+    /**
+     * @return The archive this file system was mounted from
+     */
+    public Path getArchive() {
+        return archive;
+    }
+
+    /**
+     * @return The snapshot of the archive that this file system serves
+     */
+    public PacSnapshot getSnapshot() {
+        return snapshot;
+    }
+
+    PacPath getRoot() {
+        return root;
+    }
+
+    private Node lookup(Path path) throws NoSuchFileException {
+        if (!open) {
+            throw new ClosedFileSystemException();
+        }
+        String key = path.toAbsolutePath().normalize().toString();
+        Node node = nodes.get(key);
+        if (node == null) {
+            //  Also accept TPUIDs that are not written the canonical way
+            Matcher matcher = TPUID_PATH.matcher(key);
+            if (matcher.matches()) {
+                TypePurposeUniqueId tpuid = new TypePurposeUniqueId(Integer.parseInt(matcher.group(1), 16),
+                        Integer.parseInt(matcher.group(2), 16), (int) Long.parseLong(matcher.group(3), 16));
+                node = nodes.get(tpuidPath(tpuid));
+            }
+        }
+        if (node == null) {
+            throw new NoSuchFileException(path.toString());
+        }
+        return node;
+    }
+
+    SeekableByteChannel newByteChannel(Path path) throws IOException {
+        Node node = lookup(path);
+        if (node.entry == null) {
+            throw new FileSystemException(path.toString(), null, "Is a directory");
+        }
+        return snapshot.getHandle(node.entry.getTPUID()).newDecompressedChannel();
+    }
+
+    DirectoryStream<Path> newDirectoryStream(Path dir, DirectoryStream.Filter<? super Path> filter)
+            throws IOException {
+        Node node = lookup(dir);
+        if (node.entry != null) {
+            throw new NotDirectoryException(dir.toString());
+        }
+        List<Path> children = new ArrayList<>(node.children.size());
+        for (String name : node.children) {
+            Path child = dir.resolve(name);
+            if (filter == null || filter.accept(child)) {
+                children.add(child);
+            }
+        }
+        return new DirectoryStream<Path>() {
+
+            private boolean iterated;
+
+            @Override
+            public Iterator<Path> iterator() {
+                if (iterated) {
+                    throw new IllegalStateException("Iterator already obtained");
+                }
+                iterated = true;
+                return Collections.unmodifiableList(children).iterator();
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+
+    PacFileAttributes readAttributes(Path path) throws IOException {
+        return new PacFileAttributes(lookup(path).entry, lastModified);
+    }
+
+    /**
+     * @return Whether both paths lead to the same file or directory
+     */
+    boolean isSameFile(Path path, Path other) throws IOException {
+        Node node = lookup(path);
+        Node otherNode = lookup(other);
+        return node == otherNode || (node.entry != null && otherNode.entry != null &&
+                node.entry.getTPUID().equals(otherNode.entry.getTPUID()));
+    }
+
+    URI toUri(String absolutePath) {
+        try {
+            String rawPath = new URI(null, null, absolutePath, null).getRawPath();
+            return new URI(PacFileSystemProvider.SCHEME + ":" + archive.toUri().toString() + "!" + rawPath);
+        } catch (URISyntaxException e) {
+            //  Shouldn't happen
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public PacFileSystemProvider provider() {
+        return provider;
+    }
+
+    /**
+     * Unmounts the archive. Channels that are already open may stop working.
+     */
+    @Override
+    public void close() throws IOException {
+        if (open) {
+            open = false;
+            provider.removeFileSystem(archive, this);
+            snapshot.close();
+        }
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public boolean isReadOnly() {
+        return true;
+    }
+
+    @Override
+    public String getSeparator() {
+        return "/";
+    }
+
+    @Override
+    public Iterable<Path> getRootDirectories() {
+        return Collections.singletonList(root);
+    }
+
+    @Override
+    public Iterable<FileStore> getFileStores() {
+        return Collections.emptyList();
+    }
+
+    @Override
+    public Set<String> supportedFileAttributeViews() {
+        return Collections.singleton("basic");
+    }
+
+    @Override
+    public Path getPath(String first, String... more) {
+        StringBuilder path = new StringBuilder(first);
+        for (String name : more) {
+            if (!name.isEmpty()) {
+                if (path.length() > 0) {
+                    path.append('/');
+                }
+                path.append(name);
+            }
+        }
+        return new PacPath(this, path.toString());
+    }
+
+    /**
+     * Supports the {@code glob} and {@code regex} syntaxes. Globs support {@code * ** ? [...] {...,...}} and
+     * backslash escapes, with {@code *} and {@code ?} not crossing directory boundaries.
+     */
+    @Override
+    public PathMatcher getPathMatcher(String syntaxAndPattern) {
+        int colon = syntaxAndPattern.indexOf(':');
+        if (colon <= 0) {
+            throw new IllegalArgumentException("Expected syntax:pattern, got " + syntaxAndPattern);
+        }
+        String syntax = syntaxAndPattern.substring(0, colon);
+        String pattern = syntaxAndPattern.substring(colon + 1);
+        String regex;
+        if (syntax.equalsIgnoreCase("glob")) {
+            regex = globToRegex(pattern);
+        } else if (syntax.equalsIgnoreCase("regex")) {
+            regex = pattern;
+        } else {
+            throw new UnsupportedOperationException("Syntax '" + syntax + "' not recognized");
+        }
+        Pattern compiled = Pattern.compile(regex);
+        return path -> compiled.matcher(path.toString()).matches();
+    }
+
+    static String globToRegex(String glob) {
+        StringBuilder regex = new StringBuilder();
+        boolean inGroup = false;
+        for (int i = 0; i < glob.length(); i++) {
+            char c = glob.charAt(i);
+            switch (c) {
+                case '\\':
+                    if (++i < glob.length()) {
+                        appendLiteral(regex, glob.charAt(i));
+                    }
+                    break;
+                case '*':
+                    if (i + 1 < glob.length() && glob.charAt(i + 1) == '*') {
+                        regex.append(".*");
+                        ++i;
+                    } else {
+                        regex.append("[^/]*");
+                    }
+                    break;
+                case '?':
+                    regex.append("[^/]");
+                    break;
+                case '[':
+                    int close = glob.indexOf(']', i + 1);
+                    if (close < 0) {
+                        throw new IllegalArgumentException("Unclosed [ in " + glob);
+                    }
+                    regex.append('[');
+                    int start = i + 1;
+                    if (start < close && glob.charAt(start) == '!') {
+                        regex.append('^');
+                        ++start;
+                    }
+                    for (int j = start; j < close; j++) {
+                        char d = glob.charAt(j);
+                        if (d == '[' || d == '\\' || d == '&' || d == '^') {
+                            regex.append('\\');
+                        }
+                        regex.append(d);
+                    }
+                    regex.append(']');
+                    i = close;
+                    break;
+                case '{':
+                    if (inGroup) {
+                        throw new IllegalArgumentException("Nested { in " + glob);
+                    }
+                    regex.append("(?:");
+                    inGroup = true;
+                    break;
+                case '}':
+                    if (inGroup) {
+                        regex.append(')');
+                        inGroup = false;
+                    } else {
+                        appendLiteral(regex, c);
+                    }
+                    break;
+                case ',':
+                    if (inGroup) {
+                        regex.append('|');
+                    } else {
+                        appendLiteral(regex, c);
+                    }
+                    break;
+                default:
+                    appendLiteral(regex, c);
+            }
+        }
+        if (inGroup) {
+            throw new IllegalArgumentException("Unclosed { in " + glob);
+        }
+        return regex.toString();
+    }
+
+    private static void appendLiteral(StringBuilder regex, char c) {
+        if ("\\.[]{}()*+-?^$|".indexOf(c) >= 0) {
+            regex.append('\\');
+        }
+        regex.append(c);
+    }
+
+    @Override
+    public UserPrincipalLookupService getUserPrincipalLookupService() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public WatchService newWatchService() throws IOException {
+        throw new UnsupportedOperationException("PAC file systems are read only and cannot be watched");
+    }
+
+    private static class Node {
+
+        /**
+         * Null for a directory
+         */
+        final IndexEntry entry;
+        /**
+         * Names of a directory's children, sorted
+         */
+        final Set<String> children;
+
+        Node(IndexEntry entry) {
+            this.entry = entry;
+            this.children = entry == null ? new TreeSet<>() : Collections.emptySet();
+        }
+    }
+}
@@ -0,0 +1,328 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Vincent Zhang
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package co.phoenixlab.phoenixpac.fs;
+
+import co.phoenixlab.phoenixpac.PacFileReader;
+import co.phoenixlab.phoenixpac.PacSnapshot;
+import co.phoenixlab.phoenixpac.throwables.InvalidPacFormatException;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.AccessMode;
+import java.nio.file.CopyOption;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileStore;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystemAlreadyExistsException;
+import java.nio.file.FileSystemNotFoundException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.ProviderMismatchException;
+import java.nio.file.ReadOnlyFileSystemException;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributeView;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileAttribute;
+import java.nio.file.attribute.FileAttributeView;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.spi.FileSystemProvider;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Provides read-only {@link PacFileSystem}s for the {@value #SCHEME} scheme. A file system can be opened for an archive
+ * with {@link FileSystems#newFileSystem(Path, ClassLoader)}, or with a URI of the form
+ * {@code pac:file:///path/to/archive.pac!/} through {@link FileSystems#newFileSystem(URI, Map)}, after which
+ * {@code pac:file:///path/to/archive.pac!/0xTTTT/0xPPPP/0xUUUUUUUU} URIs resolve to its assets through
+ * {@link Paths#get(URI)}.
+ */
+public class PacFileSystemProvider extends FileSystemProvider {
+
+    public static final String SCHEME = "pac";
+
+    /**
+     * File systems opened by URI, by archive path. Guarded by itself.
+     */
+    private final Map<Path, PacFileSystem> fileSystems;
+
+    public PacFileSystemProvider() {
+        fileSystems = new HashMap<>();
+    }
+
+    @Override
+    public String getScheme() {
+        return SCHEME;
+    }
+
+    @Override
+    public PacFileSystem newFileSystem(URI uri, Map<String, ?> env) throws IOException {
+        Path archive = archivePath(uri);
+        synchronized (fileSystems) {
+            if (fileSystems.containsKey(archive)) {
+                throw new FileSystemAlreadyExistsException(archive.toString());
+            }
+            PacFileSystem fileSystem = open(archive);
+            fileSystems.put(archive, fileSystem);
+            return fileSystem;
+        }
+    }
+
+    /**
+     * Mounts the archive at the given path. The file system is not registered for lookup by URI, so the same archive
+     * can be mounted any number of times this way.
+     *
+     * @throws UnsupportedOperationException If the file is not a PAC archive, so that other providers get a chance
+     */
+    @Override
+    public PacFileSystem newFileSystem(Path path, Map<String, ?> env) throws IOException {
+        if (path.getFileSystem() != FileSystems.getDefault()) {
+            throw new UnsupportedOperationException("Archives must be on the default file system");
+        }
+        try {
+            return open(path.toAbsolutePath().normalize());
+        } catch (InvalidPacFormatException | EOFException e) {
+            //  Too short for a header is as much not an archive as a bad magic number
+            throw new UnsupportedOperationException(path + " is not a PAC archive", e);
+        }
+    }
+
+    private PacFileSystem open(Path archive) throws IOException {
+        PacSnapshot snapshot;
+        try (PacFileReader reader = new PacFileReader(archive)) {
+            snapshot = reader.readSnapshot();
+        } catch (IOException | RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException(e);
+        }
+        FileTime lastModified = Files.getLastModifiedTime(archive);
+        return new PacFileSystem(this, archive, snapshot, lastModified);
+    }
+
+    void removeFileSystem(Path archive, PacFileSystem fileSystem) {
+        synchronized (fileSystems) {
+            if (fileSystems.get(archive) == fileSystem) {
+                fileSystems.remove(archive);
+            }
+        }
+    }
+
+    @Override
+    public PacFileSystem getFileSystem(URI uri) {
+        Path archive = archivePath(uri);
+        synchronized (fileSystems) {
+            PacFileSystem fileSystem = fileSystems.get(archive);
+            if (fileSystem == null) {
+                throw new FileSystemNotFoundException(archive.toString());
+            }
+            return fileSystem;
+        }
+    }
+
+    @Override
+    public Path getPath(URI uri) {
+        String spec = uri.getRawSchemeSpecificPart();
+        int separator = spec.indexOf("!/");
+        String entry = separator < 0 ? "/" : URI.create(spec.substring(separator + 1)).getPath();
+        return getFileSystem(uri).getPath(entry);
+    }
+
+    /**
+     * @return The archive a {@code pac:<archive URI>!/<path>} URI points into
+     */
+    private Path archivePath(URI uri) {
+        if (!SCHEME.equalsIgnoreCase(uri.getScheme())) {
+            throw new IllegalArgumentException("URI scheme is not '" + SCHEME + "'");
+        }
+        String spec = uri.getRawSchemeSpecificPart();
+        int separator = spec.indexOf("!/");
+        if (separator >= 0) {
+            spec = spec.substring(0, separator);
+        }
+        return Paths.get(URI.create(spec)).toAbsolutePath().normalize();
+    }
+
+    private static PacPath toPacPath(Path path) {
+        if (!(path instanceof PacPath)) {
+            throw new ProviderMismatchException();
+        }
+        return (PacPath) path;
+    }
+
+    @Override
+    public SeekableByteChannel newByteChannel(Path path, Set<? extends OpenOption> options,
+                                              FileAttribute<?>... attrs) throws IOException {
+        for (OpenOption option : options) {
+            if (option == StandardOpenOption.WRITE || option == StandardOpenOption.APPEND ||
+                    option == StandardOpenOption.CREATE_NEW || option == StandardOpenOption.DELETE_ON_CLOSE) {
+                throw new ReadOnlyFileSystemException();
+            }
+        }
+        return toPacPath(path).getFileSystem().newByteChannel(path);
+    }
+
+    @Override
+    public DirectoryStream<Path> newDirectoryStream(Path dir, DirectoryStream.Filter<? super Path> filter)
+            throws IOException {
+        return toPacPath(dir).getFileSystem().newDirectoryStream(dir, filter);
+    }
+
+    @Override
+    public void createDirectory(Path dir, FileAttribute<?>... attrs) throws IOException {
+        throw new ReadOnlyFileSystemException();
+    }
+
+    @Override
+    public void delete(Path path) throws IOException {
+        throw new ReadOnlyFileSystemException();
+    }
+
+    @Override
+    public void copy(Path source, Path target, CopyOption... options) throws IOException {
+        throw new ReadOnlyFileSystemException();
+    }
+
+    @Override
+    public void move(Path source, Path target, CopyOption... options) throws IOException {
+        throw new ReadOnlyFileSystemException();
+    }
+
+    /**
+     * Paths are the same file if they lead to the same asset, such as an asset's TPUID path and its filename.
+     */
+    @Override
+    public boolean isSameFile(Path path, Path path2) throws IOException {
+        if (path.equals(path2)) {
+            return true;
+        }
+        if (!(path2 instanceof PacPath) || path.getFileSystem() != path2.getFileSystem()) {
+            return false;
+        }
+        return toPacPath(path).getFileSystem().isSameFile(path, path2);
+    }
+
+    @Override
+    public boolean isHidden(Path path) throws IOException {
+        return false;
+    }
+
+    @Override
+    public FileStore getFileStore(Path path) throws IOException {
+        throw new UnsupportedOperationException("PAC file systems have no file stores");
+    }
+
+    @Override
+    public void checkAccess(Path path, AccessMode... modes) throws IOException {
+        toPacPath(path).getFileSystem().readAttributes(path);
+        for (AccessMode mode : modes) {
+            if (mode != AccessMode.READ) {
+                throw new AccessDeniedException(path.toString(), null, "PAC file systems are read only");
+            }
+        }
+    }
+
+    @Override
+    public <V extends FileAttributeView> V getFileAttributeView(Path path, Class<V> type, LinkOption... options) {
+        if (type != BasicFileAttributeView.class) {
+            return null;
+        }
+        PacFileSystem fileSystem = toPacPath(path).getFileSystem();
+        return type.cast(new BasicFileAttributeView() {
+            @Override
+            public String name() {
+                return "basic";
+            }
+
+            @Override
+            public BasicFileAttributes readAttributes() throws IOException {
+                return fileSystem.readAttributes(path);
+            }
+
+            @Override
+            public void setTimes(FileTime lastModifiedTime, FileTime lastAccessTime, FileTime createTime) {
+                throw new ReadOnlyFileSystemException();
+            }
+        });
+    }
+
+    @Override
+    public <A extends BasicFileAttributes> A readAttributes(Path path, Class<A> type, LinkOption... options)
+            throws IOException {
+        if (!type.isAssignableFrom(PacFileAttributes.class)) {
+            throw new UnsupportedOperationException(type.getName() + " not supported");
+        }
+        return type.cast(toPacPath(path).getFileSystem().readAttributes(path));
+    }
+
+    @Override
+    public Map<String, Object> readAttributes(Path path, String attributes, LinkOption... options)
+            throws IOException {
+        String names = attributes;
+        int colon = attributes.indexOf(':');
+        if (colon >= 0) {
+            String view = attributes.substring(0, colon);
+            if (!view.equals("basic")) {
+                throw new UnsupportedOperationException("View '" + view + "' not available");
+            }
+            names = attributes.substring(colon + 1);
+        }
+        PacFileAttributes attrs = toPacPath(path).getFileSystem().readAttributes(path);
+        Map<String, Object> all = new LinkedHashMap<>();
+        all.put("lastModifiedTime", attrs.lastModifiedTime());
+        all.put("lastAccessTime", attrs.lastAccessTime());
+        all.put("creationTime", attrs.creationTime());
+        all.put("size", attrs.size());
+        all.put("isRegularFile", attrs.isRegularFile());
+        all.put("isDirectory", attrs.isDirectory());
+        all.put("isSymbolicLink", attrs.isSymbolicLink());
+        all.put("isOther", attrs.isOther());
+        all.put("fileKey", attrs.fileKey());
+        Map<String, Object> ret = new LinkedHashMap<>();
+        for (String name : names.split(",")) {
+            if (name.equals("*")) {
+                ret.putAll(all);
+            } else if (all.containsKey(name)) {
+                ret.put(name, all.get(name));
+            } else {
+                throw new IllegalArgumentException("'" + name + "' not recognized");
+            }
+        }
+        return ret;
+    }
+
+    @Override
+    public void setAttribute(Path path, String attribute, Object value, LinkOption... options) throws IOException {
+        throw new ReadOnlyFileSystemException();
+    }
+}
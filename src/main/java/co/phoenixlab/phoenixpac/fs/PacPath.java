@@ -0,0 +1,382 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Vincent Zhang
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package co.phoenixlab.phoenixpac.fs;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.InvalidPathException;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.ProviderMismatchException;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * A path inside a {@link PacFileSystem}. Names are separated by {@code /}, and absolute paths start at the archive's
+ * single root.
+ */
+class PacPath implements Path {
+
+    private final PacFileSystem fileSystem;
+    private final String path;
+    /**
+     * Start of each name in {@link #path}, computed on first use
+     */
+    private volatile int[] offsets;
+
+    PacPath(PacFileSystem fileSystem, String path) {
+        this.fileSystem = fileSystem;
+        this.path = normalizeSeparators(path);
+    }
+
+    private static String normalizeSeparators(String path) {
+        StringBuilder builder = new StringBuilder(path.length());
+        char prev = 0;
+        for (int i = 0; i < path.length(); i++) {
+            char c = path.charAt(i);
+            if (c == '\u0000') {
+                throw new InvalidPathException(path, "Nul character not allowed");
+            }
+            if (c != '/' || prev != '/') {
+                builder.append(c);
+            }
+            prev = c;
+        }
+        if (builder.length() > 1 && builder.charAt(builder.length() - 1) == '/') {
+            builder.setLength(builder.length() - 1);
+        }
+        return builder.toString();
+    }
+
+    private int[] offsets() {
+        int[] ret = offsets;
+        if (ret == null) {
+            List<Integer> starts = new ArrayList<>();
+            if (path.isEmpty()) {
+                //  The empty path has one empty name
+                starts.add(0);
+            }
+            for (int i = 0; i < path.length(); i++) {
+                if (path.charAt(i) != '/' && (i == 0 || path.charAt(i - 1) == '/')) {
+                    starts.add(i);
+                }
+            }
+            ret = new int[starts.size()];
+            for (int i = 0; i < ret.length; i++) {
+                ret[i] = starts.get(i);
+            }
+            offsets = ret;
+        }
+        return ret;
+    }
+
+    private int end(int index) {
+        int[] starts = offsets();
+        return index + 1 < starts.length ? starts[index + 1] - 1 : path.length();
+    }
+
+    /**
+     * Names of this path, none for the root or the empty path
+     */
+    private List<String> names() {
+        List<String> ret = new ArrayList<>();
+        if (!path.isEmpty()) {
+            int[] starts = offsets();
+            for (int i = 0; i < starts.length; i++) {
+                ret.add(path.substring(starts[i], end(i)));
+            }
+        }
+        return ret;
+    }
+
+    private PacPath toPacPath(Path other) {
+        if (!(other instanceof PacPath)) {
+            throw new ProviderMismatchException();
+        }
+        return (PacPath) other;
+    }
+
+    private PacPath join(boolean absolute, List<String> names) {
+        StringBuilder builder = new StringBuilder();
+        if (absolute) {
+            builder.append('/');
+        }
+        for (int i = 0; i < names.size(); i++) {
+            if (i > 0) {
+                builder.append('/');
+            }
+            builder.append(names.get(i));
+        }
+        return new PacPath(fileSystem, builder.toString());
+    }
+
+    @Override
+    public PacFileSystem getFileSystem() {
+        return fileSystem;
+    }
+
+    @Override
+    public boolean isAbsolute() {
+        return path.startsWith("/");
+    }
+
+    @Override
+    public Path getRoot() {
+        return isAbsolute() ? fileSystem.getRoot() : null;
+    }
+
+    @Override
+    public Path getFileName() {
+        int count = getNameCount();
+        if (count == 0) {
+            return null;
+        }
+        if (count == 1 && !isAbsolute()) {
+            return this;
+        }
+        return getName(count - 1);
+    }
+
+    @Override
+    public Path getParent() {
+        int count = getNameCount();
+        if (count == 0) {
+            return null;
+        }
+        if (count == 1) {
+            return getRoot();
+        }
+        return new PacPath(fileSystem, path.substring(0, offsets()[count - 1] - 1));
+    }
+
+    @Override
+    public int getNameCount() {
+        return path.equals("/") ? 0 : offsets().length;
+    }
+
+    @Override
+    public Path getName(int index) {
+        return subpath(index, index + 1);
+    }
+
+    @Override
+    public Path subpath(int beginIndex, int endIndex) {
+        if (beginIndex < 0 || beginIndex >= endIndex || endIndex > getNameCount()) {
+            throw new IllegalArgumentException();
+        }
+        return new PacPath(fileSystem, path.substring(offsets()[beginIndex], end(endIndex - 1)));
+    }
+
+    @Override
+    public boolean startsWith(Path other) {
+        if (!(other instanceof PacPath) || other.getFileSystem() != fileSystem) {
+            return false;
+        }
+        PacPath that = (PacPath) other;
+        if (that.isAbsolute() != isAbsolute()) {
+            return false;
+        }
+        if (that.path.isEmpty()) {
+            return path.isEmpty();
+        }
+        List<String> names = names();
+        List<String> prefix = that.names();
+        return prefix.size() <= names.size() && names.subList(0, prefix.size()).equals(prefix);
+    }
+
+    @Override
+    public boolean startsWith(String other) {
+        return startsWith(fileSystem.getPath(other));
+    }
+
+    @Override
+    public boolean endsWith(Path other) {
+        if (!(other instanceof PacPath) || other.getFileSystem() != fileSystem) {
+            return false;
+        }
+        PacPath that = (PacPath) other;
+        if (that.isAbsolute()) {
+            return equals(that);
+        }
+        if (that.path.isEmpty()) {
+            return path.isEmpty();
+        }
+        List<String> names = names();
+        List<String> suffix = that.names();
+        return suffix.size() <= names.size() &&
+                names.subList(names.size() - suffix.size(), names.size()).equals(suffix);
+    }
+
+    @Override
+    public boolean endsWith(String other) {
+        return endsWith(fileSystem.getPath(other));
+    }
+
+    @Override
+    public Path normalize() {
+        List<String> names = new ArrayList<>();
+        for (String name : names()) {
+            if (name.equals(".")) {
+                continue;
+            }
+            if (name.equals("..")) {
+                if (!names.isEmpty() && !names.get(names.size() - 1).equals("..")) {
+                    names.remove(names.size() - 1);
+                    continue;
+                }
+                if (isAbsolute()) {
+                    //  The root is its own parent
+                    continue;
+                }
+            }
+            names.add(name);
+        }
+        return join(isAbsolute(), names);
+    }
+
+    @Override
+    public Path resolve(Path other) {
+        PacPath that = toPacPath(other);
+        if (that.isAbsolute()) {
+            return that;
+        }
+        if (that.path.isEmpty()) {
+            return this;
+        }
+        if (path.isEmpty()) {
+            return that;
+        }
+        return new PacPath(fileSystem, path.equals("/") ? "/" + that.path : path + "/" + that.path);
+    }
+
+    @Override
+    public Path resolve(String other) {
+        return resolve(fileSystem.getPath(other));
+    }
+
+    @Override
+    public Path resolveSibling(Path other) {
+        Path parent = getParent();
+        return parent == null ? toPacPath(other) : parent.resolve(other);
+    }
+
+    @Override
+    public Path resolveSibling(String other) {
+        return resolveSibling(fileSystem.getPath(other));
+    }
+
+    @Override
+    public Path relativize(Path other) {
+        PacPath that = toPacPath(other);
+        if (that.isAbsolute() != isAbsolute()) {
+            throw new IllegalArgumentException("Cannot relativize an absolute and a relative path");
+        }
+        List<String> from = names();
+        List<String> to = that.names();
+        int common = 0;
+        while (common < from.size() && common < to.size() && from.get(common).equals(to.get(common))) {
+            ++common;
+        }
+        List<String> names = new ArrayList<>();
+        for (int i = common; i < from.size(); i++) {
+            names.add("..");
+        }
+        names.addAll(to.subList(common, to.size()));
+        return join(false, names);
+    }
+
+    @Override
+    public URI toUri() {
+        return fileSystem.toUri(toAbsolutePath().toString());
+    }
+
+    @Override
+    public Path toAbsolutePath() {
+        return isAbsolute() ? this : fileSystem.getRoot().resolve(this);
+    }
+
+    @Override
+    public Path toRealPath(LinkOption... options) throws IOException {
+        Path real = toAbsolutePath().normalize();
+        fileSystem.provider().checkAccess(real);
+        return real;
+    }
+
+    @Override
+    public File toFile() {
+        throw new UnsupportedOperationException("Paths inside an archive have no File");
+    }
+
+    @Override
+    public WatchKey register(WatchService watcher, WatchEvent.Kind<?>[] events, WatchEvent.Modifier... modifiers) {
+        throw new UnsupportedOperationException("PAC file systems are read only and cannot be watched");
+    }
+
+    @Override
+    public WatchKey register(WatchService watcher, WatchEvent.Kind<?>... events) {
+        return register(watcher, events, new WatchEvent.Modifier[0]);
+    }
+
+    @Override
+    public Iterator<Path> iterator() {
+        List<Path> names = new ArrayList<>();
+        for (int i = 0; i < getNameCount(); i++) {
+            names.add(getName(i));
+        }
+        return names.iterator();
+    }
+
+    @Override
+    public int compareTo(Path other) {
+        return path.compareTo(toPacPath(other).path);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        PacPath that = (PacPath) o;
+        return fileSystem == that.fileSystem && path.equals(that.path);
+    }
+
+    @Override
+    public int hashCode() {
+        return path.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return path;
+    }
+}
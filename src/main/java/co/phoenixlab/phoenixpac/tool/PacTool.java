@@ -3,15 +3,11 @@ package co.phoenixlab.phoenixpac.tool;
 import co.phoenixlab.phoenixpac.*;
 
 import java.io.*;
-import java.nio.channels.Channels;
-import java.nio.channels.FileChannel;
-import java.nio.channels.ReadableByteChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.*;
-import java.util.zip.InflaterInputStream;
 
 public class PacTool {
 
@@ -50,12 +46,6 @@ public class PacTool {
     }
 
     private static void pack(String[] args) {
-
-        //  TODO Add compression support
-
-        //  TODO We may need to switch to a custom implementation
-        //  for saving/building a PAC so we don't load all of the data into memory simultaneously
-
         Path mappings;
         if (args.length > 0) {
             mappings = Paths.get(args[0]);
@@ -71,6 +61,7 @@ public class PacTool {
         }
         Map<TypePurposeUniqueId, Path> files = new HashMap<>(20);
         Path pacPath = Paths.get("out.pac");
+        Path tracePath = null;
         Path mappingsParent = mappings.getParent();
         try (BufferedReader reader = Files.newBufferedReader(mappings, StandardCharsets.UTF_8)) {
             Properties properties = new Properties();
@@ -80,6 +71,8 @@ public class PacTool {
                 String val = (String) entry.getValue();
                 if ("output".equalsIgnoreCase(key)) {
                     pacPath = Paths.get(val);
+                } else if ("trace".equalsIgnoreCase(key)) {
+                    tracePath = Paths.get(val);
                 } else {
                     try {
                         TypePurposeUniqueId tpuid = TPU.valueOf(key);
@@ -99,42 +92,48 @@ public class PacTool {
             return;
         }
         pacPath = mappingsParent.resolve(pacPath).normalize().toAbsolutePath();
+        //  Assets the trace saw go first, in the order they were loaded, and the rest in TPUID order so that builds
+        //  don't depend on hash order
+        Comparator<TypePurposeUniqueId> order = Comparator.naturalOrder();
+        if (tracePath != null) {
+            tracePath = mappingsParent.resolve(tracePath).normalize().toAbsolutePath();
+            try {
+                AccessTrace trace = AccessTrace.load(tracePath);
+                order = trace.layoutOrder().thenComparing(order);
+                System.out.printf("Laying out %d traced assets from %s first%n", trace.size(), tracePath.toString());
+            } catch (IOException e) {
+                System.err.println("Unable to read access trace " + tracePath.toString());
+                e.printStackTrace();
+                return;
+            }
+        }
+        List<Map.Entry<TypePurposeUniqueId, Path>> ordered = new ArrayList<>(files.entrySet());
+        ordered.sort(Map.Entry.comparingByKey(order));
         int written = 0;
         try (PacFileWriter writer = new PacFileWriter(pacPath, true)) {
-            HandlePacBuilder builder = HandlePacBuilder.newBuilder().buildHeader().
-                        withLatestVersion().
-                        setFlag(PacHeader.FLAG_USE_LONG_OFFSETS, false).
-                    finishHeader();
-            //  Packing!
-            for (Map.Entry<TypePurposeUniqueId, Path> entry : files.entrySet()) {
+            //  Media assets are usually compressed already, so don't spend time deflating them for nothing
+            writer.setCompressionPolicy(CompressionPolicy.adaptive());
+            writer.setDeduplicate(true);
+            writer.setAutoOffsetWidth(true);
+            //  Assets are streamed straight into the PAC, so only their index entries stay in memory
+            writer.begin(false);
+            PacMetadata metadata = new PacMetadata();
+            for (Map.Entry<TypePurposeUniqueId, Path> entry : ordered) {
                 Path file = entry.getValue();
                 TypePurposeUniqueId key = entry.getKey();
                 try {
                     System.out.println("Packing " + file.toString() + " as " + key.toString());
-                    RawAssetHandle assetHandle = new RawAssetHandle(file);
-                    int size = (int) Files.size(file);
-                    builder = builder.newEntry().
-                            withAssetHandle(assetHandle).
-                            withSize(size).
-                            withCompression(0).
-                            withTPUID(key).
-                            withComputedSha256Hash().
-                            add();
-                    // @formatter:off
-                    builder = builder.buildMetadata().
-                            editBlock(key).
-                                addEntry("filename", mappingsParent.relativize(file).toString()).
-                                add().
-                            finish();
-                    // @formatter:on
+                    writer.append(key, new RawAssetHandle(file));
+                    String filename = mappingsParent.relativize(file).toString();
+                    metadata.getOrCreateBlock(key).getEntries().put("filename", new MetadataEntry("filename", filename));
                     ++written;
                 } catch (IOException e) {
+                    //  The writer drops whatever it wrote of the asset, so the rest can still be packed
                     System.err.println("Unable to add asset " + file.toString() + " @ " + key.toString());
                     e.printStackTrace();
                 }
             }
-            HandledPacFile<AssetHandle> res = builder.finish();
-            writer.writeNew(res);
+            writer.finish(metadata);
             System.out.printf("Packed %s assets to %s%n", written, pacPath.toString());
         } catch (Exception e) {
             System.err.println("Unable to add assets");
@@ -156,8 +155,8 @@ public class PacTool {
             System.err.println(file.normalize().toAbsolutePath().toString() + " does not exist or is not a file");
             System.exit(1);
         }
-        try (PacFileReader reader = new PacFileReader(file)) {
-            PacFile pacFile = reader.read();
+        try (PacFileReader reader = new PacFileReader(file);
+             PacFile pacFile = reader.read()) {
             LinkedHashMap<TypePurposeUniqueId, IndexEntry> entries = pacFile.getIndex().getEntries();
             System.out.printf("Files: %-8d%n", pacFile.getIndex().getNumIndexEntries());
             int count = 0;
@@ -192,8 +191,8 @@ public class PacTool {
             System.err.println(file.normalize().toAbsolutePath().toString() + " does not exist or is not a file");
             System.exit(1);
         }
-        try (PacFileReader reader = new PacFileReader(file)) {
-            PacFile pacFile = reader.read();
+        try (PacFileReader reader = new PacFileReader(file);
+             PacFile pacFile = reader.read()) {
             LinkedHashMap<TypePurposeUniqueId, IndexEntry> entries = pacFile.getIndex().getEntries();
             Path parent = file.getParent();
             byte[] buffer = new byte[128 * 1024];
@@ -214,35 +213,16 @@ public class PacTool {
                     Path target = parent.resolve(filename);
                     System.out.printf("Unpacking %s%n", target.toString());
                     AssetHandle handle = pacFile.getHandle(tpuid);
-                    InputStream inputStream = handle.getRawStream();
-                    total = entry.getMemorySize();
+                    total = Math.max(entry.getMemorySize(), 1);
                     completed = 0;
                     Files.createDirectories(target.getParent());
-                    int compId = handle.getCompressionId();
-                    if (compId == 0) {
-                        try (BufferedOutputStream outputStream =
-                                 new BufferedOutputStream(Files.newOutputStream(target))) {
-                            while ((read = inputStream.read(buffer)) != -1) {
-                                outputStream.write(buffer, 0, read);
-                                completed += read * 100;
-                                System.out.printf("\r>>>> %d%%", (completed / total));
-                            }
-                            outputStream.flush();
-                        }
-                    } else if (compId == PacFile.COMPRESSION_DEFLATE) {
-                        Files.deleteIfExists(target);
-                        try (RandomAccessFile raf = new RandomAccessFile(target.toFile(), "rw")) {
-                            ReadableByteChannel in = Channels.newChannel(new InflaterInputStream(inputStream));
-                            FileChannel outCh = raf.getChannel();
-                            long written = 0;
-                            long writ;
-                            while ((writ = outCh.transferFrom(in, written, 8192)) != 0) {
-                                written += writ;
-                                System.out.printf("\r>>>> %d%%", (100L * written) / total);
-                            }
+                    try (InputStream inputStream = handle.getDecompressedStream();
+                         OutputStream outputStream = Files.newOutputStream(target)) {
+                        while ((read = inputStream.read(buffer)) != -1) {
+                            outputStream.write(buffer, 0, read);
+                            completed += read;
+                            System.out.printf("\r>>>> %d%%", (100L * completed) / total);
                         }
-                    } else {
-                        throw new UnsupportedOperationException("Unknown compression ID " + compId);
                     }
 
                     System.out.printf("%nUnpacked %s%n", target.toString());
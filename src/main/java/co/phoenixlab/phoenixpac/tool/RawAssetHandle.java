@@ -52,4 +52,19 @@ class RawAssetHandle implements AssetHandle {
     public int getCompressionId() {
         return 0;
     }
+
+    @Override
+    public int getMemorySize() {
+        long size = getRawSize();
+        return size > Integer.MAX_VALUE ? -1 : (int) size;
+    }
+
+    @Override
+    public long getRawSize() {
+        try {
+            return Files.size(path);
+        } catch (IOException e) {
+            return -1;
+        }
+    }
 }
@@ -0,0 +1,146 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Vincent Zhang
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package co.phoenixlab.phoenixpac;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+public class AccessTraceTest {
+
+    private static final int NUM_ENTRIES = 20;
+
+    private Path pacPath;
+    private HandledPacFile<AssetHandle> source;
+
+    @Before
+    public void setUp() throws Exception {
+        pacPath = Paths.get(".").toAbsolutePath().resolve("test_trace.pac");
+        HandlePacBuilder builder = HandlePacBuilder.newBuilder().
+                buildHeader().withLatestVersion().setFlag(PacHeader.FLAG_USE_LONG_OFFSETS, false).finishHeader();
+        for (int i = 0; i < NUM_ENTRIES; i++) {
+            byte[] data = ("Asset number " + i + " with some repetitive repetitive repetitive contents").
+                    getBytes(StandardCharsets.UTF_8);
+            builder = builder.newEntry().
+                    withTPUID(tpuid(i)).
+                    withAssetHandle(new MemoryAssetHandle(data)).
+                    withSize(data.length).
+                    withNoCompression().
+                    withComputedSha256Hash().
+                    add();
+        }
+        source = builder.finish();
+    }
+
+    @Test
+    public void recordsFirstAccess() throws Exception {
+        try (PacFileWriter writer = new PacFileWriter(pacPath)) {
+            writer.writeNew(source);
+        }
+        AccessTrace trace = new AccessTrace();
+        try (PacFileReader reader = new PacFileReader(pacPath);
+             PacFile pacFile = new TracingPacFile(reader.read(), trace)) {
+            pacFile.getHandle(tpuid(5));
+            pacFile.getHandle(tpuid(2));
+            pacFile.getHandle(tpuid(5));
+            pacFile.readAll(Arrays.asList(tpuid(9), tpuid(2), tpuid(11)));
+            pacFile.readAsync(tpuid(7), ForkJoinPool.commonPool()).get();
+        }
+        Assert.assertEquals(Arrays.asList(tpuid(5), tpuid(2), tpuid(9), tpuid(11), tpuid(7)), trace.getOrder());
+        Assert.assertEquals(2, trace.getRank(tpuid(9)));
+        Assert.assertEquals(-1, trace.getRank(tpuid(0)));
+        Assert.assertFalse(trace.record(tpuid(9)));
+    }
+
+    @Test
+    public void savesAndLoads() throws Exception {
+        AccessTrace trace = new AccessTrace();
+        trace.record(tpuid(3));
+        trace.record(new TypePurposeUniqueId(0xFFFF, 0x8000, 0x90000000));
+        trace.record(tpuid(1));
+        StringWriter out = new StringWriter();
+        trace.write(out);
+        //  A repeat keeps its first position
+        AccessTrace loaded = AccessTrace.read(new StringReader("# startup\n\n" + out + "0x0001,0x0002,0x00000003\n"));
+        Assert.assertEquals(trace.getOrder(), loaded.getOrder());
+    }
+
+    @Test
+    public void writesInTraceOrder() throws Exception {
+        AccessTrace trace = new AccessTrace();
+        trace.record(tpuid(15));
+        trace.record(tpuid(3));
+        trace.record(tpuid(7));
+        //  Not in the archive, so it takes no space
+        trace.record(tpuid(NUM_ENTRIES + 1));
+        List<TypePurposeUniqueId> expected = new ArrayList<>(Arrays.asList(tpuid(15), tpuid(3), tpuid(7)));
+        for (int i = 0; i < NUM_ENTRIES; i++) {
+            if (!expected.contains(tpuid(i))) {
+                expected.add(tpuid(i));
+            }
+        }
+        //  Planned, streamed and parallel writes all take the same order
+        for (int parallelism = 1; parallelism <= 2; parallelism++) {
+            for (boolean compress : new boolean[] {false, true}) {
+                try (PacFileWriter writer = new PacFileWriter(pacPath, compress)) {
+                    writer.setParallelism(parallelism);
+                    writer.setAccessTrace(trace);
+                    writer.writeNew(source);
+                }
+                Assert.assertEquals(expected, layout());
+            }
+        }
+    }
+
+    private List<TypePurposeUniqueId> layout() throws Exception {
+        try (PacFileReader reader = new PacFileReader(pacPath);
+             PacFile pacFile = reader.read()) {
+            List<IndexEntry> entries = new ArrayList<>(pacFile.getIndex().getEntries().values());
+            entries.sort(Comparator.comparingLong(IndexEntry::getOffset));
+            List<TypePurposeUniqueId> ret = new ArrayList<>();
+            for (IndexEntry entry : entries) {
+                Assert.assertArrayEquals(source.getHandle(entry.getTPUID()).getRawBytes(),
+                        pacFile.getHandle(entry.getTPUID()).getDecompressedBytes());
+                ret.add(entry.getTPUID());
+            }
+            return ret;
+        }
+    }
+
+    private static TypePurposeUniqueId tpuid(int i) {
+        return new TypePurposeUniqueId(1, 2, i);
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Vincent Zhang
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package co.phoenixlab.phoenixpac;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.FileNotFoundException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+public class AsyncReadTest {
+
+    private static final int NUM_ENTRIES = 300;
+
+    private Path pacPath;
+
+    @Before
+    public void setUp() throws Exception {
+        pacPath = Paths.get(".").toAbsolutePath().resolve("test_async.pac");
+        HandlePacBuilder builder = HandlePacBuilder.newBuilder().
+                buildHeader().withLatestVersion().setFlag(PacHeader.FLAG_USE_LONG_OFFSETS, false).finishHeader();
+        for (int i = 0; i < NUM_ENTRIES; i++) {
+            byte[] data = content(i).getBytes(StandardCharsets.UTF_8);
+            builder = builder.newEntry().
+                    withTPUID(new TypePurposeUniqueId(1, 2, i)).
+                    withAssetHandle(new MemoryAssetHandle(data)).
+                    withSize(data.length).
+                    withNoCompression().
+                    withComputedSha256Hash().
+                    add();
+        }
+        try (PacFileWriter writer = new PacFileWriter(pacPath, true)) {
+            writer.writeNew(builder.finish());
+        }
+    }
+
+    @Test
+    public void manyReadsInFlight() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try (PacFileReader reader = new PacFileReader(pacPath);
+             PacFile pacFile = reader.read()) {
+            List<CompletableFuture<ByteBuffer>> futures = new ArrayList<>();
+            for (int i = 0; i < NUM_ENTRIES; i++) {
+                futures.add(pacFile.readAsync(new TypePurposeUniqueId(1, 2, i), executor));
+            }
+            for (int i = 0; i < NUM_ENTRIES; i++) {
+                ByteBuffer buffer = futures.get(i).get();
+                byte[] bytes = new byte[buffer.remaining()];
+                buffer.get(bytes);
+                Assert.assertEquals(content(i), new String(bytes, StandardCharsets.UTF_8));
+            }
+            //  Raw reads hand back the compressed contents
+            ByteBuffer raw = pacFile.readAsync(new TypePurposeUniqueId(1, 2, 7)).get();
+            Assert.assertEquals(pacFile.getIndex().getEntry(new TypePurposeUniqueId(1, 2, 7)).getDiskSize(),
+                    raw.remaining());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void missingAssetFails() throws Exception {
+        try (PacFileReader reader = new PacFileReader(pacPath);
+             PacFile pacFile = reader.read()) {
+            pacFile.readAsync(new TypePurposeUniqueId(9, 9, 9)).get();
+            Assert.fail("Expected the read to fail");
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof FileNotFoundException);
+        }
+    }
+
+    private static String content(int i) {
+        StringBuilder builder = new StringBuilder();
+        for (int j = 0; j <= i % 17; j++) {
+            builder.append("Asset ").append(i).append(" line ").append(j).append('\n');
+        }
+        return builder.toString();
+    }
+}
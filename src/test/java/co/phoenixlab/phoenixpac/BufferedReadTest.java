@@ -0,0 +1,108 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Vincent Zhang
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package co.phoenixlab.phoenixpac;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+
+public class BufferedReadTest {
+
+    private static final int NUM_ENTRIES = 2000;
+
+    private Path pacPath;
+
+    @Before
+    public void setUp() throws Exception {
+        pacPath = Paths.get(".").toAbsolutePath().resolve("test_buffered.pac");
+        HandlePacBuilder builder = HandlePacBuilder.newBuilder().
+                buildHeader().withLatestVersion().setFlag(PacHeader.FLAG_USE_LONG_OFFSETS, false).finishHeader();
+        for (int i = 0; i < NUM_ENTRIES; i++) {
+            byte[] data = ("Asset number " + i).getBytes(StandardCharsets.UTF_8);
+            TypePurposeUniqueId tpuid = new TypePurposeUniqueId(i % 7, i % 3, i);
+            builder = builder.newEntry().
+                    withTPUID(tpuid).
+                    withAssetHandle(new MemoryAssetHandle(data)).
+                    withSize(data.length).
+                    withNoCompression().
+                    withComputedSha256Hash().
+                    add();
+            //  Enough metadata to overrun the initial fetch several times over
+            builder = builder.buildMetadata().
+                    editBlock(tpuid).
+                    addEntry("filename", "assets/some/long/directory/name/asset_" + i + ".bin").
+                    addEntry("ëèï", "▲↔ƒ").
+                    add().
+                    finish();
+        }
+        try (PacFileWriter writer = new PacFileWriter(pacPath, false)) {
+            writer.writeNew(builder.finish());
+        }
+    }
+
+    @Test
+    public void bufferedMatchesUnbuffered() throws Exception {
+        PacFile expected;
+        PacFile actual;
+        try (PacFileReader reader = new PacFileReader(pacPath, false)) {
+            expected = reader.read();
+        }
+        try (PacFileReader reader = new PacFileReader(pacPath, true)) {
+            actual = reader.read();
+        }
+        Assert.assertEquals(expected.getHeader().toString(), actual.getHeader().toString());
+        Assert.assertEquals(NUM_ENTRIES, actual.getIndex().getNumIndexEntries());
+        Assert.assertEquals(expected.getIndex().getEntries().keySet(), actual.getIndex().getEntries().keySet());
+        for (IndexEntry entry : expected.getIndex().getEntries().values()) {
+            IndexEntry other = actual.getIndex().getEntry(entry.getTPUID());
+            Assert.assertEquals(entry.getOffset(), other.getOffset());
+            Assert.assertEquals(entry.getDiskSize(), other.getDiskSize());
+            Assert.assertEquals(entry.getMemorySize(), other.getMemorySize());
+            Assert.assertEquals(entry.getCompressionId(), other.getCompressionId());
+            Assert.assertArrayEquals(entry.getSha256Hash(), other.getSha256Hash());
+        }
+        Assert.assertEquals(expected.getMetadata().getMetadata().size(), actual.getMetadata().getMetadata().size());
+        for (Map.Entry<TypePurposeUniqueId, MetadataBlock> entry : expected.getMetadata().getMetadata().entrySet()) {
+            MetadataBlock other = actual.getMetadata().getMetadata().get(entry.getKey());
+            Assert.assertNotNull(other);
+            Assert.assertEquals(entry.getValue().getEntries(), other.getEntries());
+        }
+    }
+
+    @Test
+    public void bufferedHandleRead() throws Exception {
+        TypePurposeUniqueId tpuid = new TypePurposeUniqueId(1234 % 7, 1234 % 3, 1234);
+        try (PacFileReader reader = new PacFileReader(pacPath, true)) {
+            PacFile pacFile = reader.read();
+            byte[] bytes = pacFile.getHandle(tpuid).getRawBytes();
+            Assert.assertEquals("Asset number 1234", new String(bytes, StandardCharsets.UTF_8));
+        }
+    }
+}
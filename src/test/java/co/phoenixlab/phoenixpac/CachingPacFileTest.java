@@ -0,0 +1,196 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Vincent Zhang
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package co.phoenixlab.phoenixpac;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class CachingPacFileTest {
+
+    @Test
+    public void hitsAndMisses() throws Exception {
+        CountingPacFile source = new CountingPacFile("v1", 4);
+        CachingPacFile cache = new CachingPacFile(source, 1024);
+        TypePurposeUniqueId tpuid = new TypePurposeUniqueId(1, 1, 1);
+        Assert.assertEquals("v1-1", string(cache.getHandle(tpuid)));
+        Assert.assertEquals("v1-1", string(cache.getHandle(tpuid)));
+        Assert.assertEquals(1, source.loads.get());
+        Assert.assertEquals(1, cache.getHitCount());
+        Assert.assertEquals(1, cache.getMissCount());
+        Assert.assertEquals(4, cache.getCachedBytes());
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsed() throws Exception {
+        CountingPacFile source = new CountingPacFile("v1", 4);
+        //  Room for two assets of 4 bytes each
+        CachingPacFile cache = new CachingPacFile(source, 8, true);
+        TypePurposeUniqueId first = new TypePurposeUniqueId(1, 1, 1);
+        TypePurposeUniqueId second = new TypePurposeUniqueId(1, 1, 2);
+        TypePurposeUniqueId third = new TypePurposeUniqueId(1, 1, 3);
+        cache.getHandle(first);
+        cache.getHandle(second);
+        cache.getHandle(first);
+        cache.getHandle(third);
+        Assert.assertEquals(1, cache.getEvictionCount());
+        Assert.assertEquals(2, cache.getCachedCount());
+        Assert.assertEquals(8, cache.getCachedBytes());
+        //  Second was least recently used, so first should still be cached
+        cache.getHandle(first);
+        Assert.assertEquals(3, source.loads.get());
+        cache.getHandle(second);
+        Assert.assertEquals(4, source.loads.get());
+    }
+
+    @Test
+    public void swapInvalidates() throws Exception {
+        CachingPacFile cache = new CachingPacFile(new CountingPacFile("v1", 4), 1024);
+        TypePurposeUniqueId tpuid = new TypePurposeUniqueId(1, 1, 1);
+        Assert.assertEquals("v1-1", string(cache.getHandle(tpuid)));
+        cache.swap(new CountingPacFile("v2", 4));
+        Assert.assertEquals(0, cache.getCachedCount());
+        Assert.assertEquals("v2-1", string(cache.getHandle(tpuid)));
+    }
+
+    @Test
+    public void concurrentMissesLoadOnce() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        CountingPacFile source = new CountingPacFile("v1", 4) {
+            @Override
+            public AssetHandle getHandle(TypePurposeUniqueId tpuid) throws IOException {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+                return super.getHandle(tpuid);
+            }
+        };
+        CachingPacFile cache = new CachingPacFile(source, 1024);
+        TypePurposeUniqueId tpuid = new TypePurposeUniqueId(1, 1, 1);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<String>> results = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                results.add(executor.submit(() -> string(cache.getHandle(tpuid))));
+            }
+            Thread.sleep(100);
+            release.countDown();
+            for (Future<String> result : results) {
+                Assert.assertEquals("v1-1", result.get());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        Assert.assertEquals(1, source.loads.get());
+    }
+
+    @Test
+    public void invalidateDuringLoad() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CountingPacFile source = new CountingPacFile("v1", 4) {
+            @Override
+            public AssetHandle getHandle(TypePurposeUniqueId tpuid) throws IOException {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+                return super.getHandle(tpuid);
+            }
+        };
+        CachingPacFile cache = new CachingPacFile(source, 1024);
+        TypePurposeUniqueId tpuid = new TypePurposeUniqueId(1, 1, 1);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<String> result = executor.submit(() -> string(cache.getHandle(tpuid)));
+            started.await();
+            cache.invalidate(tpuid);
+            release.countDown();
+            Assert.assertEquals("v1-1", result.get());
+        } finally {
+            executor.shutdownNow();
+        }
+        //  What was read before the invalidation must not be cached
+        Assert.assertEquals(0, cache.getCachedCount());
+        cache.getHandle(tpuid);
+        Assert.assertEquals(2, source.loads.get());
+    }
+
+    @Test
+    public void evictsAcrossSegments() throws Exception {
+        CountingPacFile source = new CountingPacFile("v1", 64);
+        //  Room for 16 assets of 5 bytes each, which the ones from 10 up are
+        CachingPacFile cache = new CachingPacFile(source, 80);
+        for (int i = 10; i <= 64; i++) {
+            cache.getHandle(new TypePurposeUniqueId(1, 1, i));
+        }
+        Assert.assertEquals(39, cache.getEvictionCount());
+        Assert.assertEquals(16, cache.getCachedCount());
+        Assert.assertEquals(80, cache.getCachedBytes());
+        //  Only the most recent ones are left
+        for (int i = 49; i <= 64; i++) {
+            cache.getHandle(new TypePurposeUniqueId(1, 1, i));
+        }
+        Assert.assertEquals(55, source.loads.get());
+    }
+
+    private static String string(AssetHandle handle) throws IOException {
+        return new String(handle.getDecompressedBytes(), StandardCharsets.UTF_8);
+    }
+
+    private static class CountingPacFile extends PacFile {
+
+        final AtomicInteger loads = new AtomicInteger();
+        final Map<TypePurposeUniqueId, byte[]> assets = new HashMap<>();
+
+        CountingPacFile(String version, int count) {
+            super(MAJOR_VERSION, MINOR_VERSION);
+            for (int i = 1; i <= count; i++) {
+                assets.put(new TypePurposeUniqueId(1, 1, i), (version + "-" + i).getBytes(StandardCharsets.UTF_8));
+            }
+        }
+
+        @Override
+        public AssetHandle getHandle(TypePurposeUniqueId tpuid) throws IOException {
+            loads.incrementAndGet();
+            return new MemoryAssetHandle(assets.get(tpuid));
+        }
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Vincent Zhang
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package co.phoenixlab.phoenixpac;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class CompressionPolicyTest {
+
+    private static final int TYPE_TEXT = 1;
+    private static final int TYPE_NOISE = 2;
+    private static final int TYPE_MEDIA = 3;
+
+    private static final TypePurposeUniqueId TEXT = new TypePurposeUniqueId(TYPE_TEXT, 0, 1);
+    private static final TypePurposeUniqueId TINY = new TypePurposeUniqueId(TYPE_TEXT, 0, 2);
+    private static final TypePurposeUniqueId NOISE = new TypePurposeUniqueId(TYPE_NOISE, 0, 3);
+    private static final TypePurposeUniqueId SMALL_NOISE = new TypePurposeUniqueId(TYPE_NOISE, 0, 4);
+    private static final TypePurposeUniqueId MEDIA = new TypePurposeUniqueId(TYPE_MEDIA, 0, 5);
+
+    private final Path pacPath = Paths.get(".").toAbsolutePath().resolve("test_policy.pac");
+
+    @Test
+    public void adaptiveSequential() throws Exception {
+        write(1);
+        verify();
+    }
+
+    @Test
+    public void adaptiveParallel() throws Exception {
+        write(4);
+        verify();
+    }
+
+    @Test
+    public void adaptiveEditor() throws Exception {
+        try (PacFileWriter writer = new PacFileWriter(pacPath, false)) {
+            writer.begin(false);
+            writer.finish(null);
+        }
+        try (PacFileEditor editor = new PacFileEditor(pacPath, true)) {
+            editor.setCompressionPolicy(policy());
+            editor.add(TEXT, new MemoryAssetHandle(TestPacs.text(20000)));
+            editor.add(NOISE, new MemoryAssetHandle(TestPacs.noise(200000)));
+            editor.commit();
+        }
+        try (PacFileReader reader = new PacFileReader(pacPath);
+             PacFile pacFile = reader.read()) {
+            Assert.assertEquals(PacFile.COMPRESSION_DEFLATE, pacFile.getIndex().getEntry(TEXT).getCompressionId());
+            Assert.assertEquals(0, pacFile.getIndex().getEntry(NOISE).getCompressionId());
+            Assert.assertArrayEquals(TestPacs.noise(200000), pacFile.getHandle(NOISE).getDecompressedBytes());
+        }
+    }
+
+    @Test
+    public void decidesOncePerAsset() throws Exception {
+        for (int parallelism = 1; parallelism <= 4; parallelism += 3) {
+            //  Stored assets first, so that planning looks at them before giving up on the last one
+            HandlePacBuilder builder = TestPacs.newBuilder();
+            builder = TestPacs.add(builder, TINY, TestPacs.text(2), true);
+            builder = TestPacs.add(builder, MEDIA, TestPacs.text(20000), true);
+            builder = TestPacs.add(builder, TEXT, TestPacs.text(20000), true);
+            Map<TypePurposeUniqueId, Integer> decided = new ConcurrentHashMap<>();
+            CompressionPolicy policy = policy();
+            TestPacs.write(pacPath, builder, parallelism, writer -> writer.setCompressionPolicy((tpuid, source) -> {
+                decided.merge(tpuid, 1, Integer::sum);
+                return policy.decide(tpuid, source);
+            }));
+            Assert.assertEquals(3, decided.size());
+            for (int count : decided.values()) {
+                Assert.assertEquals(1, count);
+            }
+        }
+    }
+
+    @Test
+    public void minSizeFallsBackToRawSize() throws Exception {
+        //  No sampling, so only the size can rule out compression
+        CompressionPolicy policy = CompressionPolicy.adaptive().withMinSize(64).withSampleSize(0);
+        AssetHandle unknownSize = new MappedAssetHandle(ByteBuffer.wrap(TestPacs.text(2)), 0, -1);
+        Assert.assertTrue(policy.decide(TINY, unknownSize).isStored());
+        AssetHandle unknownLarge = new MappedAssetHandle(ByteBuffer.wrap(TestPacs.text(20000)), 0, -1);
+        Assert.assertFalse(policy.decide(TEXT, unknownLarge).isStored());
+    }
+
+    @Test
+    public void decisionRatio() {
+        CompressionDecision decision = CompressionDecision.deflate(6, 0.5);
+        Assert.assertTrue(decision.accepts(100, 50));
+        Assert.assertFalse(decision.accepts(100, 51));
+        Assert.assertTrue(CompressionDecision.deflate(6).accepts(0, 2));
+        Assert.assertTrue(CompressionDecision.STORE.isStored());
+    }
+
+    private void write(int parallelism) throws Exception {
+        HandlePacBuilder builder = TestPacs.newBuilder();
+        builder = TestPacs.add(builder, TEXT, TestPacs.text(20000), true);
+        builder = TestPacs.add(builder, TINY, TestPacs.text(2), true);
+        builder = TestPacs.add(builder, NOISE, TestPacs.noise(200000), true);
+        builder = TestPacs.add(builder, SMALL_NOISE, TestPacs.noise(4000), true);
+        builder = TestPacs.add(builder, MEDIA, TestPacs.text(20000), true);
+        TestPacs.write(pacPath, builder, parallelism, writer -> writer.setCompressionPolicy(policy()));
+    }
+
+    private void verify() throws Exception {
+        try (PacFileReader reader = new PacFileReader(pacPath);
+             PacFile pacFile = reader.read()) {
+            //  Compresses well
+            assertStored(pacFile, TEXT, PacFile.COMPRESSION_DEFLATE, TestPacs.text(20000));
+            //  Below the minimum size
+            assertStored(pacFile, TINY, 0, TestPacs.text(2));
+            //  Rejected by the trial compression
+            assertStored(pacFile, NOISE, 0, TestPacs.noise(200000));
+            //  Too small to sample, rejected after compressing
+            assertStored(pacFile, SMALL_NOISE, 0, TestPacs.noise(4000));
+            //  Stored type, however compressible
+            assertStored(pacFile, MEDIA, 0, TestPacs.text(20000));
+        }
+    }
+
+    private static void assertStored(PacFile pacFile, TypePurposeUniqueId tpuid, int compressionId, byte[] expected)
+            throws Exception {
+        IndexEntry entry = pacFile.getIndex().getEntry(tpuid);
+        Assert.assertEquals(compressionId, entry.getCompressionId());
+        Assert.assertEquals(expected.length, entry.getMemorySize());
+        if (compressionId == 0) {
+            Assert.assertEquals(expected.length, entry.getDiskSize());
+        } else {
+            Assert.assertTrue(entry.getDiskSize() < expected.length);
+        }
+        Assert.assertArrayEquals(IndexEntry.computeSha256Hash(expected), entry.getSha256Hash());
+        Assert.assertArrayEquals(expected, pacFile.getHandle(tpuid).getDecompressedBytes());
+    }
+
+    private static CompressionPolicy policy() {
+        return CompressionPolicy.adaptive().
+                withStoredType(TYPE_MEDIA).
+                withMinSize(64).
+                withSampleSize(16 * 1024);
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Vincent Zhang
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package co.phoenixlab.phoenixpac;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+public class DecompressionTest {
+
+    private Path pacPath;
+    private byte[] rawData;
+    private TypePurposeUniqueId typePurposeUniqueId;
+
+    @Before
+    public void setUp() throws Exception {
+        pacPath = Paths.get(".").toAbsolutePath().resolve("test_decompress.pac");
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < 4000; i++) {
+            builder.append("ABCDEFGHIJKLMNOPQRSTUVWXYZ1234567890ëèï▲↔ƒ").append(i);
+        }
+        rawData = builder.toString().getBytes(StandardCharsets.UTF_8);
+        typePurposeUniqueId = new TypePurposeUniqueId(0xAABB, 0xCCDD, 0xDEADBEEF);
+        HandledPacFile<AssetHandle> memoryPacFile = HandlePacBuilder.newBuilder().
+                buildHeader().withLatestVersion().setFlag(PacHeader.FLAG_USE_LONG_OFFSETS, false).finishHeader().
+                newEntry().
+                withTPUID(typePurposeUniqueId).
+                withAssetHandle(new MemoryAssetHandle(rawData)).
+                withMemorySize(rawData.length).
+                withNoCompression().
+                withComputedSha256Hash().
+                add().
+                finish();
+        try (PacFileWriter writer = new PacFileWriter(pacPath, true)) {
+            writer.writeNew(memoryPacFile);
+        }
+    }
+
+    @Test
+    public void decompressFromFile() throws Exception {
+        try (PacFileReader reader = new PacFileReader(pacPath);
+             PacFile pacFile = reader.read()) {
+            checkHandle(pacFile.getHandle(typePurposeUniqueId));
+        }
+    }
+
+    @Test
+    public void decompressFromMapping() throws Exception {
+        try (PacFileReader reader = new PacFileReader(pacPath);
+             PacFile pacFile = reader.readMapped()) {
+            checkHandle(pacFile.getHandle(typePurposeUniqueId));
+        }
+    }
+
+    @Test
+    public void uncompressedPassesThrough() throws Exception {
+        AssetHandle handle = new MemoryAssetHandle(rawData);
+        Assert.assertArrayEquals(rawData, handle.getDecompressedBytes());
+        Assert.assertEquals(rawData.length, handle.getMemorySize());
+    }
+
+    @Test(expected = BufferOverflowException.class)
+    public void destinationTooSmall() throws Exception {
+        try (PacFileReader reader = new PacFileReader(pacPath);
+             PacFile pacFile = reader.read()) {
+            pacFile.getHandle(typePurposeUniqueId).getDecompressedByteBuffer(ByteBuffer.allocate(rawData.length - 1));
+        }
+    }
+
+    private void checkHandle(AssetHandle handle) throws Exception {
+        Assert.assertEquals(PacFile.COMPRESSION_DEFLATE, handle.getCompressionId());
+        Assert.assertEquals(rawData.length, handle.getMemorySize());
+        Assert.assertTrue(handle.getRawBytes().length < rawData.length);
+        Assert.assertArrayEquals(rawData, handle.getDecompressedBytes());
+        Assert.assertEquals(ByteBuffer.wrap(rawData), handle.getDecompressedByteBuffer());
+        ByteBuffer direct = ByteBuffer.allocateDirect(rawData.length);
+        handle.getDecompressedByteBuffer(direct);
+        Assert.assertFalse(direct.hasRemaining());
+        direct.flip();
+        Assert.assertEquals(ByteBuffer.wrap(rawData), direct);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (InputStream in = handle.getDecompressedStream()) {
+            byte[] buf = new byte[1000];
+            int read;
+            while ((read = in.read(buf)) != -1) {
+                out.write(buf, 0, read);
+            }
+        }
+        Assert.assertArrayEquals(rawData, out.toByteArray());
+    }
+}
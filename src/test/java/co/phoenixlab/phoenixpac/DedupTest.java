@@ -0,0 +1,199 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Vincent Zhang
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package co.phoenixlab.phoenixpac;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.zip.DeflaterOutputStream;
+
+public class DedupTest {
+
+    private static final int COPIES = 5;
+    private static final int SIZE = 20000;
+
+    private final Path pacPath = Paths.get(".").toAbsolutePath().resolve("test_dedup.pac");
+
+    @Test
+    public void streamedHashesAreRolledBack() throws Exception {
+        try (PacFileWriter writer = new PacFileWriter(pacPath, true)) {
+            writer.setDeduplicate(true);
+            writer.begin(false);
+            for (int i = 0; i < COPIES; i++) {
+                writer.append(shared(i), new MemoryAssetHandle(content("shared")));
+                writer.append(unique(i), new MemoryAssetHandle(content("unique " + i)));
+            }
+            writer.finish(null);
+            Assert.assertEquals(COPIES - 1, writer.getDeduplicatedEntries());
+        }
+        verify(PacFile.COMPRESSION_DEFLATE);
+    }
+
+    @Test
+    public void knownHashesAreNotWritten() throws Exception {
+        write(1);
+        verify(0);
+    }
+
+    @Test
+    public void parallel() throws Exception {
+        write(3);
+        verify(0);
+    }
+
+    @Test
+    public void compressedSourcesShareOnEveryPath() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (DeflaterOutputStream deflater = new DeflaterOutputStream(out)) {
+            deflater.write(content("shared"));
+        }
+        byte[] compressed = out.toByteArray();
+        //  Planned, then streamed and parallel, which a streamed hash rules planning out for
+        for (int parallelism = 0; parallelism <= 3; parallelism += 3) {
+            HandlePacBuilder builder = TestPacs.newBuilder();
+            for (int i = 0; i < COPIES; i++) {
+                //  Memory size unknown
+                builder = builder.newEntry().
+                        withTPUID(shared(i)).
+                        withAssetHandle(new MappedAssetHandle(ByteBuffer.wrap(compressed),
+                                PacFile.COMPRESSION_DEFLATE, -1)).
+                        withDiskSize(compressed.length).
+                        withMemorySize(-1).
+                        withComputedSha256Hash().
+                        add();
+            }
+            if (parallelism > 0) {
+                builder = TestPacs.add(builder, unique(0), content("unique"), true);
+            }
+            PacFileWriter writer = TestPacs.write(pacPath, builder, Math.max(parallelism, 1),
+                    w -> w.setDeduplicate(true));
+            Assert.assertEquals(COPIES - 1, writer.getDeduplicatedEntries());
+            try (PacFileReader reader = new PacFileReader(pacPath);
+                 PacFile pacFile = reader.read()) {
+                IndexEntry first = pacFile.getIndex().getEntry(shared(0));
+                for (int i = 0; i < COPIES; i++) {
+                    IndexEntry entry = pacFile.getIndex().getEntry(shared(i));
+                    Assert.assertEquals(0, entry.getMemorySize());
+                    Assert.assertEquals(first.getOffset(), entry.getOffset());
+                    Assert.assertArrayEquals(compressed, pacFile.getHandle(shared(i)).getRawBytes());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void sharedExtentsAreReferenceCounted() throws Exception {
+        write(1);
+        long freeBefore;
+        try (PacFileEditor editor = new PacFileEditor(pacPath)) {
+            editor.commit();
+            freeBefore = editor.getFreeBytes();
+            for (int i = 1; i < COPIES; i++) {
+                editor.delete(shared(i));
+            }
+            editor.commit();
+            //  Only the old sections became trash, the shared copy is still in use
+            Assert.assertTrue(editor.getFreeBytes() - freeBefore < SIZE);
+            editor.delete(shared(0));
+            editor.commit();
+            Assert.assertTrue(editor.getFreeBytes() - freeBefore >= SIZE);
+        }
+    }
+
+    @Test
+    public void compactionMovesSharedExtentsOnce() throws Exception {
+        write(1);
+        try (PacFileEditor editor = new PacFileEditor(pacPath)) {
+            //  Free the start of the file so the shared extent has somewhere to go
+            editor.delete(unique(0));
+            editor.delete(unique(1));
+            PacFileEditor.CompactionResult result = editor.compact();
+            Assert.assertTrue(result.getBytesReclaimed() > 0);
+        }
+        try (PacFileReader reader = new PacFileReader(pacPath);
+             PacFile pacFile = reader.read()) {
+            long offset = pacFile.getIndex().getEntry(shared(0)).getOffset();
+            for (int i = 0; i < COPIES; i++) {
+                Assert.assertEquals(offset, pacFile.getIndex().getEntry(shared(i)).getOffset());
+                Assert.assertArrayEquals(content("shared"), pacFile.getHandle(shared(i)).getDecompressedBytes());
+            }
+            for (int i = 2; i < COPIES; i++) {
+                Assert.assertArrayEquals(content("unique " + i), pacFile.getHandle(unique(i)).getDecompressedBytes());
+            }
+        }
+        //  The three unique assets left and a single shared copy, plus a little for the sections
+        Assert.assertTrue(Files.size(pacPath) < 4L * SIZE + 4096);
+    }
+
+    private void write(int parallelism) throws Exception {
+        HandlePacBuilder builder = TestPacs.newBuilder();
+        //  Shared copies are spread out, so that compaction has to move them
+        for (int i = 0; i < COPIES; i++) {
+            builder = TestPacs.add(builder, unique(i), content("unique " + i), false);
+            builder = TestPacs.add(builder, shared(i), content("shared"), false);
+        }
+        PacFileWriter writer = TestPacs.write(pacPath, builder, parallelism, w -> w.setDeduplicate(true));
+        Assert.assertEquals((long) (COPIES - 1) * SIZE, writer.getDeduplicatedBytes());
+    }
+
+    private void verify(int compressionId) throws Exception {
+        try (PacFileReader reader = new PacFileReader(pacPath);
+             PacFile pacFile = reader.read()) {
+            IndexEntry first = pacFile.getIndex().getEntry(shared(0));
+            Assert.assertEquals(compressionId, first.getCompressionId());
+            for (int i = 0; i < COPIES; i++) {
+                IndexEntry entry = pacFile.getIndex().getEntry(shared(i));
+                Assert.assertEquals(first.getOffset(), entry.getOffset());
+                Assert.assertEquals(first.getDiskSize(), entry.getDiskSize());
+                Assert.assertArrayEquals(content("shared"), pacFile.getHandle(shared(i)).getDecompressedBytes());
+                Assert.assertArrayEquals(content("unique " + i), pacFile.getHandle(unique(i)).getDecompressedBytes());
+                Assert.assertNotEquals(first.getOffset(), pacFile.getIndex().getEntry(unique(i)).getOffset());
+            }
+        }
+    }
+
+    private static TypePurposeUniqueId shared(int i) {
+        return new TypePurposeUniqueId(1, 1, i);
+    }
+
+    private static TypePurposeUniqueId unique(int i) {
+        return new TypePurposeUniqueId(1, 2, i);
+    }
+
+    private static byte[] content(String seed) {
+        byte[] bytes = new byte[SIZE];
+        byte[] pattern = seed.getBytes(StandardCharsets.UTF_8);
+        for (int i = 0; i < SIZE; i++) {
+            bytes[i] = (byte) (pattern[i % pattern.length] + i / 97);
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Vincent Zhang
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package co.phoenixlab.phoenixpac;
+
+import co.phoenixlab.phoenixpac.throwables.InvalidPacFormatException;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+public class LayoutTest {
+
+    private static final int NUM_ENTRIES = 20;
+    private static final int ALIGNMENT = 4096;
+
+    private final Path pacPath = Paths.get(".").toAbsolutePath().resolve("test_layout.pac");
+
+    @Test
+    public void plannedAlignedLayout() throws Exception {
+        HandlePacBuilder builder = HandlePacBuilder.newBuilder().
+                buildHeader().withLatestVersion().setFlag(PacHeader.FLAG_USE_LONG_OFFSETS, true).finishHeader();
+        for (int i = 0; i < NUM_ENTRIES; i++) {
+            byte[] data = content(i);
+            builder = builder.newEntry().
+                    withTPUID(tpuid(i)).
+                    withAssetHandle(new MemoryAssetHandle(data)).
+                    withSize(data.length).
+                    withNoCompression().
+                    withStreamedSha256Hash().
+                    add();
+        }
+        try (PacFileWriter writer = new PacFileWriter(pacPath, false)) {
+            writer.setAlignment(ALIGNMENT);
+            writer.setAutoOffsetWidth(true);
+            writer.writeNew(builder.finish());
+        }
+        check(false);
+    }
+
+    @Test
+    public void streamedAlignedLayout() throws Exception {
+        try (PacFileWriter writer = new PacFileWriter(pacPath, true)) {
+            writer.setAlignment(ALIGNMENT);
+            writer.setAutoOffsetWidth(true);
+            writer.begin(true);
+            for (int i = 0; i < NUM_ENTRIES; i++) {
+                writer.append(tpuid(i), new MemoryAssetHandle(content(i)));
+            }
+            writer.finish(null);
+        }
+        check(true);
+    }
+
+    @Test
+    public void streamedWithoutAlignmentHasNoTrash() throws Exception {
+        try (PacFileWriter writer = new PacFileWriter(pacPath, true)) {
+            writer.begin(false);
+            for (int i = 0; i < NUM_ENTRIES; i++) {
+                writer.append(tpuid(i), new MemoryAssetHandle(content(i)));
+            }
+            writer.finish(null);
+        }
+        try (PacFileReader reader = new PacFileReader(pacPath);
+             PacFile pacFile = reader.read()) {
+            Assert.assertEquals(0, pacFile.getHeader().getTrashSectionOffset());
+            Assert.assertFalse(pacFile.getHeader().getFlag(PacHeader.FLAG_USE_LONG_OFFSETS));
+        }
+    }
+
+    @Test
+    public void offsetWidthFollowsSize() throws Exception {
+        List<IndexEntry> entries = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            IndexEntry entry = new IndexEntry();
+            entry.tpuid = tpuid(i);
+            entry.diskSize = Integer.MAX_VALUE;
+            entries.add(entry);
+        }
+        int[] sourceCompressionIds = new int[entries.size()];
+        LayoutPlanner.Layout layout = LayoutPlanner.plan(entries.subList(0, 1), sourceCompressionIds, 0, 1, null, null);
+        Assert.assertFalse(layout.wide);
+        layout = LayoutPlanner.plan(entries, sourceCompressionIds, 0, 1, null, null);
+        Assert.assertTrue(layout.wide);
+        Assert.assertTrue(layout.indexOffset > LayoutPlanner.NARROW_OFFSET_LIMIT);
+        try {
+            LayoutPlanner.plan(entries, sourceCompressionIds, 0, 1, false, null);
+            Assert.fail();
+        } catch (InvalidPacFormatException expected) {
+        }
+    }
+
+    private void check(boolean compressed) throws Exception {
+        long padding = 0;
+        try (PacFileReader reader = new PacFileReader(pacPath);
+             PacFile pacFile = reader.read()) {
+            //  Small enough for narrow offsets, despite asking for wide ones
+            Assert.assertFalse(pacFile.getHeader().getFlag(PacHeader.FLAG_USE_LONG_OFFSETS));
+            long expectedPadding = 0;
+            long end = LayoutPlanner.headerSize(false);
+            List<IndexEntry> entries = new ArrayList<>(pacFile.getIndex().getEntries().values());
+            entries.sort((a, b) -> Long.compare(a.offset, b.offset));
+            for (IndexEntry entry : entries) {
+                Assert.assertEquals(0, entry.getOffset() % ALIGNMENT);
+                Assert.assertEquals(compressed ? PacFile.COMPRESSION_DEFLATE : 0, entry.getCompressionId());
+                expectedPadding += entry.getOffset() - end;
+                end = entry.getOffset() + entry.getDiskSize();
+                byte[] expected = content(entry.getTPUID().getUniqueId());
+                Assert.assertArrayEquals(IndexEntry.computeSha256Hash(expected), entry.getSha256Hash());
+                Assert.assertArrayEquals(expected, pacFile.getHandle(entry.getTPUID()).getDecompressedBytes());
+            }
+            for (TrashIndexEntry entry : pacFile.getTrashIndex().getEntries()) {
+                Assert.assertEquals(0, (entry.offset + entry.size) % ALIGNMENT);
+                padding += entry.size;
+            }
+            Assert.assertEquals(expectedPadding, padding);
+            Assert.assertTrue(pacFile.getHeader().getIndexSectionOffset() >= end);
+        }
+        //  Mapped reads see the same thing
+        try (PacFileReader reader = new PacFileReader(pacPath);
+             MappedPacFile pacFile = reader.readMapped()) {
+            for (int i = 0; i < NUM_ENTRIES; i++) {
+                Assert.assertArrayEquals(content(i), pacFile.getHandle(tpuid(i)).getDecompressedBytes());
+            }
+        }
+        //  The padding is usable by the editor
+        try (PacFileEditor editor = new PacFileEditor(pacPath)) {
+            Assert.assertEquals(padding, editor.getFreeBytes());
+            long size = Files.size(pacPath);
+            editor.add(tpuid(NUM_ENTRIES), new MemoryAssetHandle(new byte[100]));
+            Assert.assertEquals(size, editor.getFileSize());
+        }
+    }
+
+    private static TypePurposeUniqueId tpuid(int i) {
+        return new TypePurposeUniqueId(4, 2, i);
+    }
+
+    private static byte[] content(int i) {
+        StringBuilder builder = new StringBuilder();
+        for (int j = 0; j < i * 37 + 5; j++) {
+            builder.append("Aligned asset ").append(i).append(" line ").append(j).append('\n');
+        }
+        return builder.toString().getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Vincent Zhang
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package co.phoenixlab.phoenixpac;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FileNotFoundException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+public class MappedReadTest {
+
+    private Path pacPath;
+    private String testString;
+    private byte[] rawData;
+    private TypePurposeUniqueId typePurposeUniqueId;
+
+    private MappedPacFile pacFile;
+    private AssetHandle handle;
+
+    @Before
+    public void setUp() throws Exception {
+        pacPath = Paths.get(".").toAbsolutePath().resolve("test_mapped.pac");
+        testString = "ABCDEFGHIJKLMNOPQRSTUVWXYZ1234567890ëèï▲↔ƒ";
+        rawData = testString.getBytes(StandardCharsets.UTF_8);
+        typePurposeUniqueId = new TypePurposeUniqueId(0xAABB, 0xCCDD, 0xDEADBEEF);
+        HandledPacFile<AssetHandle> memoryPacFile = HandlePacBuilder.newBuilder().
+                buildHeader().withLatestVersion().setFlag(PacHeader.FLAG_USE_LONG_OFFSETS, true).finishHeader().
+                newEntry().
+                withTPUID(typePurposeUniqueId).
+                withAssetHandle(new MemoryAssetHandle(rawData)).
+                withMemorySize(rawData.length).
+                withNoCompression().
+                withComputedSha256Hash().
+                add().
+                finish();
+        try (PacFileWriter writer = new PacFileWriter(pacPath, false)) {
+            writer.writeNew(memoryPacFile);
+        }
+        try (PacFileReader reader = new PacFileReader(pacPath)) {
+            pacFile = reader.readMapped();
+        }
+        handle = pacFile.getHandle(typePurposeUniqueId);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        pacFile.close();
+    }
+
+    @Test
+    public void handleByteArrayTest() throws Exception {
+        Assert.assertArrayEquals(rawData, handle.getRawBytes());
+    }
+
+    @Test
+    public void handleByteBufferTest() throws Exception {
+        ByteBuffer buffer = handle.getRawByteBuffer();
+        Assert.assertTrue(buffer.isReadOnly());
+        Assert.assertEquals(rawData.length, buffer.remaining());
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        Assert.assertArrayEquals(rawData, bytes);
+        //  Consuming one view must not affect the next
+        Assert.assertEquals(rawData.length, handle.getRawByteBuffer().remaining());
+    }
+
+    @Test
+    public void handleInputStreamTest() throws Exception {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        try (InputStream inputStream = handle.getRawStream()) {
+            byte[] buf = new byte[16];
+            int len;
+            while ((len = inputStream.read(buf)) != -1) {
+                outputStream.write(buf, 0, len);
+            }
+        }
+        Assert.assertArrayEquals(rawData, outputStream.toByteArray());
+    }
+
+    @Test(expected = FileNotFoundException.class)
+    public void missingHandleTest() throws Exception {
+        pacFile.getHandle(new TypePurposeUniqueId(1, 2, 3));
+    }
+}
@@ -0,0 +1,295 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Vincent Zhang
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package co.phoenixlab.phoenixpac;
+
+import co.phoenixlab.phoenixpac.throwables.InvalidPacFormatException;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+public class PacFileEditorTest {
+
+    private static final int NUM_ENTRIES = 10;
+
+    private Path pacPath;
+
+    @Before
+    public void setUp() throws Exception {
+        pacPath = Paths.get(".").toAbsolutePath().resolve("test_editor.pac");
+        try (PacFileWriter writer = new PacFileWriter(pacPath, false)) {
+            writer.begin(false);
+            PacMetadata metadata = new PacMetadata();
+            for (int i = 0; i < NUM_ENTRIES; i++) {
+                writer.append(tpuid(i), new MemoryAssetHandle(content(i, 100)));
+                metadata.getOrCreateBlock(tpuid(i)).getEntries().
+                        put("filename", new MetadataEntry("filename", "asset_" + i));
+            }
+            writer.finish(metadata);
+        }
+    }
+
+    @Test
+    public void deleteThenReuseHole() throws Exception {
+        long oldOffset;
+        try (PacFileEditor editor = new PacFileEditor(pacPath)) {
+            oldOffset = editor.getIndex().getEntry(tpuid(3)).getOffset();
+            editor.delete(tpuid(3));
+            editor.commit();
+            Assert.assertTrue(editor.getFreeBytes() >= content(3, 100).length);
+        }
+        try (PacFileReader reader = new PacFileReader(pacPath);
+             PacFile pacFile = reader.read()) {
+            Assert.assertNull(pacFile.getIndex().getEntry(tpuid(3)));
+            Assert.assertNull(pacFile.getMetadata().getMetadata().get(tpuid(3)));
+            Assert.assertFalse(pacFile.getTrashIndex().getEntries().isEmpty());
+            checkAssets(pacFile, 3, 100);
+        }
+        long sizeBefore = Files.size(pacPath);
+        try (PacFileEditor editor = new PacFileEditor(pacPath)) {
+            //  Same size as the deleted asset, so it is the best fit
+            editor.add(tpuid(3), new MemoryAssetHandle(content(3, 100)));
+            Assert.assertEquals(oldOffset, editor.getIndex().getEntry(tpuid(3)).getOffset());
+            editor.getMetadata().getOrCreateBlock(tpuid(3)).getEntries().
+                    put("filename", new MetadataEntry("filename", "asset_3"));
+            editor.commit();
+        }
+        Assert.assertTrue(Files.size(pacPath) - sizeBefore < content(3, 100).length);
+        try (PacFileReader reader = new PacFileReader(pacPath);
+             PacFile pacFile = reader.read()) {
+            checkAssets(pacFile, -1, 100);
+        }
+    }
+
+    @Test
+    public void replaceGrowsAndShrinks() throws Exception {
+        try (PacFileEditor editor = new PacFileEditor(pacPath, true)) {
+            editor.replace(tpuid(5), new MemoryAssetHandle(content(5, 1000)));
+            editor.replace(tpuid(6), new MemoryAssetHandle(content(6, 10)));
+            editor.getMetadata().getOrCreateBlock(tpuid(6)).getEntries().
+                    put("note", new MetadataEntry("note", "shrunk"));
+            editor.commit();
+        }
+        try (PacFileReader reader = new PacFileReader(pacPath);
+             PacFile pacFile = reader.read()) {
+            Assert.assertArrayEquals(content(5, 1000), pacFile.getHandle(tpuid(5)).getDecompressedBytes());
+            Assert.assertArrayEquals(content(6, 10), pacFile.getHandle(tpuid(6)).getDecompressedBytes());
+            Assert.assertArrayEquals(IndexEntry.computeSha256Hash(content(6, 10)),
+                    pacFile.getIndex().getEntry(tpuid(6)).getSha256Hash());
+            Assert.assertEquals("shrunk",
+                    pacFile.getMetadata().getMetadata().get(tpuid(6)).getEntries().get("note").getVal());
+            Assert.assertEquals(NUM_ENTRIES, pacFile.getIndex().getNumIndexEntries());
+        }
+    }
+
+    @Test
+    public void uncommittedEditsAreDiscarded() throws Exception {
+        try (PacFileEditor editor = new PacFileEditor(pacPath)) {
+            editor.delete(tpuid(1));
+            editor.add(tpuid(100), new MemoryAssetHandle(content(100, 50)));
+        }
+        try (PacFileReader reader = new PacFileReader(pacPath);
+             PacFile pacFile = reader.read()) {
+            Assert.assertNull(pacFile.getIndex().getEntry(tpuid(100)));
+            checkAssets(pacFile, -1, 100);
+        }
+    }
+
+    @Test
+    public void appendOnlyLeavesOldVersionIntact() throws Exception {
+        try (PacFileEditor editor = new PacFileEditor(pacPath)) {
+            editor.delete(tpuid(3));
+            editor.commit();
+        }
+        try (PacFileReader reader = new PacFileReader(pacPath);
+             PacFile oldVersion = reader.read();
+             PacFileEditor editor = new PacFileEditor(pacPath)) {
+            editor.setAppendOnly(true);
+            long oldEnd = Files.size(pacPath);
+            //  Would fit the hole left by asset 3
+            editor.add(tpuid(3), new MemoryAssetHandle(content(103, 100)));
+            editor.replace(tpuid(4), new MemoryAssetHandle(content(104, 100)));
+            editor.commit();
+            Assert.assertTrue(editor.getIndex().getEntry(tpuid(3)).getOffset() >= oldEnd);
+            Assert.assertTrue(editor.getIndex().getEntry(tpuid(4)).getOffset() >= oldEnd);
+            Assert.assertTrue(editor.getHeader().getIndexSectionOffset() >= oldEnd);
+            Assert.assertTrue(editor.getHeader().getTrashSectionOffset() >= oldEnd);
+            Assert.assertTrue(editor.getFreeBytes() >= 2 * content(3, 100).length);
+            //  The reader opened before the commit still sees the old contents
+            checkAssets(oldVersion, 3, 100);
+        }
+        try (PacFileReader reader = new PacFileReader(pacPath);
+             PacFile pacFile = reader.read()) {
+            Assert.assertArrayEquals(content(103, 100), pacFile.getHandle(tpuid(3)).getRawBytes());
+            Assert.assertArrayEquals(content(104, 100), pacFile.getHandle(tpuid(4)).getRawBytes());
+            Assert.assertEquals(NUM_ENTRIES, pacFile.getIndex().getNumIndexEntries());
+        }
+    }
+
+    @Test
+    public void overlappingTrashIsInvalid() throws Exception {
+        try (PacFileEditor editor = new PacFileEditor(pacPath)) {
+            editor.delete(tpuid(2));
+            editor.delete(tpuid(5));
+            editor.commit();
+        }
+        long trashOffset;
+        try (PacFileReader reader = new PacFileReader(pacPath);
+             PacFile pacFile = reader.read()) {
+            Assert.assertTrue(pacFile.getTrashIndex().getNumTrashEntries() >= 2);
+            trashOffset = pacFile.getHeader().trashSectionOffset;
+        }
+        //  Make the second narrow entry overlap the first
+        try (RandomAccessFile file = new RandomAccessFile(pacPath.toFile(), "rw")) {
+            file.seek(trashOffset + 4);
+            int offset = file.readInt();
+            int size = file.readInt();
+            file.writeInt(offset + 1);
+            file.writeInt(size);
+        }
+        try (PacFileEditor editor = new PacFileEditor(pacPath)) {
+            Assert.fail();
+        } catch (InvalidPacFormatException e) {
+            //  Expected
+        }
+    }
+
+    @Test
+    public void narrowArchiveRefusesToOutgrowOffsets() throws Exception {
+        long originalSize = Files.size(pacPath);
+        //  Sparse, so this takes no real space
+        long size = LayoutPlanner.NARROW_OFFSET_LIMIT - 50;
+        try (RandomAccessFile file = new RandomAccessFile(pacPath.toFile(), "rw")) {
+            file.setLength(size);
+        }
+        try (PacFileEditor editor = new PacFileEditor(pacPath)) {
+            editor.setAppendOnly(true);
+            try {
+                editor.add(tpuid(NUM_ENTRIES), new MemoryAssetHandle(content(NUM_ENTRIES, 100)));
+                Assert.fail();
+            } catch (InvalidPacFormatException e) {
+                //  Expected
+            }
+            Assert.assertNull(editor.getIndex().getEntry(tpuid(NUM_ENTRIES)));
+            Assert.assertEquals(size, editor.getFileSize());
+            Assert.assertEquals(size, Files.size(pacPath));
+        } finally {
+            try (RandomAccessFile file = new RandomAccessFile(pacPath.toFile(), "rw")) {
+                file.setLength(originalSize);
+            }
+        }
+    }
+
+    @Test
+    public void compactReclaimsHoles() throws Exception {
+        long originalSize = Files.size(pacPath);
+        try (PacFileEditor editor = new PacFileEditor(pacPath)) {
+            for (int i = 0; i < 4; i++) {
+                editor.delete(tpuid(i));
+            }
+            editor.commit();
+            Assert.assertTrue(editor.getFreeBytes() > 0);
+            PacFileEditor.CompactionResult result = editor.compact();
+            Assert.assertTrue(result.isComplete());
+            Assert.assertTrue(result.getAssetsMoved() > 0);
+            Assert.assertTrue(result.getBytesReclaimed() > 0);
+        }
+        Assert.assertTrue(Files.size(pacPath) < originalSize);
+        try (PacFileReader reader = new PacFileReader(pacPath);
+             PacFile pacFile = reader.read()) {
+            Assert.assertEquals(NUM_ENTRIES - 4, pacFile.getIndex().getNumIndexEntries());
+            for (int i = 4; i < NUM_ENTRIES; i++) {
+                Assert.assertArrayEquals(content(i, 100), pacFile.getHandle(tpuid(i)).getDecompressedBytes());
+            }
+        }
+    }
+
+    @Test
+    public void compactWithinBudget() throws Exception {
+        try (PacFileEditor editor = new PacFileEditor(pacPath)) {
+            editor.delete(tpuid(0));
+            editor.delete(tpuid(2));
+            editor.commit();
+            //  Enough budget for a single asset per run
+            PacFileEditor.CompactionResult result = editor.compact(1);
+            Assert.assertEquals(1, result.getAssetsMoved());
+            Assert.assertFalse(result.isComplete());
+            while (!result.isComplete()) {
+                result = editor.compact(1);
+            }
+        }
+        try (PacFileReader reader = new PacFileReader(pacPath);
+             PacFile pacFile = reader.read()) {
+            for (int i = 0; i < NUM_ENTRIES; i++) {
+                if (i != 0 && i != 2) {
+                    Assert.assertArrayEquals(content(i, 100), pacFile.getHandle(tpuid(i)).getDecompressedBytes());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void allocatorCoalescesHoles() throws Exception {
+        TrashAllocator allocator = new TrashAllocator();
+        allocator.free(100, 10);
+        allocator.free(120, 10);
+        allocator.free(110, 10);
+        Assert.assertEquals(1, allocator.getNumHoles());
+        Assert.assertEquals(30, allocator.getFreeBytes());
+        allocator.free(200, 5);
+        //  Best fit takes the small hole even though the large one comes first
+        Assert.assertEquals(200, allocator.allocate(5));
+        Assert.assertEquals(100, allocator.allocate(8));
+        Assert.assertEquals(108, allocator.allocate(22));
+        Assert.assertEquals(-1, allocator.allocate(1));
+    }
+
+    private void checkAssets(PacFile pacFile, int skip, int lines) throws Exception {
+        for (int i = 0; i < NUM_ENTRIES; i++) {
+            if (i != skip) {
+                Assert.assertArrayEquals(content(i, lines), pacFile.getHandle(tpuid(i)).getDecompressedBytes());
+                Assert.assertEquals("asset_" + i,
+                        pacFile.getMetadata().getMetadata().get(tpuid(i)).getEntries().get("filename").getVal());
+            }
+        }
+    }
+
+    private static TypePurposeUniqueId tpuid(int i) {
+        return new TypePurposeUniqueId(4, 4, i);
+    }
+
+    private static byte[] content(int i, int lines) {
+        StringBuilder builder = new StringBuilder();
+        for (int j = 0; j < lines; j++) {
+            builder.append("Editable ").append(i).append(':').append(j).append('\n');
+        }
+        return builder.toString().getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Vincent Zhang
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package co.phoenixlab.phoenixpac;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.FileNotFoundException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+public class PacOverlayTest {
+
+    @Test
+    public void precedenceAndTombstones() throws Exception {
+        PacFile base = layer("base", new int[] {1, 2, 3, 4}, new int[0]);
+        PacFile patch = layer("patch", new int[] {2, 5}, new int[] {3});
+        PacFile dlc = layer("dlc", new int[] {3, 4}, new int[0]);
+        PacOverlay overlay = new PacOverlay();
+        overlay.mount(base, 0);
+        overlay.mount(dlc, 5);
+        overlay.mount(patch, 10);
+        Assert.assertEquals(Arrays.asList(patch, dlc, base), overlay.getLayers());
+
+        check(overlay, 1, "base");
+        check(overlay, 2, "patch");
+        //  The patch deletes asset 3 of every layer below it
+        Assert.assertNull(overlay.resolve(tpuid(3)));
+        Assert.assertNull(overlay.findHandle(tpuid(3)));
+        check(overlay, 4, "dlc");
+        check(overlay, 5, "patch");
+        Assert.assertNull(overlay.resolve(tpuid(6)));
+        Assert.assertEquals(4, overlay.getTPUIDs().size());
+        Assert.assertEquals(10, overlay.resolve(tpuid(2)).getPrecedence());
+
+        Assert.assertTrue(overlay.unmount(patch));
+        Assert.assertFalse(overlay.unmount(patch));
+        check(overlay, 2, "base");
+        check(overlay, 3, "dlc");
+        Assert.assertFalse(overlay.contains(tpuid(5)));
+
+        Assert.assertTrue(overlay.unmount(dlc));
+        check(overlay, 3, "base");
+        check(overlay, 4, "base");
+
+        //  Mounting below an existing layer leaves what that layer provides alone
+        overlay.mount(patch, -1);
+        check(overlay, 2, "base");
+        check(overlay, 3, "base");
+        check(overlay, 5, "patch");
+    }
+
+    @Test(expected = FileNotFoundException.class)
+    public void getHandleThrowsOnMiss() throws Exception {
+        PacOverlay overlay = new PacOverlay();
+        overlay.mount(layer("base", new int[] {1}, new int[0]), 0);
+        overlay.getHandle(tpuid(2));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void duplicatePrecedence() throws Exception {
+        PacOverlay overlay = new PacOverlay();
+        overlay.mount(layer("base", new int[] {1}, new int[0]), 0);
+        overlay.mount(layer("patch", new int[] {1}, new int[0]), 0);
+    }
+
+    private static void check(PacOverlay overlay, int i, String layer) throws Exception {
+        Assert.assertArrayEquals(content(layer, i), overlay.getHandle(tpuid(i)).getRawBytes());
+        Assert.assertEquals(tpuid(i), overlay.resolve(tpuid(i)).getEntry().getTPUID());
+    }
+
+    private static PacFile layer(String name, int[] assets, int[] tombstones) {
+        HandlePacBuilder builder = HandlePacBuilder.newBuilder().buildHeader().withLatestVersion().finishHeader();
+        for (int i : assets) {
+            byte[] data = content(name, i);
+            builder = builder.newEntry().
+                    withTPUID(tpuid(i)).
+                    withAssetHandle(new MemoryAssetHandle(data)).
+                    withSize(data.length).
+                    withNoCompression().
+                    add();
+        }
+        for (int i : tombstones) {
+            builder = builder.buildMetadata().
+                    editBlock(tpuid(i)).
+                    addEntry(PacOverlay.TOMBSTONE_KEY, "").
+                    add().
+                    finish();
+        }
+        return builder.finish();
+    }
+
+    private static byte[] content(String layer, int i) {
+        return (layer + " asset " + i).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static TypePurposeUniqueId tpuid(int i) {
+        return new TypePurposeUniqueId(9, 0, i);
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Vincent Zhang
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package co.phoenixlab.phoenixpac;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class PacSnapshotTest {
+
+    private static final int NUM_ENTRIES = 200;
+
+    private Path pacPath;
+
+    @Before
+    public void setUp() throws Exception {
+        pacPath = Paths.get(".").toAbsolutePath().resolve("test_snapshot.pac");
+        try (PacFileWriter writer = new PacFileWriter(pacPath, false)) {
+            writer.begin(false);
+            PacMetadata metadata = new PacMetadata();
+            for (int i = 0; i < NUM_ENTRIES; i++) {
+                writer.append(tpuid(i), new MemoryAssetHandle(content(i, 0)));
+                metadata.getOrCreateBlock(tpuid(i)).getEntries().
+                        put("filename", new MetadataEntry("filename", "asset_" + i));
+            }
+            writer.finish(metadata);
+        }
+    }
+
+    @Test
+    public void concurrentReads() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try (PacFileReader reader = new PacFileReader(pacPath);
+             PacSnapshot snapshot = reader.readSnapshot()) {
+            Assert.assertEquals(NUM_ENTRIES, snapshot.getNumEntries());
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < NUM_ENTRIES; i++) {
+                        Assert.assertArrayEquals(content(i, 0), snapshot.getHandle(tpuid(i)).getRawBytes());
+                        Assert.assertEquals("asset_" + i, snapshot.getMetadata(tpuid(i)).get("filename").getVal());
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void snapshotIsImmutable() throws Exception {
+        try (PacFileReader reader = new PacFileReader(pacPath);
+             PacSnapshot snapshot = reader.readSnapshot()) {
+            IndexEntry entry = snapshot.getEntry(tpuid(5));
+            long offset = entry.getOffset();
+            entry.offset = 0;
+            Assert.assertEquals(offset, snapshot.getEntry(tpuid(5)).getOffset());
+            snapshot.getHeader().indexSectionOffset = 0;
+            Assert.assertNotEquals(0, snapshot.getHeader().getIndexSectionOffset());
+            try {
+                snapshot.getMetadata(tpuid(5)).remove("filename");
+                Assert.fail("Metadata should be unmodifiable");
+            } catch (UnsupportedOperationException expected) {
+            }
+            try {
+                snapshot.getMetadata().clear();
+                Assert.fail("Metadata should be unmodifiable");
+            } catch (UnsupportedOperationException expected) {
+            }
+            Assert.assertTrue(snapshot.getMetadata(tpuid(NUM_ENTRIES)).isEmpty());
+            Assert.assertFalse(snapshot.contains(tpuid(NUM_ENTRIES)));
+        }
+    }
+
+    @Test
+    public void swapAfterEdit() throws Exception {
+        PacSnapshot old;
+        try (PacFileReader reader = new PacFileReader(pacPath)) {
+            old = reader.readSnapshot();
+        }
+        PacSnapshotHolder holder = new PacSnapshotHolder(old);
+        try (PacFileEditor editor = new PacFileEditor(pacPath)) {
+            editor.setAppendOnly(true);
+            editor.replace(tpuid(7), new MemoryAssetHandle(content(7, 1)));
+            editor.add(tpuid(NUM_ENTRIES), new MemoryAssetHandle(content(NUM_ENTRIES, 0)));
+            editor.commit();
+        }
+        PacSnapshot fresh;
+        try (PacFileReader reader = new PacFileReader(pacPath)) {
+            fresh = reader.readSnapshot();
+        }
+        Assert.assertFalse(holder.compareAndSwap(fresh, fresh));
+        Assert.assertSame(old, holder.swap(fresh));
+        Assert.assertSame(fresh, holder.get());
+        //  The old snapshot still reads the old version
+        Assert.assertArrayEquals(content(7, 0), old.getHandle(tpuid(7)).getRawBytes());
+        Assert.assertFalse(old.contains(tpuid(NUM_ENTRIES)));
+        Assert.assertArrayEquals(content(7, 1), fresh.getHandle(tpuid(7)).getRawBytes());
+        Assert.assertTrue(fresh.contains(tpuid(NUM_ENTRIES)));
+        old.close();
+        fresh.close();
+    }
+
+    private static byte[] content(int i, int version) {
+        return ("Asset " + i + " version " + version).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static TypePurposeUniqueId tpuid(int i) {
+        return new TypePurposeUniqueId(2, 1, i);
+    }
+}
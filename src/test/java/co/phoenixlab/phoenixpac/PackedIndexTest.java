@@ -0,0 +1,183 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Vincent Zhang
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package co.phoenixlab.phoenixpac;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+public class PackedIndexTest {
+
+    private Index index;
+    private List<TypePurposeUniqueId> tpuids;
+
+    @Before
+    public void setUp() throws Exception {
+        Random random = new Random(1234);
+        index = new Index();
+        tpuids = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            //  Plenty of IDs with the top bits set, which only sort correctly as unsigned. Few types and purposes so
+            //  that the queries below have something to find.
+            TypePurposeUniqueId tpuid = new TypePurposeUniqueId(0xFFF0 + random.nextInt(16), random.nextInt(8),
+                    random.nextInt());
+            IndexEntry entry = new IndexEntry();
+            entry.tpuid = tpuid;
+            entry.offset = i * 100L;
+            entry.diskSize = i;
+            entry.memorySize = i * 2;
+            entry.compressionId = i % 2;
+            entry.sha256Hash = IndexEntry.computeSha256Hash(new byte[]{(byte) i});
+            index.entries.put(tpuid, entry);
+            tpuids.add(tpuid);
+        }
+        index.syncCount();
+    }
+
+    @Test
+    public void lookup() {
+        PackedIndex packed = new PackedIndex(index);
+        Assert.assertEquals(index.getNumIndexEntries(), packed.getNumIndexEntries());
+        for (TypePurposeUniqueId tpuid : tpuids) {
+            IndexEntry expected = index.getEntry(tpuid);
+            IndexEntry actual = packed.getEntry(tpuid);
+            Assert.assertNotNull(actual);
+            Assert.assertEquals(tpuid, actual.getTPUID());
+            Assert.assertEquals(expected.getOffset(), actual.getOffset());
+            Assert.assertEquals(expected.getDiskSize(), actual.getDiskSize());
+            Assert.assertEquals(expected.getMemorySize(), actual.getMemorySize());
+            Assert.assertEquals(expected.getCompressionId(), actual.getCompressionId());
+            Assert.assertArrayEquals(expected.getSha256Hash(), actual.getSha256Hash());
+        }
+        Assert.assertNull(packed.getEntry(new TypePurposeUniqueId(1, 2, 3)));
+    }
+
+    @Test
+    public void sortedByTPUID() {
+        PackedIndex packed = new PackedIndex(index);
+        List<TypePurposeUniqueId> expected = new ArrayList<>(tpuids);
+        Collections.sort(expected);
+        Assert.assertEquals(expected, new ArrayList<>(packed.getEntries().keySet()));
+    }
+
+    @Test
+    public void rangeQuery() {
+        PackedIndex packed = new PackedIndex(index);
+        TypePurposeUniqueId start = new TypePurposeUniqueId(0xFFF3, 4, 0x80000000);
+        TypePurposeUniqueId end = new TypePurposeUniqueId(0xFFFA, 2, 0x10);
+        List<TypePurposeUniqueId> expected = tpuids(index.range(start, end));
+        Assert.assertFalse(expected.isEmpty());
+        Assert.assertEquals(expected, tpuids(packed.range(start, end)));
+        Assert.assertEquals(expected.size(), packed.range(start, end).parallel().count());
+    }
+
+    @Test
+    public void typeQueries() {
+        PackedIndex packed = new PackedIndex(index);
+        List<TypePurposeUniqueId> ofType = tpuids(packed.ofType(0xFFF7));
+        Assert.assertFalse(ofType.isEmpty());
+        Assert.assertEquals(tpuids(index.ofType(0xFFF7)), ofType);
+        Assert.assertTrue(ofType.stream().allMatch(t -> t.getTypeId() == 0xFFF7));
+        List<TypePurposeUniqueId> ofTypePurpose = tpuids(packed.ofTypePurpose(0xFFF7, 3));
+        Assert.assertFalse(ofTypePurpose.isEmpty());
+        Assert.assertEquals(tpuids(index.ofTypePurpose(0xFFF7, 3)), ofTypePurpose);
+        Assert.assertEquals(0, packed.ofType(0x1234).count());
+    }
+
+    @Test
+    public void maskQuery() {
+        PackedIndex packed = new PackedIndex(index);
+        //  Prefix mask, and one that skips the type and only looks at purpose and the low unique bits
+        TypePurposeUniqueId value = new TypePurposeUniqueId(0xFFF2, 5, 0);
+        Assert.assertEquals(tpuids(index.matching(value, TypePurposeUniqueId.TP_TPUID)),
+                tpuids(packed.matching(value, TypePurposeUniqueId.TP_TPUID)));
+        TypePurposeUniqueId mask = new TypePurposeUniqueId(0, 0xFFFF, 0x3);
+        value = new TypePurposeUniqueId(0, 2, 1);
+        List<TypePurposeUniqueId> expected = tpuids(index.matching(value, mask));
+        Assert.assertFalse(expected.isEmpty());
+        Assert.assertEquals(expected, tpuids(packed.matching(value, mask)));
+    }
+
+    private static List<TypePurposeUniqueId> tpuids(Stream<IndexEntry> entries) {
+        return entries.map(IndexEntry::getTPUID).sorted().collect(Collectors.toList());
+    }
+
+    @Test
+    public void duplicatesKeepLast() {
+        PackedIndex.Builder builder = new PackedIndex.Builder(0);
+        TypePurposeUniqueId tpuid = new TypePurposeUniqueId(0xFFFF, 1, 2);
+        byte[] hash = new byte[IndexEntry.SHA_256_HASH_BYTE_LEN];
+        builder.add(tpuid.getTypePurposeCombinedId(), 2, 10, 1, 1, 0, ByteBuffer.wrap(hash));
+        builder.add(0, 0, 20, 1, 1, 0, ByteBuffer.wrap(hash));
+        builder.add(tpuid.getTypePurposeCombinedId(), 2, 30, 1, 1, 0, ByteBuffer.wrap(hash));
+        PackedIndex packed = builder.build();
+        Assert.assertEquals(2, packed.getNumIndexEntries());
+        Assert.assertEquals(30, packed.getEntry(tpuid).getOffset());
+    }
+
+    @Test
+    public void readPacked() throws Exception {
+        Path pacPath = Paths.get(".").toAbsolutePath().resolve("test_packed.pac");
+        HandlePacBuilder builder = HandlePacBuilder.newBuilder().
+                buildHeader().withLatestVersion().finishHeader();
+        for (int i = 0; i < 100; i++) {
+            byte[] data = ("Asset " + i).getBytes(StandardCharsets.UTF_8);
+            builder = builder.newEntry().
+                    withTPUID(new TypePurposeUniqueId(0xFFFF - i, i, -i)).
+                    withAssetHandle(new MemoryAssetHandle(data)).
+                    withSize(data.length).
+                    withComputedSha256Hash().
+                    add();
+        }
+        try (PacFileWriter writer = new PacFileWriter(pacPath)) {
+            writer.writeNew(builder.finish());
+        }
+        for (boolean buffered : new boolean[]{true, false}) {
+            try (PacFileReader reader = new PacFileReader(pacPath, buffered)) {
+                reader.setPackedIndex(true);
+                try (PacFile pacFile = reader.read()) {
+                    Assert.assertTrue(pacFile.getIndex() instanceof PackedIndex);
+                    Assert.assertEquals(100, pacFile.getIndex().getNumIndexEntries());
+                    TypePurposeUniqueId tpuid = new TypePurposeUniqueId(0xFFFF - 42, 42, -42);
+                    byte[] bytes = pacFile.getHandle(tpuid).getRawBytes();
+                    Assert.assertEquals("Asset 42", new String(bytes, StandardCharsets.UTF_8));
+                    Assert.assertArrayEquals(IndexEntry.computeSha256Hash(bytes),
+                            pacFile.getIndex().getEntry(tpuid).getSha256Hash());
+                }
+            }
+        }
+    }
+}
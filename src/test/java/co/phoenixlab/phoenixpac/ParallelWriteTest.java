@@ -0,0 +1,146 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Vincent Zhang
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package co.phoenixlab.phoenixpac;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class ParallelWriteTest {
+
+    private static final int NUM_ENTRIES = 200;
+
+    @Test
+    public void compressedOutputMatchesSequential() throws Exception {
+        checkMatches(true, PacFileWriter.MAX_PREPARED_SIZE);
+    }
+
+    @Test
+    public void largeAssetsMatchSequential() throws Exception {
+        //  Small enough that some assets are prepared in memory and the rest streamed between them
+        checkMatches(true, 16 * 1024);
+    }
+
+    @Test
+    public void uncompressedOutputMatchesSequential() throws Exception {
+        checkMatches(false, PacFileWriter.MAX_PREPARED_SIZE);
+    }
+
+    @Test
+    public void unknownSizesAreWrittenByCallingThread() throws Exception {
+        Set<Thread> readers = ConcurrentHashMap.newKeySet();
+        HandlePacBuilder builder = TestPacs.newBuilder();
+        for (int i = 0; i < 20; i++) {
+            byte[] data = content(i).getBytes(StandardCharsets.UTF_8);
+            //  Nothing bounds how much of these a worker would have to buffer
+            AssetHandle handle = new MemoryAssetHandle(data) {
+                @Override
+                public long getRawSize() {
+                    return -1;
+                }
+
+                @Override
+                public InputStream getRawStream() throws IOException {
+                    readers.add(Thread.currentThread());
+                    return super.getRawStream();
+                }
+            };
+            builder = builder.newEntry().
+                    withTPUID(new TypePurposeUniqueId(5, 6, i)).
+                    withAssetHandle(handle).
+                    withSize(data.length).
+                    withNoCompression().
+                    withComputedSha256Hash().
+                    add();
+        }
+        Path path = Paths.get(".").toAbsolutePath().resolve("test_parallel.pac");
+        try (PacFileWriter writer = new PacFileWriter(path, true)) {
+            writer.setParallelism(4);
+            writer.writeNew(builder.finish());
+        }
+        Assert.assertEquals(Collections.singleton(Thread.currentThread()), readers);
+        try (PacFileReader reader = new PacFileReader(path);
+             PacFile pacFile = reader.read()) {
+            for (int i = 0; i < 20; i++) {
+                byte[] bytes = pacFile.getHandle(new TypePurposeUniqueId(5, 6, i)).getDecompressedBytes();
+                Assert.assertEquals(content(i), new String(bytes, StandardCharsets.UTF_8));
+            }
+        }
+    }
+
+    private void checkMatches(boolean compress, long maxPreparedSize) throws Exception {
+        Path sequential = Paths.get(".").toAbsolutePath().resolve("test_sequential.pac");
+        Path parallel = Paths.get(".").toAbsolutePath().resolve("test_parallel.pac");
+        try (PacFileWriter writer = new PacFileWriter(sequential, compress)) {
+            writer.writeNew(build());
+        }
+        try (PacFileWriter writer = new PacFileWriter(parallel, compress)) {
+            writer.setParallelism(4);
+            writer.maxPreparedSize = maxPreparedSize;
+            writer.writeNew(build());
+        }
+        Assert.assertArrayEquals(Files.readAllBytes(sequential), Files.readAllBytes(parallel));
+        try (PacFileReader reader = new PacFileReader(parallel);
+             PacFile pacFile = reader.read()) {
+            for (int i = 0; i < NUM_ENTRIES; i += 13) {
+                byte[] bytes = pacFile.getHandle(new TypePurposeUniqueId(5, 6, i)).getDecompressedBytes();
+                Assert.assertEquals(content(i), new String(bytes, StandardCharsets.UTF_8));
+            }
+        }
+    }
+
+    private static HandledPacFile<AssetHandle> build() throws Exception {
+        HandlePacBuilder builder = HandlePacBuilder.newBuilder().
+                buildHeader().withLatestVersion().setFlag(PacHeader.FLAG_USE_LONG_OFFSETS, false).finishHeader();
+        for (int i = 0; i < NUM_ENTRIES; i++) {
+            byte[] data = content(i).getBytes(StandardCharsets.UTF_8);
+            builder = builder.newEntry().
+                    withTPUID(new TypePurposeUniqueId(5, 6, i)).
+                    withAssetHandle(new MemoryAssetHandle(data)).
+                    withSize(data.length).
+                    withNoCompression().
+                    withComputedSha256Hash().
+                    add();
+        }
+        return builder.finish();
+    }
+
+    private static String content(int i) {
+        StringBuilder builder = new StringBuilder();
+        for (int j = 0; j < (i % 50) * 40; j++) {
+            builder.append("Line ").append(j).append(" of asset ").append(i).append('\n');
+        }
+        return builder.toString();
+    }
+}
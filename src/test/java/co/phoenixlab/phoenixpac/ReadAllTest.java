@@ -0,0 +1,98 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Vincent Zhang
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package co.phoenixlab.phoenixpac;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.FileNotFoundException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+public class ReadAllTest {
+
+    private static final int NUM_ENTRIES = 500;
+
+    private Path pacPath;
+
+    @Before
+    public void setUp() throws Exception {
+        pacPath = Paths.get(".").toAbsolutePath().resolve("test_readall.pac");
+        HandlePacBuilder builder = HandlePacBuilder.newBuilder().
+                buildHeader().withLatestVersion().setFlag(PacHeader.FLAG_USE_LONG_OFFSETS, true).finishHeader();
+        for (int i = 0; i < NUM_ENTRIES; i++) {
+            byte[] data = ("Asset number " + i).getBytes(StandardCharsets.UTF_8);
+            builder = builder.newEntry().
+                    withTPUID(new TypePurposeUniqueId(3, 4, i)).
+                    withAssetHandle(new MemoryAssetHandle(data)).
+                    withSize(data.length).
+                    withNoCompression().
+                    withComputedSha256Hash().
+                    add();
+        }
+        try (PacFileWriter writer = new PacFileWriter(pacPath, false)) {
+            writer.writeNew(builder.finish());
+        }
+    }
+
+    @Test
+    public void readAllMatchesSingleReads() throws Exception {
+        List<TypePurposeUniqueId> requested = new ArrayList<>();
+        for (int i = 0; i < NUM_ENTRIES; i += 3) {
+            requested.add(new TypePurposeUniqueId(3, 4, i));
+        }
+        Collections.shuffle(requested, new Random(42));
+        try (PacFileReader reader = new PacFileReader(pacPath);
+             PacFile pacFile = reader.read()) {
+            for (int gap : new int[] {0, 16, PacFile.DEFAULT_GAP_THRESHOLD}) {
+                Map<TypePurposeUniqueId, ByteBuffer> result = pacFile.readAll(requested, gap);
+                Assert.assertEquals(requested, new ArrayList<>(result.keySet()));
+                for (TypePurposeUniqueId tpuid : requested) {
+                    ByteBuffer buffer = result.get(tpuid);
+                    byte[] bytes = new byte[buffer.remaining()];
+                    buffer.get(bytes);
+                    Assert.assertArrayEquals(pacFile.getHandle(tpuid).getRawBytes(), bytes);
+                }
+            }
+        }
+    }
+
+    @Test(expected = FileNotFoundException.class)
+    public void missingAssetFails() throws Exception {
+        try (PacFileReader reader = new PacFileReader(pacPath);
+             PacFile pacFile = reader.read()) {
+            pacFile.readAll(Arrays.asList(new TypePurposeUniqueId(3, 4, 1), new TypePurposeUniqueId(9, 9, 9)));
+        }
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Vincent Zhang
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package co.phoenixlab.phoenixpac;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+public class SectionEncoderTest {
+
+    @Test
+    public void indexSpansChunks() throws Exception {
+        int numEntries = 3 * SectionEncoder.CHUNK_SIZE / IndexEntry.sizeOf(true);
+        Index index = new Index();
+        for (int i = 0; i < numEntries; i++) {
+            IndexEntry entry = new IndexEntry();
+            entry.tpuid = new TypePurposeUniqueId(1, 2, i);
+            entry.offset = 0x100000000L + i;
+            entry.diskSize = i;
+            entry.memorySize = 2 * i;
+            entry.compressionId = 1;
+            entry.sha256Hash[0] = (byte) i;
+            index.getEntries().put(entry.tpuid, entry);
+        }
+        index.syncCount();
+        byte[] bytes;
+        try (SectionEncoder encoder = new SectionEncoder()) {
+            encoder.index(index, true);
+            bytes = encoder.toByteArray();
+            Assert.assertEquals(encoder.size(), bytes.length);
+        }
+        Assert.assertEquals(8 + numEntries * IndexEntry.sizeOf(true), bytes.length);
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        Assert.assertEquals(numEntries, buffer.getInt());
+        for (int i = 0; i < numEntries; i++) {
+            Assert.assertEquals(new TypePurposeUniqueId(1, 2, 0).getTypePurposeCombinedId(), buffer.getInt());
+            Assert.assertEquals(i, buffer.getInt());
+            Assert.assertEquals(0x100000000L + i, buffer.getLong());
+            Assert.assertEquals(i, buffer.getInt());
+            Assert.assertEquals(2 * i, buffer.getInt());
+            Assert.assertEquals(0x01000000, buffer.getInt());
+            byte[] hash = new byte[IndexEntry.SHA_256_HASH_BYTE_LEN];
+            buffer.get(hash);
+            Assert.assertEquals((byte) i, hash[0]);
+        }
+        Assert.assertEquals(Index.GUARD_BYTES, buffer.getInt());
+    }
+
+    @Test
+    public void metadataSizeMatchesEncoding() throws Exception {
+        PacMetadata metadata = new PacMetadata();
+        StringBuilder longValue = new StringBuilder();
+        for (int i = 0; i < 200; i++) {
+            longValue.append('é');
+        }
+        for (int i = 0; i < 1000; i++) {
+            MetadataBlock block = metadata.getOrCreateBlock(new TypePurposeUniqueId(3, 0, i));
+            block.getEntries().put("filename", new MetadataEntry("filename", "asset_" + i));
+            block.getEntries().put("ëèï", new MetadataEntry("ëèï", longValue.toString()));
+        }
+        MetadataEntry truncated = metadata.getOrCreateBlock(new TypePurposeUniqueId(3, 0, 7)).getEntries().get("ëèï");
+        Assert.assertEquals(254, truncated.getValLength());
+        try (SectionEncoder encoder = new SectionEncoder()) {
+            encoder.metadata(metadata);
+            Assert.assertEquals(SectionEncoder.metadataSize(metadata), encoder.size());
+            ByteBuffer buffer = ByteBuffer.wrap(encoder.toByteArray());
+            Assert.assertEquals(metadata.getSize(), buffer.getInt());
+            Assert.assertEquals(1000, buffer.getInt());
+            buffer.position(buffer.position() + 12);
+            Assert.assertEquals(8, buffer.get());
+            Assert.assertEquals("asset_0".length(), buffer.get());
+            byte[] key = new byte[8];
+            buffer.get(key);
+            Assert.assertEquals("filename", new String(key, StandardCharsets.UTF_8));
+        }
+        Assert.assertEquals(0, SectionEncoder.metadataSize(new PacMetadata()));
+    }
+
+    @Test
+    public void writeToPositionsChannel() throws Exception {
+        Path path = Paths.get(".").toAbsolutePath().resolve("test_sections.pac");
+        PacHeader header = new PacHeader();
+        header.majorVersion = PacFile.MAJOR_VERSION;
+        header.minorVersion = PacFile.MINOR_VERSION;
+        header.indexSectionOffset = 1234;
+        try (RandomAccessFile file = new RandomAccessFile(path.toFile(), "rw");
+             SectionEncoder encoder = new SectionEncoder()) {
+            file.setLength(0);
+            encoder.header(header, false);
+            Assert.assertEquals(LayoutPlanner.headerSize(false), encoder.size());
+            Assert.assertEquals(100 + encoder.size(), encoder.writeTo(file.getChannel(), 100));
+            Assert.assertEquals(100 + encoder.size(), file.getFilePointer());
+            file.seek(100);
+            Assert.assertEquals(PacHeader.MAGIC_NUMBER, file.readInt());
+            file.seek(100 + LayoutPlanner.headerSize(false) - 12);
+            Assert.assertEquals(1234, file.readInt());
+        }
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Vincent Zhang
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package co.phoenixlab.phoenixpac;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class StreamedHashTest {
+
+    private static final int NUM_ENTRIES = 50;
+
+    @Test
+    public void sequentialUncompressed() throws Exception {
+        check(false, 1);
+    }
+
+    @Test
+    public void sequentialCompressed() throws Exception {
+        check(true, 1);
+    }
+
+    @Test
+    public void parallelCompressed() throws Exception {
+        check(true, 3);
+    }
+
+    @Test
+    public void rejectedCompressionReadsOnce() throws Exception {
+        Path pacPath = Paths.get(".").toAbsolutePath().resolve("test_hash.pac");
+        //  Doesn't compress, so the policy's choice to deflate it is rejected
+        byte[] noise = new byte[100000];
+        new Random(1).nextBytes(noise);
+        for (int parallelism = 1; parallelism <= 3; parallelism += 2) {
+            AtomicInteger reads = new AtomicInteger();
+            AssetHandle source = new MemoryAssetHandle(noise) {
+                @Override
+                public InputStream getRawStream() throws IOException {
+                    if (reads.incrementAndGet() > 1) {
+                        throw new IOException("Source can only be read once");
+                    }
+                    return super.getRawStream();
+                }
+            };
+            HandlePacBuilder builder = HandlePacBuilder.newBuilder().
+                    buildHeader().withLatestVersion().setFlag(PacHeader.FLAG_USE_LONG_OFFSETS, false).finishHeader().
+                    newEntry().
+                    withTPUID(new TypePurposeUniqueId(7, 8, 0)).
+                    withAssetHandle(source).
+                    withSize(noise.length).
+                    withNoCompression().
+                    withStreamedSha256Hash().
+                    add();
+            try (PacFileWriter writer = new PacFileWriter(pacPath)) {
+                writer.setParallelism(parallelism);
+                writer.setCompressionPolicy((tpuid, handle) -> CompressionDecision.deflate(6, 0.9));
+                writer.writeNew(builder.finish());
+            }
+            Assert.assertEquals(1, reads.get());
+            try (PacFileReader reader = new PacFileReader(pacPath);
+                 PacFile pacFile = reader.read()) {
+                IndexEntry entry = pacFile.getIndex().getEntry(new TypePurposeUniqueId(7, 8, 0));
+                Assert.assertEquals(0, entry.getCompressionId());
+                Assert.assertArrayEquals(IndexEntry.computeSha256Hash(noise), entry.getSha256Hash());
+                Assert.assertArrayEquals(noise, pacFile.getHandle(entry.getTPUID()).getRawBytes());
+            }
+        }
+    }
+
+    private void check(boolean compress, int parallelism) throws Exception {
+        Path pacPath = Paths.get(".").toAbsolutePath().resolve("test_hash.pac");
+        HandlePacBuilder builder = HandlePacBuilder.newBuilder().
+                buildHeader().withLatestVersion().setFlag(PacHeader.FLAG_USE_LONG_OFFSETS, false).finishHeader();
+        for (int i = 0; i < NUM_ENTRIES; i++) {
+            byte[] data = content(i);
+            builder = builder.newEntry().
+                    withTPUID(new TypePurposeUniqueId(7, 8, i)).
+                    withAssetHandle(new MemoryAssetHandle(data)).
+                    withSize(data.length).
+                    withNoCompression().
+                    withStreamedSha256Hash().
+                    add();
+        }
+        try (PacFileWriter writer = new PacFileWriter(pacPath, compress)) {
+            writer.setParallelism(parallelism);
+            writer.writeNew(builder.finish());
+        }
+        try (PacFileReader reader = new PacFileReader(pacPath);
+             PacFile pacFile = reader.read()) {
+            for (int i = 0; i < NUM_ENTRIES; i++) {
+                TypePurposeUniqueId tpuid = new TypePurposeUniqueId(7, 8, i);
+                IndexEntry entry = pacFile.getIndex().getEntry(tpuid);
+                Assert.assertArrayEquals(IndexEntry.computeSha256Hash(content(i)), entry.getSha256Hash());
+                Assert.assertArrayEquals(content(i), pacFile.getHandle(tpuid).getDecompressedBytes());
+            }
+        }
+    }
+
+    private static byte[] content(int i) {
+        StringBuilder builder = new StringBuilder();
+        for (int j = 0; j < i * 30; j++) {
+            builder.append("Hashed line ").append(j).append('\n');
+        }
+        return builder.toString().getBytes(StandardCharsets.UTF_8);
+    }
+}
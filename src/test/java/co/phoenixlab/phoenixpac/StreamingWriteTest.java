@@ -0,0 +1,138 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Vincent Zhang
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package co.phoenixlab.phoenixpac;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+public class StreamingWriteTest {
+
+    private static final int NUM_ENTRIES = 100;
+
+    @Test
+    public void appendAndFinish() throws Exception {
+        Path pacPath = Paths.get(".").toAbsolutePath().resolve("test_streaming.pac");
+        try (PacFileWriter writer = new PacFileWriter(pacPath, true)) {
+            writer.begin(true);
+            PacMetadata metadata = new PacMetadata();
+            //  Appended out of order on purpose
+            for (int i = NUM_ENTRIES - 1; i >= 0; i--) {
+                TypePurposeUniqueId tpuid = new TypePurposeUniqueId(2, 1, i);
+                writer.append(tpuid, new MemoryAssetHandle(content(i)));
+                metadata.getOrCreateBlock(tpuid).getEntries().
+                        put("filename", new MetadataEntry("filename", "asset_" + i));
+            }
+            writer.finish(metadata);
+        }
+        try (PacFileReader reader = new PacFileReader(pacPath);
+             PacFile pacFile = reader.read()) {
+            Assert.assertTrue(pacFile.getHeader().getFlag(PacHeader.FLAG_USE_LONG_OFFSETS));
+            Assert.assertEquals(NUM_ENTRIES, pacFile.getIndex().getNumIndexEntries());
+            for (int i = 0; i < NUM_ENTRIES; i++) {
+                TypePurposeUniqueId tpuid = new TypePurposeUniqueId(2, 1, i);
+                IndexEntry entry = pacFile.getIndex().getEntry(tpuid);
+                Assert.assertEquals(PacFile.COMPRESSION_DEFLATE, entry.getCompressionId());
+                Assert.assertEquals(content(i).length, entry.getMemorySize());
+                Assert.assertArrayEquals(IndexEntry.computeSha256Hash(content(i)), entry.getSha256Hash());
+                Assert.assertArrayEquals(content(i), pacFile.getHandle(tpuid).getDecompressedBytes());
+                Assert.assertEquals("asset_" + i,
+                        pacFile.getMetadata().getMetadata().get(tpuid).getEntries().get("filename").getVal());
+            }
+        }
+    }
+
+    @Test
+    public void failedAppendLeavesNothingBehind() throws Exception {
+        Path expected = Paths.get(".").toAbsolutePath().resolve("test_streaming.pac");
+        Path pacPath = Paths.get(".").toAbsolutePath().resolve("test_streaming_failed.pac");
+        for (Path path : new Path[] {expected, pacPath}) {
+            try (PacFileWriter writer = new PacFileWriter(path, false)) {
+                writer.setAlignment(16);
+                writer.begin(false);
+                writer.append(new TypePurposeUniqueId(2, 1, 1), new MemoryAssetHandle(content(1)));
+                if (path == pacPath) {
+                    try {
+                        writer.append(new TypePurposeUniqueId(2, 1, 2), new FailingAssetHandle(content(50)));
+                        Assert.fail();
+                    } catch (IOException e) {
+                        //  Expected
+                    }
+                }
+                writer.append(new TypePurposeUniqueId(2, 1, 3), new MemoryAssetHandle(content(3)));
+                writer.finish(null);
+            }
+        }
+        Assert.assertArrayEquals(Files.readAllBytes(expected), Files.readAllBytes(pacPath));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void appendWithoutBegin() throws Exception {
+        Path pacPath = Paths.get(".").toAbsolutePath().resolve("test_streaming.pac");
+        try (PacFileWriter writer = new PacFileWriter(pacPath, false)) {
+            writer.append(new TypePurposeUniqueId(1, 1, 1), new MemoryAssetHandle(content(1)));
+        }
+    }
+
+    /**
+     * Fails halfway through reading its data.
+     */
+    private static class FailingAssetHandle extends MemoryAssetHandle {
+
+        FailingAssetHandle(byte[] data) {
+            super(data);
+        }
+
+        @Override
+        public InputStream getRawStream() throws IOException {
+            return new FilterInputStream(new ByteArrayInputStream(getRawBytes(), 0, getRawBytes().length / 2)) {
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    int read = super.read(b, off, len);
+                    if (read == -1) {
+                        throw new IOException("Read error");
+                    }
+                    return read;
+                }
+            };
+        }
+    }
+
+    private static byte[] content(int i) {
+        StringBuilder builder = new StringBuilder();
+        for (int j = 0; j < i * 10 + 1; j++) {
+            builder.append("Streamed ").append(i).append(':').append(j).append('\n');
+        }
+        return builder.toString().getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Vincent Zhang
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package co.phoenixlab.phoenixpac;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.function.Consumer;
+
+/**
+ * Archive scaffolding and asset data shared between tests.
+ */
+public final class TestPacs {
+
+    private TestPacs() {
+    }
+
+    /**
+     * @return A builder for an archive of the latest version with narrow offsets
+     */
+    public static HandlePacBuilder newBuilder() {
+        return HandlePacBuilder.newBuilder().
+                buildHeader().withLatestVersion().setFlag(PacHeader.FLAG_USE_LONG_OFFSETS, false).finishHeader();
+    }
+
+    /**
+     * Adds an uncompressed asset held in memory.
+     *
+     * @param streamedHash Whether to hash the asset as it is written rather than up front
+     */
+    public static HandlePacBuilder add(HandlePacBuilder builder, TypePurposeUniqueId tpuid, byte[] data,
+                                       boolean streamedHash) throws IOException {
+        HandlePacBuilder.EntryBuilder entry = builder.newEntry().
+                withTPUID(tpuid).
+                withAssetHandle(new MemoryAssetHandle(data)).
+                withSize(data.length).
+                withNoCompression();
+        return (streamedHash ? entry.withStreamedSha256Hash() : entry.withComputedSha256Hash()).add();
+    }
+
+    /**
+     * Writes the built archive to the given path.
+     *
+     * @param settings Applied to the writer before writing
+     * @return The closed writer, for its statistics
+     */
+    public static PacFileWriter write(Path path, HandlePacBuilder builder, int parallelism,
+                                      Consumer<PacFileWriter> settings) throws Exception {
+        try (PacFileWriter writer = new PacFileWriter(path, false)) {
+            writer.setParallelism(parallelism);
+            settings.accept(writer);
+            writer.writeNew(builder.finish());
+            return writer;
+        }
+    }
+
+    public static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (InputStream stream = in) {
+            //  Odd size, so that reads don't line up with block boundaries
+            byte[] buf = new byte[777];
+            int read;
+            while ((read = stream.read(buf)) != -1) {
+                out.write(buf, 0, read);
+            }
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * @return Repetitive text that compresses well
+     */
+    public static byte[] text(int lines) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < lines; i++) {
+            builder.append("Line ").append(i % 97).append(" of the asset\n");
+        }
+        return builder.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return Random bytes that don't compress, the same for the same size
+     */
+    public static byte[] noise(int size) {
+        byte[] bytes = new byte[size];
+        new Random(size).nextBytes(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Vincent Zhang
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package co.phoenixlab.phoenixpac.codec;
+
+import co.phoenixlab.phoenixpac.AssetHandle;
+import co.phoenixlab.phoenixpac.CompressionPolicy;
+import co.phoenixlab.phoenixpac.MappedAssetHandle;
+import co.phoenixlab.phoenixpac.MemoryAssetHandle;
+import co.phoenixlab.phoenixpac.PacFile;
+import co.phoenixlab.phoenixpac.PacFileReader;
+import co.phoenixlab.phoenixpac.PacFileWriter;
+import co.phoenixlab.phoenixpac.TestPacs;
+import co.phoenixlab.phoenixpac.TypePurposeUniqueId;
+import co.phoenixlab.phoenixpac.throwables.InvalidPacFormatException;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Random;
+
+public class ChunkedDeflateCodecTest {
+
+    private final ChunkedDeflateCodec codec = new ChunkedDeflateCodec();
+
+    @Test
+    public void roundTrips() throws Exception {
+        roundTrip(new byte[0]);
+        roundTrip("a".getBytes(StandardCharsets.UTF_8));
+        roundTrip(TestPacs.text(20000));
+        roundTrip(TestPacs.noise(ChunkedDeflateCodec.CHUNK_SIZE * 2));
+        byte[] mixed = new byte[ChunkedDeflateCodec.CHUNK_SIZE * 3 + 17];
+        System.arraycopy(TestPacs.noise(ChunkedDeflateCodec.CHUNK_SIZE), 0, mixed, 0, ChunkedDeflateCodec.CHUNK_SIZE);
+        System.arraycopy(TestPacs.text(5000), 0, mixed, ChunkedDeflateCodec.CHUNK_SIZE, ChunkedDeflateCodec.CHUNK_SIZE);
+        roundTrip(mixed);
+    }
+
+    @Test
+    public void storesIncompressibleChunks() throws Exception {
+        byte[] noise = TestPacs.noise(ChunkedDeflateCodec.CHUNK_SIZE * 2);
+        //  Two chunk headers, the end marker, two seek table entries and the footer
+        int overhead = 2 * ChunkedDeflateCodec.CHUNK_HEADER_SIZE + 4 + 2 * 4 + ChunkedDeflateCodec.FOOTER_SIZE;
+        Assert.assertEquals(noise.length + overhead, compress(noise).length);
+    }
+
+    @Test
+    public void seeks() throws Exception {
+        byte[] data = TestPacs.text(40000);
+        Assert.assertTrue(data.length > ChunkedDeflateCodec.CHUNK_SIZE * 10);
+        byte[] compressed = compress(data);
+        Assert.assertTrue(compressed.length < data.length / 4);
+        AssetHandle handle = new MappedAssetHandle(ByteBuffer.wrap(compressed), PacFile.COMPRESSION_CHUNKED_DEFLATE,
+                data.length);
+        Random random = new Random(7);
+        try (SeekableByteChannel channel = handle.newDecompressedChannel()) {
+            Assert.assertEquals(data.length, channel.size());
+            for (int i = 0; i < 200; i++) {
+                int position = random.nextInt(data.length);
+                //  Long enough to cross chunk boundaries now and then
+                int length = random.nextInt(ChunkedDeflateCodec.CHUNK_SIZE * 2);
+                ByteBuffer dst = ByteBuffer.allocate(length);
+                channel.position(position);
+                int read = channel.read(dst);
+                int expected = Math.min(length, data.length - position);
+                Assert.assertEquals(expected, Math.max(read, 0));
+                Assert.assertEquals(position + expected, channel.position());
+                Assert.assertArrayEquals(Arrays.copyOfRange(data, position, position + expected),
+                        Arrays.copyOf(dst.array(), expected));
+            }
+            channel.position(data.length);
+            Assert.assertEquals(-1, channel.read(ByteBuffer.allocate(1)));
+        }
+    }
+
+    @Test(expected = InvalidPacFormatException.class)
+    public void rejectsBadFooter() throws Exception {
+        byte[] compressed = compress(TestPacs.text(10000));
+        //  Claim one more chunk than the size allows
+        compressed[compressed.length - 1]++;
+        new MappedAssetHandle(ByteBuffer.wrap(compressed), PacFile.COMPRESSION_CHUNKED_DEFLATE, -1).
+                newDecompressedChannel();
+    }
+
+    @Test
+    public void writeAndRead() throws Exception {
+        Path pacPath = Paths.get(".").toAbsolutePath().resolve("test_chunked.pac");
+        byte[][] assets = {new byte[0], TestPacs.text(30000), TestPacs.noise(ChunkedDeflateCodec.CHUNK_SIZE + 5)};
+        try (PacFileWriter writer = new PacFileWriter(pacPath)) {
+            writer.setCompressionPolicy(CompressionPolicy.always(PacFile.COMPRESSION_CHUNKED_DEFLATE,
+                    codec.getDefaultLevel()));
+            writer.begin(false);
+            for (int i = 0; i < assets.length; i++) {
+                writer.append(new TypePurposeUniqueId(1, 1, i), new MemoryAssetHandle(assets[i]));
+            }
+            writer.finish(null);
+        }
+        try (PacFileReader reader = new PacFileReader(pacPath);
+             PacFile pacFile = reader.read()) {
+            for (int i = 0; i < assets.length; i++) {
+                AssetHandle handle = pacFile.getHandle(new TypePurposeUniqueId(1, 1, i));
+                byte[] expected = assets[i];
+                Assert.assertEquals(PacFile.COMPRESSION_CHUNKED_DEFLATE, handle.getCompressionId());
+                Assert.assertArrayEquals(expected, handle.getDecompressedBytes());
+                Assert.assertArrayEquals(expected, TestPacs.readAll(handle.getDecompressedStream()));
+                try (SeekableByteChannel channel = handle.newDecompressedChannel()) {
+                    Assert.assertEquals(expected.length, channel.size());
+                    int position = expected.length / 2;
+                    ByteBuffer dst = ByteBuffer.allocate(expected.length - position);
+                    channel.position(position);
+                    while (dst.hasRemaining() && channel.read(dst) > 0) {
+                        //  Keep reading
+                    }
+                    Assert.assertArrayEquals(Arrays.copyOfRange(expected, position, expected.length), dst.array());
+                }
+            }
+        }
+    }
+
+    private void roundTrip(byte[] data) throws Exception {
+        byte[] compressed = compress(data);
+        Assert.assertArrayEquals(data, codec.decompress(ByteBuffer.wrap(compressed), data.length));
+        Assert.assertArrayEquals(data, codec.decompress(ByteBuffer.wrap(compressed), -1));
+        InputStream decompressed = codec.newDecompressingStream(new ByteArrayInputStream(compressed));
+        Assert.assertArrayEquals(data, TestPacs.readAll(decompressed));
+        AssetHandle handle = new MappedAssetHandle(ByteBuffer.wrap(compressed), PacFile.COMPRESSION_CHUNKED_DEFLATE,
+                data.length);
+        try (SeekableByteChannel channel = handle.newDecompressedChannel()) {
+            ByteBuffer dst = ByteBuffer.allocate(data.length);
+            while (dst.hasRemaining() && channel.read(dst) > 0) {
+                //  Keep reading
+            }
+            Assert.assertArrayEquals(data, dst.array());
+        }
+    }
+
+    private byte[] compress(byte[] data) throws IOException {
+        return TestPacs.readAll(codec.newCompressingStream(new ByteArrayInputStream(data), codec.getDefaultLevel()));
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Vincent Zhang
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package co.phoenixlab.phoenixpac.codec;
+
+import co.phoenixlab.phoenixpac.AssetHandle;
+import co.phoenixlab.phoenixpac.CompressionPolicy;
+import co.phoenixlab.phoenixpac.MemoryAssetHandle;
+import co.phoenixlab.phoenixpac.PacFile;
+import co.phoenixlab.phoenixpac.PacFileReader;
+import co.phoenixlab.phoenixpac.PacFileWriter;
+import co.phoenixlab.phoenixpac.TestPacs;
+import co.phoenixlab.phoenixpac.TypePurposeUniqueId;
+import co.phoenixlab.phoenixpac.throwables.InvalidPacFormatException;
+import co.phoenixlab.phoenixpac.throwables.UnsupportedCompressionException;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+public class LzCodecTest {
+
+    private final PacCodec codec = new LzCodec();
+
+    @Test
+    public void roundTrips() throws Exception {
+        roundTrip(new byte[0]);
+        roundTrip("a".getBytes(StandardCharsets.UTF_8));
+        roundTrip("Short and incompressible".getBytes(StandardCharsets.UTF_8));
+        roundTrip(new byte[100000]);
+        roundTrip(TestPacs.text(20000));
+        roundTrip(TestPacs.noise(300000));
+        //  Period shorter than the minimum match, so every match overlaps itself
+        roundTrip(repeat(new byte[] {1, 2, 3}, 50000));
+        byte[] mixed = new byte[LzCodec.BLOCK_SIZE * 3 + 17];
+        System.arraycopy(TestPacs.noise(LzCodec.BLOCK_SIZE), 0, mixed, 0, LzCodec.BLOCK_SIZE);
+        System.arraycopy(TestPacs.text(5000), 0, mixed, LzCodec.BLOCK_SIZE, LzCodec.BLOCK_SIZE);
+        roundTrip(mixed);
+    }
+
+    @Test
+    public void compresses() throws Exception {
+        byte[] data = TestPacs.text(20000);
+        Assert.assertTrue(compress(data).length < data.length / 4);
+        //  Stored blocks only cost their header
+        byte[] noise = TestPacs.noise(LzCodec.BLOCK_SIZE * 2);
+        Assert.assertEquals(noise.length + 2 * LzCodec.BLOCK_HEADER_SIZE, compress(noise).length);
+    }
+
+    @Test(expected = InvalidPacFormatException.class)
+    public void rejectsBadDistance() throws Exception {
+        //  One literal, then a match reaching 5 bytes back, before the start of the block
+        ByteBuffer block = ByteBuffer.allocate(LzCodec.BLOCK_HEADER_SIZE + 4);
+        block.putInt(20).putInt(4).put((byte) 0x10).put((byte) 'a').put((byte) 5).put((byte) 0).flip();
+        codec.decompress(block, -1);
+    }
+
+    @Test(expected = InvalidPacFormatException.class)
+    public void rejectsTruncated() throws Exception {
+        byte[] compressed = compress(TestPacs.text(1000));
+        codec.decompress(ByteBuffer.wrap(compressed, 0, compressed.length - 3).slice(), -1);
+    }
+
+    @Test
+    public void registry() throws Exception {
+        Assert.assertTrue(PacCodecs.get(PacFile.COMPRESSION_LZ) instanceof LzCodec);
+        Assert.assertTrue(PacCodecs.get(PacFile.COMPRESSION_DEFLATE) instanceof DeflateCodec);
+        Assert.assertNull(PacCodecs.find(77));
+        try {
+            PacCodecs.get(77);
+            Assert.fail();
+        } catch (UnsupportedCompressionException e) {
+            Assert.assertEquals(77, e.getCompressionId());
+        }
+    }
+
+    @Test
+    public void writeAndRead() throws Exception {
+        Path pacPath = Paths.get(".").toAbsolutePath().resolve("test_lz.pac");
+        try (PacFileWriter writer = new PacFileWriter(pacPath)) {
+            writer.setCompressionPolicy(CompressionPolicy.always(PacFile.COMPRESSION_LZ, 0));
+            writer.begin(false);
+            for (int i = 0; i < 10; i++) {
+                writer.append(new TypePurposeUniqueId(1, 1, i), new MemoryAssetHandle(TestPacs.text(i * 1000 + 1)));
+            }
+            writer.finish(null);
+        }
+        try (PacFileReader reader = new PacFileReader(pacPath);
+             PacFile pacFile = reader.read()) {
+            for (int i = 0; i < 10; i++) {
+                AssetHandle handle = pacFile.getHandle(new TypePurposeUniqueId(1, 1, i));
+                byte[] expected = TestPacs.text(i * 1000 + 1);
+                Assert.assertEquals(PacFile.COMPRESSION_LZ, handle.getCompressionId());
+                Assert.assertArrayEquals(expected, handle.getDecompressedBytes());
+                Assert.assertArrayEquals(expected, TestPacs.readAll(handle.getDecompressedStream()));
+                ByteBuffer direct = ByteBuffer.allocateDirect(expected.length);
+                handle.getDecompressedByteBuffer(direct);
+                Assert.assertFalse(direct.hasRemaining());
+            }
+        }
+    }
+
+    private void roundTrip(byte[] data) throws Exception {
+        byte[] compressed = compress(data);
+        Assert.assertArrayEquals(data, codec.decompress(ByteBuffer.wrap(compressed), data.length));
+        Assert.assertArrayEquals(data, codec.decompress(ByteBuffer.wrap(compressed), -1));
+        ByteBuffer direct = ByteBuffer.allocateDirect(compressed.length);
+        direct.put(compressed).flip();
+        Assert.assertArrayEquals(data, codec.decompress(direct, -1));
+        InputStream decompressed = codec.newDecompressingStream(new ByteArrayInputStream(compressed));
+        Assert.assertArrayEquals(data, TestPacs.readAll(decompressed));
+    }
+
+    private byte[] compress(byte[] data) throws IOException {
+        return TestPacs.readAll(codec.newCompressingStream(new ByteArrayInputStream(data), codec.getDefaultLevel()));
+    }
+
+    private static byte[] repeat(byte[] pattern, int times) {
+        byte[] bytes = new byte[pattern.length * times];
+        for (int i = 0; i < times; i++) {
+            System.arraycopy(pattern, 0, bytes, i * pattern.length, pattern.length);
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,222 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Vincent Zhang
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package co.phoenixlab.phoenixpac.fs;
+
+import co.phoenixlab.phoenixpac.CompressionPolicy;
+import co.phoenixlab.phoenixpac.MemoryAssetHandle;
+import co.phoenixlab.phoenixpac.MetadataEntry;
+import co.phoenixlab.phoenixpac.PacFileWriter;
+import co.phoenixlab.phoenixpac.PacMetadata;
+import co.phoenixlab.phoenixpac.TypePurposeUniqueId;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.ReadOnlyFileSystemException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class PacFileSystemTest {
+
+    private static final TypePurposeUniqueId TEXTURE = new TypePurposeUniqueId(1, 2, 3);
+    private static final TypePurposeUniqueId SOUND = new TypePurposeUniqueId(4, 0, 0xCAFEBABE);
+    private static final TypePurposeUniqueId UNNAMED = new TypePurposeUniqueId(5, 5, 5);
+
+    private Path pacPath;
+    private byte[] soundData;
+
+    @Before
+    public void setUp() throws Exception {
+        pacPath = Paths.get(".").toAbsolutePath().resolve("test_fs.pac");
+        StringBuilder sound = new StringBuilder();
+        for (int i = 0; i < 10000; i++) {
+            sound.append("Sample ").append(i).append('\n');
+        }
+        soundData = sound.toString().getBytes(StandardCharsets.UTF_8);
+        try (PacFileWriter writer = new PacFileWriter(pacPath, false)) {
+            writer.begin(false);
+            PacMetadata metadata = new PacMetadata();
+            writer.append(TEXTURE, new MemoryAssetHandle(content("texture")));
+            metadata.getOrCreateBlock(TEXTURE).getEntries().
+                    put("filename", new MetadataEntry("filename", "textures\\a.png"));
+            writer.setCompressionPolicy(CompressionPolicy.always(9));
+            writer.append(SOUND, new MemoryAssetHandle(soundData));
+            metadata.getOrCreateBlock(SOUND).getEntries().
+                    put("filename", new MetadataEntry("filename", "sounds/b.ogg"));
+            writer.setCompressionPolicy(CompressionPolicy.never());
+            writer.append(UNNAMED, new MemoryAssetHandle(content("unnamed")));
+            writer.finish(metadata);
+        }
+    }
+
+    @Test
+    public void readByNameAndTPUID() throws Exception {
+        try (FileSystem fs = FileSystems.newFileSystem(pacPath, (ClassLoader) null)) {
+            Assert.assertTrue(fs instanceof PacFileSystem);
+            Assert.assertTrue(fs.isReadOnly());
+            Path byName = fs.getPath("/textures/a.png");
+            Path byTPUID = ((PacFileSystem) fs).getPath(TEXTURE);
+            Assert.assertEquals("/0x0001/0x0002/0x00000003", byTPUID.toString());
+            Assert.assertArrayEquals(content("texture"), Files.readAllBytes(byName));
+            Assert.assertArrayEquals(content("texture"), Files.readAllBytes(byTPUID));
+            Assert.assertTrue(Files.isSameFile(byName, byTPUID));
+            Assert.assertArrayEquals(content("unnamed"), Files.readAllBytes(fs.getPath("/0x5/0X0005/5")));
+            //  Compressed assets are decompressed transparently
+            Path soundPath = fs.getPath("sounds", "b.ogg").toAbsolutePath();
+            Assert.assertEquals(soundData.length, Files.size(soundPath));
+            Assert.assertArrayEquals(soundData, Files.readAllBytes(soundPath));
+            Assert.assertArrayEquals(soundData, Files.readAllBytes(((PacFileSystem) fs).getPath(SOUND)));
+            Assert.assertTrue(Files.isDirectory(fs.getPath("/textures")));
+            Assert.assertFalse(Files.exists(fs.getPath("/textures/missing.png")));
+        }
+    }
+
+    @Test
+    public void seek() throws Exception {
+        try (FileSystem fs = FileSystems.newFileSystem(pacPath, (ClassLoader) null)) {
+            for (String name : Arrays.asList("/sounds/b.ogg", "/textures/a.png")) {
+                Path path = fs.getPath(name);
+                byte[] expected = Files.readAllBytes(path);
+                try (SeekableByteChannel channel = Files.newByteChannel(path)) {
+                    Assert.assertEquals(expected.length, channel.size());
+                    for (long position : new long[] {expected.length / 2, 3, expected.length - 4, 0}) {
+                        channel.position(position);
+                        ByteBuffer buffer = ByteBuffer.allocate(4);
+                        while (buffer.hasRemaining() && channel.read(buffer) > 0) {
+                        }
+                        Assert.assertArrayEquals(Arrays.copyOfRange(expected, (int) position, (int) position + 4),
+                                buffer.array());
+                    }
+                    channel.position(expected.length);
+                    Assert.assertEquals(-1, channel.read(ByteBuffer.allocate(1)));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void listAndMatch() throws Exception {
+        try (FileSystem fs = FileSystems.newFileSystem(pacPath, (ClassLoader) null)) {
+            List<String> names = new ArrayList<>();
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(fs.getPath("/"))) {
+                for (Path path : stream) {
+                    names.add(path.getFileName().toString());
+                }
+            }
+            Collections.sort(names);
+            Assert.assertEquals(Arrays.asList("0x0001", "0x0004", "0x0005", "sounds", "textures"), names);
+            List<Path> matches = new ArrayList<>();
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(fs.getPath("/textures"), "*.{png,jpg}")) {
+                stream.forEach(matches::add);
+            }
+            Assert.assertEquals(Collections.singletonList(fs.getPath("/textures/a.png")), matches);
+            Assert.assertTrue(fs.getPathMatcher("glob:/**/b.ogg").matches(fs.getPath("/sounds/b.ogg")));
+            Assert.assertFalse(fs.getPathMatcher("glob:/*/*/b.ogg").matches(fs.getPath("/sounds/b.ogg")));
+        }
+    }
+
+    @Test
+    public void uriRoundTrip() throws Exception {
+        Path archive = pacPath.toAbsolutePath().normalize();
+        try (FileSystem fs = FileSystems.newFileSystem(
+                java.net.URI.create("pac:" + archive.toUri() + "!/"), Collections.emptyMap())) {
+            Path path = fs.getPath("/sounds/b.ogg");
+            Assert.assertEquals(path, Paths.get(path.toUri()));
+            Assert.assertArrayEquals(soundData, Files.readAllBytes(Paths.get(path.toUri())));
+        }
+    }
+
+    @Test
+    public void paths() throws Exception {
+        try (FileSystem fs = FileSystems.newFileSystem(pacPath, (ClassLoader) null)) {
+            Path path = fs.getPath("/a/b/../c/./d");
+            Assert.assertEquals(fs.getPath("/a/c/d"), path.normalize());
+            Assert.assertEquals(6, path.getNameCount());
+            Assert.assertEquals(fs.getPath("d"), path.getFileName());
+            Assert.assertEquals(fs.getPath("/a/b/../c/."), path.getParent());
+            Assert.assertEquals(fs.getPath("/"), path.getRoot());
+            Assert.assertEquals(fs.getPath("b/.."), path.subpath(1, 3));
+            Assert.assertTrue(path.startsWith("/a/b"));
+            Assert.assertTrue(path.endsWith("c/./d"));
+            Assert.assertFalse(path.startsWith("/a/bb"));
+            Assert.assertEquals(fs.getPath("../../x"), fs.getPath("/a/c").relativize(fs.getPath("/x")));
+            Assert.assertEquals(fs.getPath("/a/x"), fs.getPath("/a/c").resolveSibling("x"));
+            Assert.assertEquals(fs.getPath("/x/y"), fs.getPath("/x").resolve("y"));
+            Assert.assertNull(fs.getPath("/").getParent());
+        }
+    }
+
+    @Test
+    public void rejectsOtherFiles() throws Exception {
+        Path other = Files.createTempFile("notpac", ".bin");
+        try {
+            PacFileSystemProvider provider = new PacFileSystemProvider();
+            //  Shorter than a header, then long enough but with the wrong magic number
+            for (int size : new int[] {3, 4096}) {
+                Files.write(other, new byte[size]);
+                try {
+                    provider.newFileSystem(other, Collections.emptyMap()).close();
+                    Assert.fail();
+                } catch (UnsupportedOperationException e) {
+                    //  Expected
+                }
+            }
+        } finally {
+            Files.delete(other);
+        }
+    }
+
+    @Test
+    public void readOnly() throws Exception {
+        try (FileSystem fs = FileSystems.newFileSystem(pacPath, (ClassLoader) null)) {
+            try {
+                Files.write(fs.getPath("/textures/a.png"), new byte[1]);
+                Assert.fail("Should not be writable");
+            } catch (ReadOnlyFileSystemException expected) {
+            }
+            try {
+                Files.readAllBytes(fs.getPath("/nothing"));
+                Assert.fail("Should not exist");
+            } catch (NoSuchFileException expected) {
+            }
+        }
+    }
+
+    private static byte[] content(String name) {
+        return ("Contents of " + name).getBytes(StandardCharsets.UTF_8);
+    }
+}